@@ -5,12 +5,16 @@
 
 package com.datadoghq.sketch.ddsketch;
 
+import com.datadoghq.sketch.ddsketch.mapping.Base2ExponentialMapping;
 import com.datadoghq.sketch.ddsketch.mapping.BitwiseLinearlyInterpolatedMapping;
 import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
 import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
 import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.mapping.LookupTableLogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.store.FenwickTreeDenseStore;
 import com.datadoghq.sketch.ddsketch.store.PaginatedStore;
 import com.datadoghq.sketch.ddsketch.store.Store;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeCircularDenseStore;
 import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
 import java.util.function.DoubleFunction;
 import java.util.function.Supplier;
@@ -18,8 +22,12 @@ import java.util.function.Supplier;
 public enum DDSketchOption {
   FAST(BitwiseLinearlyInterpolatedMapping::new, UnboundedSizeDenseStore::new),
   MEMORY_OPTIMAL(LogarithmicMapping::new, UnboundedSizeDenseStore::new),
+  MEMORY_OPTIMAL_LOOKUP_TABLE(LookupTableLogarithmicMapping::new, UnboundedSizeDenseStore::new),
   BALANCED(CubicallyInterpolatedMapping::new, UnboundedSizeDenseStore::new),
-  PAGINATED(BitwiseLinearlyInterpolatedMapping::new, PaginatedStore::new);
+  BASE_2_EXPONENTIAL(Base2ExponentialMapping::ofRelativeAccuracy, UnboundedSizeDenseStore::new),
+  PAGINATED(BitwiseLinearlyInterpolatedMapping::new, PaginatedStore::new),
+  CIRCULAR(BitwiseLinearlyInterpolatedMapping::new, UnboundedSizeCircularDenseStore::new),
+  FENWICK_TREE(BitwiseLinearlyInterpolatedMapping::new, FenwickTreeDenseStore::new);
 
   private final DoubleFunction<IndexMapping> indexMapping;
   private final Supplier<Store> storeSupplier;
@@ -49,6 +49,13 @@ public class AcceptValue {
     return sketch;
   }
 
+  @Benchmark
+  public Object acceptDouble() {
+    sketch.accept((double) nextValue());
+    // blackhole the sketch to avoid elimination of accept
+    return sketch;
+  }
+
   private long nextValue() {
     return data[(position++) & (data.length - 1)];
   }
@@ -0,0 +1,105 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.benchmarks;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.DDSketchBatchCodec;
+import com.datadoghq.sketch.ddsketch.DDSketchOption;
+import com.datadoghq.sketch.ddsketch.DataGenerator;
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class BatchEncode {
+
+  @Param DataGenerator generator;
+
+  @Param({"MICROSECONDS"})
+  TimeUnit unit;
+
+  @Param DDSketchOption sketchOption;
+
+  @Param({"100", "10000"})
+  int numSketches;
+
+  @Param("100")
+  int countPerSketch;
+
+  @Param({"0.01"})
+  double relativeAccuracy;
+
+  List<DDSketch> sketches;
+  GrowingByteArrayOutput output;
+  byte[][] individuallyEncoded;
+  byte[] batchEncoded;
+
+  @Setup(Level.Trial)
+  public void init() throws IOException {
+    this.sketches = new ArrayList<>(numSketches);
+    for (int i = 0; i < numSketches; i++) {
+      final DDSketch sketch = sketchOption.create(relativeAccuracy);
+      for (int j = 0; j < countPerSketch; j++) {
+        sketch.accept(unit.toNanos(Math.abs(Math.round(generator.nextValue()))));
+      }
+      sketches.add(sketch);
+    }
+    this.output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    this.individuallyEncoded = new byte[numSketches][];
+    for (int i = 0; i < numSketches; i++) {
+      output.clear();
+      sketches.get(i).encode(output, false);
+      individuallyEncoded[i] = output.trimmedCopy();
+    }
+    output.clear();
+    DDSketchBatchCodec.encode(output, sketches.get(0).getIndexMapping(), sketches);
+    this.batchEncoded = output.trimmedCopy();
+  }
+
+  @Benchmark
+  public int encodeIndividually() throws IOException {
+    output.clear();
+    for (final DDSketch sketch : sketches) {
+      sketch.encode(output, false);
+    }
+    return output.numWrittenBytes();
+  }
+
+  @Benchmark
+  public int encodeBatch() throws IOException {
+    output.clear();
+    DDSketchBatchCodec.encode(output, sketches.get(0).getIndexMapping(), sketches);
+    return output.numWrittenBytes();
+  }
+
+  @Benchmark
+  public List<DDSketch> decodeIndividually() throws IOException {
+    final List<DDSketch> decoded = new ArrayList<>(numSketches);
+    for (final byte[] encoded : individuallyEncoded) {
+      decoded.add(DDSketch.decode(ByteArrayInput.wrap(encoded), sketchOption.getStoreSupplier()));
+    }
+    return decoded;
+  }
+
+  @Benchmark
+  public List<DDSketch> decodeBatch() throws IOException {
+    return DDSketchBatchCodec.decode(
+        ByteArrayInput.wrap(batchEncoded), sketchOption.getStoreSupplier());
+  }
+
+  @Benchmark
+  public DDSketch decodeLastOfBatch() throws IOException {
+    final Input input = ByteArrayInput.wrap(batchEncoded);
+    return DDSketchBatchCodec.decode(input, sketchOption.getStoreSupplier(), numSketches - 1);
+  }
+}
@@ -0,0 +1,65 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.benchmarks;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.DataGenerator;
+import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMappingConverter;
+import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class Convert {
+
+  @Param DataGenerator generator;
+
+  @Param({"NANOSECONDS", "MICROSECONDS", "MILLISECONDS"})
+  TimeUnit unit;
+
+  @Param("100000")
+  int count;
+
+  @Param({"0.01", "0.001"})
+  double relativeAccuracy;
+
+  @Param({"false", "true"})
+  boolean toLogarithmic;
+
+  DDSketch sketch;
+  IndexMapping newIndexMapping;
+  IndexMappingConverter converter;
+
+  @Setup(Level.Trial)
+  public void init() {
+    final IndexMapping logarithmic = new LogarithmicMapping(relativeAccuracy);
+    final IndexMapping cubic = new CubicallyInterpolatedMapping(relativeAccuracy);
+    this.sketch = new DDSketch(toLogarithmic ? cubic : logarithmic, UnboundedSizeDenseStore::new);
+    this.newIndexMapping = toLogarithmic ? logarithmic : cubic;
+    this.converter =
+        IndexMappingConverter.distributingUniformly(sketch.getIndexMapping(), newIndexMapping);
+    for (int i = 0; i < count; ++i) {
+      sketch.accept(unit.toNanos(Math.abs(Math.round(generator.nextValue()))));
+    }
+  }
+
+  @Benchmark
+  public Object convert() {
+    return sketch.convert(newIndexMapping, UnboundedSizeDenseStore::new);
+  }
+
+  @Benchmark
+  public Object mergeWithConverter() {
+    final DDSketch target = new DDSketch(newIndexMapping, UnboundedSizeDenseStore::new);
+    target.mergeWith(sketch, converter);
+    return target;
+  }
+}
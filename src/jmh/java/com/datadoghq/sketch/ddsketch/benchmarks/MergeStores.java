@@ -0,0 +1,79 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.benchmarks;
+
+import com.datadoghq.sketch.ddsketch.DataGenerator;
+import com.datadoghq.sketch.ddsketch.mapping.BitwiseLinearlyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.store.CollapsingHighestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.PaginatedStore;
+import com.datadoghq.sketch.ddsketch.store.SparseStore;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeCircularDenseStore;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class MergeStores {
+
+  public enum StoreType {
+    DENSE(UnboundedSizeDenseStore::new),
+    COLLAPSING_LOWEST_DENSE(() -> new CollapsingLowestDenseStore(2048)),
+    COLLAPSING_HIGHEST_DENSE(() -> new CollapsingHighestDenseStore(2048)),
+    CIRCULAR(UnboundedSizeCircularDenseStore::new),
+    PAGINATED(PaginatedStore::new),
+    SPARSE(SparseStore::new);
+
+    private final Supplier<Store> storeSupplier;
+
+    StoreType(Supplier<Store> storeSupplier) {
+      this.storeSupplier = storeSupplier;
+    }
+
+    Store create() {
+      return storeSupplier.get();
+    }
+  }
+
+  @Param DataGenerator generator;
+
+  @Param StoreType source;
+
+  @Param StoreType target;
+
+  @Param("100000")
+  int count;
+
+  @Param({"0.01"})
+  double relativeAccuracy;
+
+  Store left;
+  Store right;
+
+  @Setup(Level.Trial)
+  public void init() {
+    final IndexMapping indexMapping = new BitwiseLinearlyInterpolatedMapping(relativeAccuracy);
+    this.left = source.create();
+    this.right = source.create();
+    for (int i = 0; i < count; ++i) {
+      left.add(indexMapping.index(Math.max(Math.abs(generator.nextValue()), 1)));
+      right.add(indexMapping.index(Math.max(Math.abs(generator.nextValue()), 1)));
+    }
+  }
+
+  @Benchmark
+  public Object merge() {
+    final Store store = target.create();
+    store.mergeWith(left);
+    store.mergeWith(right);
+    return store;
+  }
+}
@@ -0,0 +1,68 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.benchmarks;
+
+import com.datadoghq.sketch.ddsketch.store.CollapsingHighestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.PaginatedStore;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeCircularDenseStore;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Merges stores whose bins span a given number of contiguous indexes into a store that already
+ * spans them, which measures the loops that add the counters rather than the growth of the target.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+public class MergeWidths {
+
+  public enum StoreType {
+    DENSE(numBins -> new UnboundedSizeDenseStore()),
+    COLLAPSING_LOWEST_DENSE(CollapsingLowestDenseStore::new),
+    COLLAPSING_HIGHEST_DENSE(CollapsingHighestDenseStore::new),
+    CIRCULAR(numBins -> new UnboundedSizeCircularDenseStore()),
+    PAGINATED(numBins -> new PaginatedStore());
+
+    private final IntFunction<Store> storeSupplier;
+
+    StoreType(IntFunction<Store> storeSupplier) {
+      this.storeSupplier = storeSupplier;
+    }
+
+    Store create(int numBins) {
+      return storeSupplier.apply(numBins);
+    }
+  }
+
+  @Param StoreType storeType;
+
+  @Param({"64", "512", "4096", "65536"})
+  int numBins;
+
+  Store source;
+  Store target;
+
+  @Setup(Level.Trial)
+  public void init() {
+    this.source = storeType.create(numBins);
+    this.target = storeType.create(numBins);
+    for (int index = 0; index < numBins; index++) {
+      source.add(index, 1 + index % 7);
+      target.add(index);
+    }
+  }
+
+  @Benchmark
+  public Object merge() {
+    target.mergeWith(source);
+    return target;
+  }
+}
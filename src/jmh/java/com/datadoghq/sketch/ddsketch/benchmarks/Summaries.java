@@ -13,8 +13,31 @@ import org.openjdk.jmh.annotations.*;
 @BenchmarkMode(Mode.AverageTime)
 public class Summaries extends BuiltSketchState {
 
+  @Param({"false", "true"})
+  boolean cacheValues;
+
+  @Param({"0.5", "0.99"})
+  double quantile;
+
+  @Setup(Level.Trial)
+  public void cacheValues() {
+    if (cacheValues) {
+      sketch.cacheValues();
+    }
+  }
+
   @Benchmark
   public double getCount() {
     return sketch.getCount();
   }
+
+  @Benchmark
+  public double getSum() {
+    return sketch.getSum();
+  }
+
+  @Benchmark
+  public double getValueAtQuantile() {
+    return sketch.getValueAtQuantile(quantile);
+  }
 }
@@ -0,0 +1,49 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch;
+
+/**
+ * Helpers to estimate the memory footprint of objects, as laid out by a 64-bit HotSpot JVM with
+ * compressed references, which is the default for heaps of less than 32 GB. Objects have a 12-byte
+ * header and are aligned to 8 bytes, references take 4 bytes, and arrays have a 16-byte header.
+ *
+ * <p>The sizes are estimates rather than measurements: the JVM may pad fields differently, and
+ * other configurations lay out objects differently. They are meant to be used for capacity planning
+ * and for memory budgets, for which being within a few percent is enough.
+ */
+public final class MemoryFootprint {
+
+  public static final int REFERENCE_SIZE_IN_BYTES = 4;
+
+  private static final int OBJECT_HEADER_SIZE_IN_BYTES = 12;
+  private static final int ARRAY_HEADER_SIZE_IN_BYTES = 16;
+  private static final int OBJECT_ALIGNMENT_IN_BYTES = 8;
+
+  private MemoryFootprint() {}
+
+  /**
+   * @param fieldsSizeInBytes the total size of the instance fields of an object, including the ones
+   *     declared by its superclasses
+   * @return the estimated size of the object, not including the objects that it references
+   */
+  public static long objectSizeInBytes(long fieldsSizeInBytes) {
+    return align(OBJECT_HEADER_SIZE_IN_BYTES + fieldsSizeInBytes);
+  }
+
+  /**
+   * @param length the length of an array
+   * @param elementSizeInBytes the size of the elements of the array, which is {@link
+   *     #REFERENCE_SIZE_IN_BYTES} for arrays of objects
+   * @return the estimated size of the array, not including the objects that it references
+   */
+  public static long arraySizeInBytes(long length, int elementSizeInBytes) {
+    return align(ARRAY_HEADER_SIZE_IN_BYTES + length * elementSizeInBytes);
+  }
+
+  private static long align(long sizeInBytes) {
+    return (sizeInBytes + OBJECT_ALIGNMENT_IN_BYTES - 1) & -OBJECT_ALIGNMENT_IN_BYTES;
+  }
+}
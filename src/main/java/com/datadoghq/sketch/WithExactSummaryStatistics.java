@@ -183,6 +183,15 @@ public class WithExactSummaryStatistics<QS extends QuantileSketch<QS>>
     return max;
   }
 
+  /**
+   * @return the estimated size of this wrapper, not including the wrapped sketch (see {@link
+   *     MemoryFootprint})
+   */
+  protected final long estimatedShallowSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(
+        MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 6 * Double.BYTES);
+  }
+
   @Override
   public double getValueAtQuantile(double quantile) {
     return clamp(sketch.getValueAtQuantile(quantile));
@@ -0,0 +1,421 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import com.datadoghq.sketch.QuantileSketch;
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link DDSketch} that can be compacted, that is, whose bins can be encoded (see {@link
+ * DDSketch#encode}) into an array of bytes that is usually much smaller than the stores that hold
+ * them, which are then released. This is worth it for sketches that are kept in memory while not
+ * being updated for a while, such as the sketches of the series of an aggregation map that are
+ * rarely updated.
+ *
+ * <p>The sketch is compacted either on demand, with {@link #compact()}, or once it has not been
+ * updated for a given idle time, which {@link #compactIfIdle()} checks and which is meant to be
+ * called periodically, for instance whenever the aggregation map is flushed. The idle time is
+ * therefore measured with the resolution of the period of the calls.
+ *
+ * <p>A compacted sketch is transparently decoded back into stores, or hydrated, when it is next
+ * updated, that is, when a value is added or when a non-empty sketch is merged into it. Queries do
+ * not hydrate the sketch: they are answered from the encoded bins (see {@link
+ * EncodedDDSketchView}), which is slower. The number of times the sketch has been compacted and
+ * hydrated is counted, so that the idle time can be tuned to avoid sketches being compacted and
+ * hydrated back and forth.
+ *
+ * <p>Sketches can also be compacted to keep the total memory that they use within a budget, by
+ * registering them with a {@link SketchMemoryGovernor}.
+ *
+ * <p>Note that this implementation is not thread-safe.
+ */
+public class CompactingDDSketch implements QuantileSketch<CompactingDDSketch> {
+
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final LongSupplier NANO_TIME = System::nanoTime;
+
+  private final long maxIdleNanos;
+  private final LongSupplier nanoTime;
+
+  // If compacted, the bins are encoded in bytes and the sketch holds no store, but keeps the index
+  // mapping and the store suppliers to be hydrated with. The sum is recorded when compacting, as it
+  // could not be computed from the encoded bins without walking all of them.
+  private DDSketch sketch;
+  private byte[] encoded;
+  private EncodedDDSketchView view;
+  private double encodedSum;
+
+  private boolean updated;
+  private long lastUpdateNanos;
+  private long compactionCount;
+  private long hydrationCount;
+
+  /**
+   * Constructs a sketch that is only compacted on demand.
+   *
+   * @param sketch the sketch to wrap, which should not be used directly afterwards
+   */
+  public CompactingDDSketch(DDSketch sketch) {
+    this(sketch, Long.MAX_VALUE, NANO_TIME);
+  }
+
+  /**
+   * Constructs a sketch that is compacted on demand, or by {@link #compactIfIdle()} once it has not
+   * been updated for the specified idle time.
+   *
+   * @param sketch the sketch to wrap, which should not be used directly afterwards
+   * @param maxIdleTime the idle time after which the sketch is compacted
+   * @param unit the unit of {@code maxIdleTime}
+   * @throws IllegalArgumentException if {@code maxIdleTime} is negative
+   */
+  public CompactingDDSketch(DDSketch sketch, long maxIdleTime, TimeUnit unit) {
+    this(sketch, unit.toNanos(maxIdleTime), NANO_TIME);
+  }
+
+  CompactingDDSketch(DDSketch sketch, long maxIdleNanos, LongSupplier nanoTime) {
+    if (maxIdleNanos < 0) {
+      throw new IllegalArgumentException("The idle time cannot be negative.");
+    }
+    this.sketch = sketch;
+    this.maxIdleNanos = maxIdleNanos;
+    this.nanoTime = nanoTime;
+    this.lastUpdateNanos = nanoTime.getAsLong();
+  }
+
+  private CompactingDDSketch(CompactingDDSketch sketch) {
+    this.sketch = sketch.sketch.copy();
+    // The encoded bins are never modified, hence shared.
+    this.encoded = sketch.encoded;
+    this.view = sketch.view;
+    this.encodedSum = sketch.encodedSum;
+    this.maxIdleNanos = sketch.maxIdleNanos;
+    this.nanoTime = sketch.nanoTime;
+    this.updated = sketch.updated;
+    this.lastUpdateNanos = sketch.lastUpdateNanos;
+  }
+
+  public IndexMapping getIndexMapping() {
+    return sketch.getIndexMapping();
+  }
+
+  /** @return whether the bins of this sketch are currently encoded rather than held by stores */
+  public boolean isCompacted() {
+    return null != encoded;
+  }
+
+  /** @return the number of times this sketch has been compacted */
+  public long getCompactionCount() {
+    return compactionCount;
+  }
+
+  /** @return the number of times this sketch has been hydrated after having been compacted */
+  public long getHydrationCount() {
+    return hydrationCount;
+  }
+
+  /**
+   * Encodes the bins of this sketch and releases its stores, unless it is already compacted.
+   *
+   * @return {@code true} if the sketch has been compacted by this call
+   */
+  public boolean compact() {
+    if (isCompacted()) {
+      return false;
+    }
+    encoded = encodeBins(sketch);
+    encodedSum = sketch.getSum();
+    sketch = sketch.emptyCopy();
+    compactionCount++;
+    return true;
+  }
+
+  private static byte[] encodeBins(DDSketch sketch) {
+    if (sketch.isEmpty()) {
+      return NO_BYTES;
+    }
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      sketch.encode(output, true);
+    } catch (IOException e) {
+      // Writing to an array does not fail.
+      throw new UncheckedIOException(e);
+    }
+    return output.trimmedCopy();
+  }
+
+  /**
+   * Compacts this sketch if it has not been updated for the idle time that it has been constructed
+   * with. The time of the last update is only read by this method, so that it is not measured by
+   * every update: an update is deemed to have happened at the time of the first call that follows
+   * it.
+   *
+   * @return {@code true} if the sketch has been compacted by this call
+   */
+  public boolean compactIfIdle() {
+    return !isCompacted() && getIdleNanos() >= maxIdleNanos && compact();
+  }
+
+  /**
+   * @return the time for which this sketch has not been updated, as measured by {@link
+   *     #compactIfIdle()}, that is, zero if it has been updated since the previous call
+   */
+  long getIdleNanos() {
+    final long now = nanoTime.getAsLong();
+    if (updated) {
+      updated = false;
+      lastUpdateNanos = now;
+    }
+    return now - lastUpdateNanos;
+  }
+
+  /**
+   * Lowers the resolution of this sketch (see {@link DDSketch#downsample(int)}). If the sketch is
+   * compacted, it remains so, and its encoded bins are replaced with the downsampled ones, which
+   * are usually fewer. Otherwise, the stores are downsampled in place, hence their memory is only
+   * released once the sketch is compacted.
+   *
+   * @param factor the number of adjacent bins that are merged into a single bin
+   * @throws IllegalArgumentException if the index mapping does not support {@code factor}
+   * @throws UnsupportedOperationException if the index mapping cannot be downsampled
+   */
+  public void downsample(int factor) {
+    if (!isCompacted()) {
+      sketch.downsample(factor);
+      return;
+    }
+    final DDSketch decoded = sketchForRead();
+    decoded.downsample(factor);
+    encoded = encodeBins(decoded);
+    encodedSum = decoded.getSum();
+    view = null;
+    sketch = decoded.emptyCopy();
+  }
+
+  /**
+   * Returns an estimate of the memory that this sketch uses (see {@link
+   * DDSketch#estimatedSizeInBytes()}). If compacted, this is mostly the length of the encoded bins.
+   * The view that may be cached to answer queries on a compacted sketch is not accounted for.
+   *
+   * @return the estimated size of this sketch, in bytes
+   */
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(
+            5 * Long.BYTES + 4 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 1)
+        + (null == encoded ? 0 : MemoryFootprint.arraySizeInBytes(encoded.length, 1))
+        + sketch.estimatedSizeInBytes();
+  }
+
+  private DDSketch sketchForUpdate() {
+    if (isCompacted()) {
+      try {
+        sketch.decodeAndMergeWith(ByteArrayInput.wrap(encoded));
+      } catch (IOException e) {
+        // The bins have been encoded by this sketch.
+        throw new UncheckedIOException(e);
+      }
+      encoded = null;
+      view = null;
+      encodedSum = 0;
+      hydrationCount++;
+    }
+    updated = true;
+    return sketch;
+  }
+
+  private EncodedDDSketchView view() {
+    if (null == view) {
+      try {
+        view = EncodedDDSketchView.wrap(ByteBuffer.wrap(encoded), sketch.getIndexMapping());
+      } catch (IOException e) {
+        // The bins have been encoded by this sketch.
+        throw new UncheckedIOException(e);
+      }
+    }
+    return view;
+  }
+
+  /**
+   * @return a sketch that holds the bins of this sketch, decoded if compacted, which must not be
+   *     modified
+   */
+  private DDSketch sketchForRead() {
+    if (!isCompacted()) {
+      return sketch;
+    }
+    final DDSketch decoded = sketch.emptyCopy();
+    try {
+      decoded.decodeAndMergeWith(ByteArrayInput.wrap(encoded));
+    } catch (IOException e) {
+      // The bins have been encoded by this sketch.
+      throw new UncheckedIOException(e);
+    }
+    return decoded;
+  }
+
+  @Override
+  public void accept(double value) {
+    sketchForUpdate().accept(value);
+  }
+
+  @Override
+  public void accept(double value, double count) {
+    sketchForUpdate().accept(value, count);
+  }
+
+  /**
+   * Adds a {@code long} value to the sketch (see {@link DDSketch#accept(long)}).
+   *
+   * @param value the value to be added
+   */
+  public void accept(long value) {
+    sketchForUpdate().accept(value);
+  }
+
+  /**
+   * Adds a {@code long} value to the sketch with a {@code long} {@code count} (see {@link
+   * DDSketch#accept(long, long)}).
+   *
+   * @param value the value to be added
+   * @param count the number of times the value is added
+   */
+  public void accept(long value, long count) {
+    sketchForUpdate().accept(value, count);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>This sketch is only hydrated if the other sketch is not empty. If the other sketch is
+   * compacted, its encoded bins are merged without being decoded into stores first.
+   *
+   * @throws IllegalArgumentException if the other sketch does not use the same index mapping
+   */
+  @Override
+  public void mergeWith(CompactingDDSketch other) {
+    if (!other.isCompacted()) {
+      mergeWith(other.sketch);
+      return;
+    }
+    DDSketch.checkMergeability(sketch.getIndexMapping(), other.sketch.getIndexMapping());
+    // Read before hydrating this sketch, which releases the encoded bins if other is this sketch.
+    final byte[] otherEncoded = other.encoded;
+    if (otherEncoded.length == 0) {
+      return;
+    }
+    try {
+      sketchForUpdate().decodeAndMergeWith(ByteArrayInput.wrap(otherEncoded));
+    } catch (IOException e) {
+      // The bins have been encoded by the other sketch.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Merges a sketch into this one (see {@link DDSketch#mergeWith(DDSketch)}). This sketch is only
+   * hydrated if the other sketch is not empty.
+   *
+   * @param other the sketch to be merged into this one
+   * @throws IllegalArgumentException if the other sketch does not use the same index mapping
+   */
+  public void mergeWith(DDSketch other) {
+    DDSketch.checkMergeability(sketch.getIndexMapping(), other.getIndexMapping());
+    if (other.isEmpty()) {
+      return;
+    }
+    sketchForUpdate().mergeWith(other);
+  }
+
+  @Override
+  public CompactingDDSketch copy() {
+    return new CompactingDDSketch(this);
+  }
+
+  /** @return a sketch that holds the same bins as this one, which is not modified */
+  public DDSketch toDDSketch() {
+    return isCompacted() ? sketchForRead() : sketch.copy();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return isCompacted() ? encoded.length == 0 : sketch.isEmpty();
+  }
+
+  /** {@inheritDoc} A compacted sketch remains compacted. */
+  @Override
+  public void clear() {
+    if (isCompacted()) {
+      encoded = NO_BYTES;
+      view = null;
+      encodedSum = 0;
+    } else {
+      sketch.clear();
+    }
+  }
+
+  @Override
+  public double getCount() {
+    return isCompacted() ? view().getCount() : sketch.getCount();
+  }
+
+  @Override
+  public double getSum() {
+    return isCompacted() ? encodedSum : sketch.getSum();
+  }
+
+  @Override
+  public double getMinValue() {
+    return isCompacted() ? view().getMinValue() : sketch.getMinValue();
+  }
+
+  @Override
+  public double getMaxValue() {
+    return isCompacted() ? view().getMaxValue() : sketch.getMaxValue();
+  }
+
+  @Override
+  public double getValueAtQuantile(double quantile) {
+    return isCompacted()
+        ? view().getValueAtQuantile(quantile)
+        : sketch.getValueAtQuantile(quantile);
+  }
+
+  @Override
+  public double[] getValuesAtQuantiles(double[] quantiles) {
+    return isCompacted()
+        ? view().getValuesAtQuantiles(quantiles)
+        : sketch.getValuesAtQuantiles(quantiles);
+  }
+
+  /**
+   * Encodes this sketch (see {@link DDSketch#encode(Output, boolean)}). If the sketch is compacted,
+   * its encoded bins are written as they are, without being hydrated.
+   *
+   * @param output the output to write the encoded sketch to
+   * @param omitIndexMapping whether the index mapping is not to be encoded
+   * @throws IOException if an I/O error occurs
+   */
+  public void encode(Output output, boolean omitIndexMapping) throws IOException {
+    if (!isCompacted()) {
+      sketch.encode(output, omitIndexMapping);
+      return;
+    }
+    if (!omitIndexMapping) {
+      sketch.getIndexMapping().encode(output);
+    }
+    for (final byte b : encoded) {
+      output.writeByte(b);
+    }
+  }
+}
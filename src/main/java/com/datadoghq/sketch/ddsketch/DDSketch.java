@@ -8,6 +8,7 @@ package com.datadoghq.sketch.ddsketch;
 import static com.datadoghq.sketch.ddsketch.Serializer.doubleFieldSize;
 import static com.datadoghq.sketch.ddsketch.Serializer.embeddedFieldSize;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.QuantileSketch;
 import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
 import com.datadoghq.sketch.ddsketch.encoding.Flag;
@@ -17,10 +18,11 @@ import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
 import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
 import com.datadoghq.sketch.ddsketch.mapping.BitwiseLinearlyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.CachedValueIndexMapping;
 import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
 import com.datadoghq.sketch.ddsketch.mapping.IndexMappingConverter;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMappingRegistry;
 import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
-import com.datadoghq.sketch.ddsketch.store.Bin;
 import com.datadoghq.sketch.ddsketch.store.CollapsingHighestDenseStore;
 import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
 import com.datadoghq.sketch.ddsketch.store.Store;
@@ -28,7 +30,6 @@ import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.function.Supplier;
@@ -58,16 +59,27 @@ import java.util.function.Supplier;
  */
 public class DDSketch implements QuantileSketch<DDSketch> {
 
-  private final IndexMapping indexMapping;
-  private final double minIndexedValue;
-  private final double maxIndexedValue;
-
-  private final Store negativeValueStore;
-  private final Store positiveValueStore;
+  private IndexMapping indexMapping;
+  private double minIndexedValue;
+  private double maxIndexedValue;
+
+  // Fields precomputed for performance: the long values that are greater than the former and less
+  // than or equal to the latter can be mapped to the positive value store without further checks.
+  private long minIndexedLongValue;
+  private long maxIndexedLongValue;
+
+  // Stores are allocated when they are first updated. Until then, they are the shared empty store,
+  // which can be read, iterated over and encoded, as many sketches never hold negative values.
+  private final Supplier<Store> negativeValueStoreSupplier;
+  private final Supplier<Store> positiveValueStoreSupplier;
+  private Store negativeValueStore;
+  private Store positiveValueStore;
   private double zeroCount;
 
   private DDSketch(
       IndexMapping indexMapping,
+      Supplier<Store> negativeValueStoreSupplier,
+      Supplier<Store> positiveValueStoreSupplier,
       Store negativeValueStore,
       Store positiveValueStore,
       double zeroCount,
@@ -75,17 +87,44 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     this.indexMapping = indexMapping;
     this.minIndexedValue = Math.max(minIndexedValue, indexMapping.minIndexableValue());
     this.maxIndexedValue = indexMapping.maxIndexableValue();
+    // Casting rounds towards zero and saturates to Long.MAX_VALUE.
+    this.minIndexedLongValue = (long) this.minIndexedValue;
+    this.maxIndexedLongValue = (long) this.maxIndexedValue;
+    this.negativeValueStoreSupplier = negativeValueStoreSupplier;
+    this.positiveValueStoreSupplier = positiveValueStoreSupplier;
     this.negativeValueStore = negativeValueStore;
     this.positiveValueStore = positiveValueStore;
     this.zeroCount = zeroCount;
   }
 
+  DDSketch(
+      IndexMapping indexMapping,
+      Supplier<Store> storeSupplier,
+      Store negativeValueStore,
+      Store positiveValueStore,
+      double zeroCount) {
+    this(
+        indexMapping,
+        storeSupplier,
+        storeSupplier,
+        negativeValueStore,
+        positiveValueStore,
+        zeroCount,
+        0);
+  }
+
   DDSketch(
       IndexMapping indexMapping,
       Store negativeValueStore,
       Store positiveValueStore,
       double zeroCount) {
-    this(indexMapping, negativeValueStore, positiveValueStore, zeroCount, 0);
+    // The supplier is only used if a store is the empty store (see Store#empty()).
+    this(
+        indexMapping,
+        UnboundedSizeDenseStore::new,
+        negativeValueStore,
+        positiveValueStore,
+        zeroCount);
   }
 
   /**
@@ -117,7 +156,7 @@ public class DDSketch implements QuantileSketch<DDSketch> {
       IndexMapping indexMapping,
       Supplier<Store> negativeValueStoreSupplier,
       Supplier<Store> positiveValueStoreSupplier) {
-    this(indexMapping, negativeValueStoreSupplier.get(), positiveValueStoreSupplier.get(), 0);
+    this(indexMapping, negativeValueStoreSupplier, positiveValueStoreSupplier, 0);
   }
 
   /**
@@ -140,8 +179,10 @@ public class DDSketch implements QuantileSketch<DDSketch> {
       double minIndexedValue) {
     this(
         indexMapping,
-        negativeValueStoreSupplier.get(),
-        positiveValueStoreSupplier.get(),
+        Objects.requireNonNull(negativeValueStoreSupplier),
+        Objects.requireNonNull(positiveValueStoreSupplier),
+        Store.empty(),
+        Store.empty(),
         0,
         minIndexedValue);
   }
@@ -160,12 +201,16 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     this(new LogarithmicMapping(relativeAccuracy), UnboundedSizeDenseStore::new);
   }
 
-  private DDSketch(DDSketch sketch) {
+  private DDSketch(DDSketch sketch, Store negativeValueStore, Store positiveValueStore) {
     this.indexMapping = sketch.indexMapping;
     this.minIndexedValue = sketch.minIndexedValue;
     this.maxIndexedValue = sketch.maxIndexedValue;
-    this.negativeValueStore = sketch.negativeValueStore.copy();
-    this.positiveValueStore = sketch.positiveValueStore.copy();
+    this.minIndexedLongValue = sketch.minIndexedLongValue;
+    this.maxIndexedLongValue = sketch.maxIndexedLongValue;
+    this.negativeValueStoreSupplier = sketch.negativeValueStoreSupplier;
+    this.positiveValueStoreSupplier = sketch.positiveValueStoreSupplier;
+    this.negativeValueStore = negativeValueStore;
+    this.positiveValueStore = positiveValueStore;
     this.zeroCount = sketch.zeroCount;
   }
 
@@ -174,8 +219,12 @@ public class DDSketch implements QuantileSketch<DDSketch> {
    * non-negative count for the zero bucket.
    *
    * @param indexMapping the index mapping
-   * @param negativeValueStore the store for negative values, possibly non-empty
-   * @param positiveValueStore the store for positive values, possibly non-empty
+   * @param negativeValueStore the store for negative values, possibly non-empty, or {@link
+   *     Store#empty()}, in which case an {@link UnboundedSizeDenseStore} is allocated when the
+   *     first negative value is added
+   * @param positiveValueStore the store for positive values, possibly non-empty, or {@link
+   *     Store#empty()}, in which case an {@link UnboundedSizeDenseStore} is allocated when the
+   *     first positive value is added
    * @param zeroCount the count for the zero bucket, which should be non-negative (and non-NaN)
    * @return a new instance of {@code DDSketch}
    * @throws IllegalArgumentException if the {@code zeroCount} is negative or NaN
@@ -200,14 +249,36 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     return indexMapping;
   }
 
+  /**
+   * @return the store of the negative values, which is the immutable {@link Store#empty()} if no
+   *     negative value has been added to the sketch yet
+   */
   public Store getNegativeValueStore() {
     return negativeValueStore;
   }
 
+  /**
+   * @return the store of the positive values, which is the immutable {@link Store#empty()} if no
+   *     positive value has been added to the sketch yet
+   */
   public Store getPositiveValueStore() {
     return positiveValueStore;
   }
 
+  private Store negativeValueStoreForUpdate() {
+    if (negativeValueStore == Store.empty()) {
+      negativeValueStore = negativeValueStoreSupplier.get();
+    }
+    return negativeValueStore;
+  }
+
+  private Store positiveValueStoreForUpdate() {
+    if (positiveValueStore == Store.empty()) {
+      positiveValueStore = positiveValueStoreSupplier.get();
+    }
+    return positiveValueStore;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -220,9 +291,9 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     checkValueTrackable(value);
 
     if (value > minIndexedValue) {
-      positiveValueStore.add(indexMapping.index(value));
+      positiveValueStoreForUpdate().add(indexMapping.index(value));
     } else if (value < -minIndexedValue) {
-      negativeValueStore.add(indexMapping.index(-value));
+      negativeValueStoreForUpdate().add(indexMapping.index(-value));
     } else {
       zeroCount++;
     }
@@ -244,14 +315,52 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     }
 
     if (value > minIndexedValue) {
-      positiveValueStore.add(indexMapping.index(value), count);
+      positiveValueStoreForUpdate().add(indexMapping.index(value), count);
     } else if (value < -minIndexedValue) {
-      negativeValueStore.add(indexMapping.index(-value), count);
+      negativeValueStoreForUpdate().add(indexMapping.index(-value), count);
     } else {
       zeroCount += count;
     }
   }
 
+  /**
+   * Adds a {@code long} value to the sketch.
+   *
+   * <p>This is equivalent to {@code accept((double) value)}, but positive values, such as durations
+   * in nanoseconds, are indexed without floating-point comparisons and, if the index mapping allows
+   * it (see {@link IndexMapping#index(long)}), without being converted to {@code double}.
+   *
+   * @param value the value to be added
+   * @throws IllegalArgumentException if the value is outside the range that is tracked by the
+   *     sketch
+   */
+  public void accept(long value) {
+    if (value > minIndexedLongValue && value <= maxIndexedLongValue) {
+      positiveValueStoreForUpdate().add(indexMapping.index(value));
+    } else {
+      accept((double) value);
+    }
+  }
+
+  /**
+   * Adds a {@code long} value to the sketch with a {@code long} {@code count}.
+   *
+   * <p>This is equivalent to {@code accept((double) value, (double) count)}, but positive values
+   * are indexed as in {@link #accept(long)}.
+   *
+   * @param value the value to be added
+   * @param count the number of times the value is added
+   * @throws IllegalArgumentException if the value is outside the range that is tracked by the
+   *     sketch, or if {@code count} is negative
+   */
+  public void accept(long value, long count) {
+    if (value > minIndexedLongValue && value <= maxIndexedLongValue && count >= 0) {
+      positiveValueStoreForUpdate().add(indexMapping.index(value), count);
+    } else {
+      accept((double) value, (double) count);
+    }
+  }
+
   private void checkValueTrackable(double value) {
     if (value < -maxIndexedValue || value > maxIndexedValue) {
       throw new IllegalArgumentException(
@@ -267,22 +376,90 @@ public class DDSketch implements QuantileSketch<DDSketch> {
   @Override
   public void mergeWith(DDSketch other) {
     checkMergeability(indexMapping, other.indexMapping);
-    negativeValueStore.mergeWith(other.negativeValueStore);
-    positiveValueStore.mergeWith(other.positiveValueStore);
+    if (!other.negativeValueStore.isEmpty()) {
+      negativeValueStoreForUpdate().mergeWith(other.negativeValueStore);
+    }
+    if (!other.positiveValueStore.isEmpty()) {
+      positiveValueStoreForUpdate().mergeWith(other.positiveValueStore);
+    }
+    zeroCount += other.zeroCount;
+  }
+
+  /**
+   * Merges the other sketch into this one, even if it does not use the same index mapping. The bins
+   * of the other sketch are converted with {@code converter} and added to the stores of this sketch
+   * as they are converted, without building an intermediate sketch as {@link #convert} does. The
+   * accuracy of the merged bins is then the one that {@code converter} guarantees. The other sketch
+   * is not modified.
+   *
+   * <p>If both sketches use the same index mapping, this is equivalent to {@link
+   * #mergeWith(DDSketch)} and {@code converter} is not used.
+   *
+   * @param other the sketch to merge into this one
+   * @param converter a converter from the index mapping of the other sketch to the index mapping of
+   *     this one, for instance {@code IndexMappingConverter.distributingUniformly(
+   *     other.getIndexMapping(), getIndexMapping())}, which is cached
+   */
+  public void mergeWith(DDSketch other, IndexMappingConverter converter) {
+    if (isMergeable(indexMapping, other.indexMapping)) {
+      mergeWith(other);
+      return;
+    }
+    if (!other.negativeValueStore.isEmpty()) {
+      converter.convertAscendingCursor(
+          other.negativeValueStore.getAscendingCursor(), negativeValueStoreForUpdate()::add);
+    }
+    if (!other.positiveValueStore.isEmpty()) {
+      converter.convertAscendingCursor(
+          other.positiveValueStore.getAscendingCursor(), positiveValueStoreForUpdate()::add);
+    }
     zeroCount += other.zeroCount;
   }
 
-  private static void checkMergeability(IndexMapping indexMapping1, IndexMapping indexMapping2)
+  static void checkMergeability(IndexMapping indexMapping1, IndexMapping indexMapping2)
       throws IllegalArgumentException {
-    if (!indexMapping1.equals(indexMapping2)) {
+    if (!isMergeable(indexMapping1, indexMapping2)) {
       throw new IllegalArgumentException(
           "The sketches are not mergeable because they do not use the same index mappings.");
     }
   }
 
+  private static boolean isMergeable(IndexMapping indexMapping1, IndexMapping indexMapping2) {
+    // Mappings are usually interned (see IndexMappingRegistry), hence the identity check first.
+    return indexMapping1 == indexMapping2
+        || CachedValueIndexMapping.unwrap(indexMapping1)
+            .equals(CachedValueIndexMapping.unwrap(indexMapping2));
+  }
+
   @Override
   public DDSketch copy() {
-    return new DDSketch(this);
+    return new DDSketch(this, negativeValueStore.copy(), positiveValueStore.copy());
+  }
+
+  /**
+   * Returns a copy of this sketch that is not affected by later updates of this sketch, and vice
+   * versa, but whose stores may share their counters with the stores of this sketch until either is
+   * updated (see {@link Store#snapshot()}). Taking a snapshot is therefore cheaper than copying the
+   * sketch when the stores support it.
+   *
+   * <p>Neither this sketch nor the snapshot is thread-safe. The snapshot is meant to be taken by
+   * the thread that updates this sketch, then safely published to threads that only read it, such
+   * as quantile queries or serialization, without holding the sketch for the duration of the reads.
+   *
+   * @return a snapshot of this sketch
+   */
+  public DDSketch snapshot() {
+    return new DDSketch(this, negativeValueStore.snapshot(), positiveValueStore.snapshot());
+  }
+
+  /**
+   * @return an empty sketch that has the same index mapping, indexed range and store suppliers as
+   *     this one, and that holds no store
+   */
+  DDSketch emptyCopy() {
+    final DDSketch sketch = new DDSketch(this, Store.empty(), Store.empty());
+    sketch.zeroCount = 0;
+    return sketch;
   }
 
   @Override
@@ -341,16 +518,23 @@ public class DDSketch implements QuantileSketch<DDSketch> {
 
   @Override
   public double getValueAtQuantile(double quantile) {
-    return getValueAtQuantile(quantile, getCount());
+    return getValueAtQuantile(quantile, getCount(), getNegativeValueCount());
   }
 
   @Override
   public double[] getValuesAtQuantiles(double[] quantiles) {
     final double count = getCount();
-    return Arrays.stream(quantiles).map(quantile -> getValueAtQuantile(quantile, count)).toArray();
+    final double negativeValueCount = getNegativeValueCount();
+    return Arrays.stream(quantiles)
+        .map(quantile -> getValueAtQuantile(quantile, count, negativeValueCount))
+        .toArray();
   }
 
-  private double getValueAtQuantile(double quantile, double count) {
+  private double getNegativeValueCount() {
+    return negativeValueStore.isEmpty() ? 0 : negativeValueStore.getTotalCount();
+  }
+
+  private double getValueAtQuantile(double quantile, double count, double negativeValueCount) {
 
     if (quantile < 0 || quantile > 1) {
       throw new IllegalArgumentException("The quantile must be between 0 and 1.");
@@ -362,29 +546,18 @@ public class DDSketch implements QuantileSketch<DDSketch> {
 
     final double rank = quantile * (count - 1);
 
-    double n = 0;
-
-    Iterator<Bin> negativeBinIterator = negativeValueStore.getDescendingIterator();
-    while (negativeBinIterator.hasNext()) {
-      Bin bin = negativeBinIterator.next();
-      if ((n += bin.getCount()) > rank) {
-        return -indexMapping.value(bin.getIndex());
-      }
+    // Stores find the bin of a given rank, which some of them do without walking over the bins
+    // (see FenwickTreeDenseStore).
+    if (rank < negativeValueCount) {
+      return -indexMapping.value(negativeValueStore.getIndexAtDescendingRank(rank));
     }
 
-    if ((n += zeroCount) > rank) {
+    if (rank < negativeValueCount + zeroCount) {
       return 0;
     }
 
-    Iterator<Bin> positiveBinIterator = positiveValueStore.getAscendingIterator();
-    while (positiveBinIterator.hasNext()) {
-      Bin bin = positiveBinIterator.next();
-      if ((n += bin.getCount()) > rank) {
-        return indexMapping.value(bin.getIndex());
-      }
-    }
-
-    throw new NoSuchElementException();
+    return indexMapping.value(
+        positiveValueStore.getIndexAtRank(rank - negativeValueCount - zeroCount));
   }
 
   /**
@@ -403,16 +576,129 @@ public class DDSketch implements QuantileSketch<DDSketch> {
     final IndexMappingConverter indexMappingConverter =
         IndexMappingConverter.distributingUniformly(indexMapping, newIndexMapping);
 
-    final Store newNegativeValueStore = storeSupplier.get();
-    indexMappingConverter.convertAscendingIterator(
-        negativeValueStore.getAscendingIterator(), newNegativeValueStore::add);
-
-    final Store newPositiveValueStore = storeSupplier.get();
-    indexMappingConverter.convertAscendingIterator(
-        positiveValueStore.getAscendingIterator(), newPositiveValueStore::add);
+    final Store newNegativeValueStore =
+        convert(negativeValueStore, indexMappingConverter, storeSupplier);
+    final Store newPositiveValueStore =
+        convert(positiveValueStore, indexMappingConverter, storeSupplier);
 
     return new DDSketch(
-        newIndexMapping, newNegativeValueStore, newPositiveValueStore, zeroCount, minIndexedValue);
+        newIndexMapping,
+        storeSupplier,
+        storeSupplier,
+        newNegativeValueStore,
+        newPositiveValueStore,
+        zeroCount,
+        minIndexedValue);
+  }
+
+  private static Store convert(
+      Store store, IndexMappingConverter indexMappingConverter, Supplier<Store> storeSupplier) {
+    if (store.isEmpty()) {
+      return Store.empty();
+    }
+    final Store newStore = storeSupplier.get();
+    indexMappingConverter.convertAscendingCursor(store.getAscendingCursor(), newStore::add);
+    return newStore;
+  }
+
+  /**
+   * Precomputes the values and bounds of the bins that this sketch currently holds, so that
+   * computing its sum, its minimum and maximum values and its quantiles does not require evaluating
+   * the index mapping (see {@link CachedValueIndexMapping}). This is worth it for sketches that are
+   * read many times after having been built. Bins that are added afterwards and that are outside
+   * the cached range are still valid, but their values are not precomputed.
+   */
+  public void cacheValues() {
+    if (negativeValueStore.isEmpty() && positiveValueStore.isEmpty()) {
+      return;
+    }
+    int minIndex = Integer.MAX_VALUE;
+    int maxIndex = Integer.MIN_VALUE;
+    for (final Store store : new Store[] {negativeValueStore, positiveValueStore}) {
+      if (!store.isEmpty()) {
+        minIndex = Math.min(minIndex, store.getMinIndex());
+        maxIndex = Math.max(maxIndex, store.getMaxIndex());
+      }
+    }
+    this.indexMapping = new CachedValueIndexMapping(indexMapping, minIndex, maxIndex);
+  }
+
+  /**
+   * Lets the stores of this sketch allocate upfront the memory that they need to hold the bins of
+   * the values within a range (see {@link Store#reserve(int, int)}), so that they do not grow while
+   * the first values are added. The range can be known in advance, or be the one of a sketch of a
+   * previous interval of the same series, for instance {@code reserve(previous.getMinValue(),
+   * previous.getMaxValue())}. Values outside the range can still be added.
+   *
+   * @param minValue the lowest value that the sketch is expected to hold
+   * @param maxValue the highest value that the sketch is expected to hold
+   * @throws IllegalArgumentException if {@code minValue} is greater than {@code maxValue}
+   */
+  public void reserve(double minValue, double maxValue) {
+    if (!(minValue <= maxValue)) {
+      throw new IllegalArgumentException("The minimum value cannot be greater than the maximum.");
+    }
+    if (maxValue > minIndexedValue) {
+      positiveValueStoreForUpdate()
+          .reserve(
+              indexMapping.index(Math.min(Math.max(minValue, minIndexedValue), maxIndexedValue)),
+              indexMapping.index(Math.min(maxValue, maxIndexedValue)));
+    }
+    if (minValue < -minIndexedValue) {
+      negativeValueStoreForUpdate()
+          .reserve(
+              indexMapping.index(Math.min(Math.max(-maxValue, minIndexedValue), maxIndexedValue)),
+              indexMapping.index(Math.min(-minValue, maxIndexedValue)));
+    }
+  }
+
+  /**
+   * Lowers the resolution of this sketch by merging every {@code factor} adjacent bins of its
+   * stores into a single bin, after which the sketch uses the index mapping {@code
+   * getIndexMapping().downsample(factor)}. For instance, downsampling by a factor of 2 a sketch
+   * that uses a {@link LogarithmicMapping} with a relative accuracy of 1% makes it use a {@code
+   * LogarithmicMapping} with a relative accuracy of about 2%.
+   *
+   * <p>Contrary to {@link #convert}, this operation is exact: the counts of the bins are summed and
+   * the sketch is as accurate as if values had been added to it with the downsampled mapping in the
+   * first place. Stores are downsampled in place (see {@link Store#downsample(int)}).
+   *
+   * @param factor the number of adjacent bins that are merged into a single bin
+   * @throws IllegalArgumentException if the index mapping does not support {@code factor}
+   * @throws UnsupportedOperationException if the index mapping cannot be downsampled
+   */
+  public void downsample(int factor) {
+    final IndexMapping downsampledIndexMapping = indexMapping.downsample(factor);
+    if (indexMapping.equals(downsampledIndexMapping)) {
+      return;
+    }
+    final IndexMapping newIndexMapping = IndexMappingRegistry.intern(downsampledIndexMapping);
+    negativeValueStore.downsample(factor);
+    positiveValueStore.downsample(factor);
+    this.indexMapping = newIndexMapping;
+    this.minIndexedValue = Math.max(minIndexedValue, newIndexMapping.minIndexableValue());
+    this.maxIndexedValue = newIndexMapping.maxIndexableValue();
+    this.minIndexedLongValue = (long) minIndexedValue;
+    this.maxIndexedLongValue = (long) maxIndexedValue;
+  }
+
+  /**
+   * Releases the memory that the stores of this sketch hold beyond what they need for its bins (see
+   * {@link Store#trimToSize()}), as well as the stores that are empty, which are allocated again if
+   * the sketch is updated afterwards. This is worth it for sketches of intervals that are closed
+   * and that are kept in memory for a while, for instance in a cache.
+   */
+  public void trimToSize() {
+    negativeValueStore = trimToSize(negativeValueStore);
+    positiveValueStore = trimToSize(positiveValueStore);
+  }
+
+  private static Store trimToSize(Store store) {
+    if (store.isEmpty()) {
+      return Store.empty();
+    }
+    store.trimToSize();
+    return store;
   }
 
   public void encode(Output output, boolean omitIndexMapping) throws IOException {
@@ -435,8 +721,16 @@ public class DDSketch implements QuantileSketch<DDSketch> {
 
   void decodeAndMergeWith(Input input, Decoder fallback) throws IOException {
     final DecodingState state =
-        new DecodingState(indexMapping, negativeValueStore, positiveValueStore, zeroCount);
+        new DecodingState(
+            indexMapping,
+            negativeValueStoreSupplier,
+            positiveValueStoreSupplier,
+            negativeValueStore,
+            positiveValueStore,
+            zeroCount);
     decodeAndMergeWith(state, input, fallback);
+    negativeValueStore = state.negativeValueStore;
+    positiveValueStore = state.positiveValueStore;
     zeroCount = state.zeroCount;
   }
 
@@ -453,13 +747,18 @@ public class DDSketch implements QuantileSketch<DDSketch> {
       Input input, Supplier<Store> storeSupplier, IndexMapping indexMapping, Decoder fallback)
       throws IOException {
     final DecodingState state =
-        new DecodingState(indexMapping, storeSupplier.get(), storeSupplier.get(), 0);
+        new DecodingState(
+            indexMapping, storeSupplier, storeSupplier, Store.empty(), Store.empty(), 0);
     decodeAndMergeWith(state, input, fallback);
     if (state.indexMapping == null) {
       throw new IllegalArgumentException("The index mapping is missing.");
     }
     return new DDSketch(
-        state.indexMapping, state.negativeValueStore, state.positiveValueStore, state.zeroCount);
+        state.indexMapping,
+        storeSupplier,
+        state.negativeValueStore,
+        state.positiveValueStore,
+        state.zeroCount);
   }
 
   private static void decodeAndMergeWith(DecodingState state, Input input, Decoder fallback)
@@ -468,10 +767,14 @@ public class DDSketch implements QuantileSketch<DDSketch> {
       final Flag flag = Flag.decode(input);
       switch (flag.type()) {
         case POSITIVE_STORE:
-          state.positiveValueStore.decodeAndMergeWith(input, BinEncodingMode.ofFlag(flag));
+          state
+              .positiveValueStoreForUpdate()
+              .decodeAndMergeWith(input, BinEncodingMode.ofFlag(flag));
           break;
         case NEGATIVE_STORE:
-          state.negativeValueStore.decodeAndMergeWith(input, BinEncodingMode.ofFlag(flag));
+          state
+              .negativeValueStoreForUpdate()
+              .decodeAndMergeWith(input, BinEncodingMode.ofFlag(flag));
           break;
         case INDEX_MAPPING:
           final IndexMapping decodedIndexMapping =
@@ -515,23 +818,65 @@ public class DDSketch implements QuantileSketch<DDSketch> {
 
   private static final class DecodingState {
     private IndexMapping indexMapping;
-    private final Store negativeValueStore;
-    private final Store positiveValueStore;
+    private final Supplier<Store> negativeValueStoreSupplier;
+    private final Supplier<Store> positiveValueStoreSupplier;
+    private Store negativeValueStore;
+    private Store positiveValueStore;
     private double zeroCount;
 
     private DecodingState(
         IndexMapping indexMapping,
+        Supplier<Store> negativeValueStoreSupplier,
+        Supplier<Store> positiveValueStoreSupplier,
         Store negativeValueStore,
         Store positiveValueStore,
         double zeroCount) {
       this.indexMapping = indexMapping;
+      this.negativeValueStoreSupplier = negativeValueStoreSupplier;
+      this.positiveValueStoreSupplier = positiveValueStoreSupplier;
       this.negativeValueStore = negativeValueStore;
       this.positiveValueStore = positiveValueStore;
       this.zeroCount = zeroCount;
     }
+
+    private Store negativeValueStoreForUpdate() {
+      if (negativeValueStore == Store.empty()) {
+        negativeValueStore = negativeValueStoreSupplier.get();
+      }
+      return negativeValueStore;
+    }
+
+    private Store positiveValueStoreForUpdate() {
+      if (positiveValueStore == Store.empty()) {
+        positiveValueStore = positiveValueStoreSupplier.get();
+      }
+      return positiveValueStore;
+    }
   }
 
-  /** @return the size of the sketch when serialized in protobuf */
+  /**
+   * Returns an estimate of the memory that this sketch uses, that is, of the total size of this
+   * sketch, of its index mapping and of its stores (see {@link Store#estimatedSizeInBytes()}). The
+   * index mapping is accounted for even though it may be shared with other sketches, while the
+   * store suppliers are not. It is computed in constant time with the built-in stores, except for
+   * {@link com.datadoghq.sketch.ddsketch.store.PaginatedStore}.
+   *
+   * @return the estimated size of this sketch, in bytes
+   */
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(
+            5 * Double.BYTES + 5 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES)
+        + indexMapping.estimatedSizeInBytes()
+        + negativeValueStore.estimatedSizeInBytes()
+        + positiveValueStore.estimatedSizeInBytes();
+  }
+
+  /**
+   * @return the size of the sketch when serialized in protobuf
+   * @throws UnsupportedOperationException if the index mapping of the sketch cannot be serialized
+   *     in protobuf, which is the case of {@link
+   *     com.datadoghq.sketch.ddsketch.mapping.HybridLinearLogarithmicMapping}
+   */
   public int serializedSize() {
     return embeddedFieldSize(1, indexMapping.serializedSize())
         + embeddedFieldSize(2, positiveValueStore.serializedSize())
@@ -547,9 +892,16 @@ public class DDSketch implements QuantileSketch<DDSketch> {
    * sketch from a protobuf message. {@code DDSketchProtoBinding} can be used for this purpose, but
    * requires a runtime dependency on protobuf-java. This API may be made symmetric in the future.
    *
+   * <p>Sketches whose index mapping has no protobuf representation, such as the ones that use
+   * {@link com.datadoghq.sketch.ddsketch.mapping.HybridLinearLogarithmicMapping}, cannot be
+   * serialized, and should be encoded with {@link #encode} instead.
+   *
    * @return the sketch serialized as a {@code ByteBuffer}.
+   * @throws UnsupportedOperationException if the index mapping of the sketch cannot be serialized
+   *     in protobuf
    */
   public ByteBuffer serialize() {
+    // Throws before anything is allocated or written if the index mapping cannot be serialized.
     int indexMappingSize = indexMapping.serializedSize();
     int positiveValueStoreSize = positiveValueStore.serializedSize();
     int negativeValueStoreSize = negativeValueStore.serializedSize();
@@ -0,0 +1,470 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import com.datadoghq.sketch.ddsketch.mapping.CachedValueIndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Encodes batches of sketches that share the same index mapping.
+ *
+ * <p>Compared to encoding each sketch separately with {@link DDSketch#encode}, the index mapping is
+ * encoded only once, and the data is laid out in columns (all zero counts, then all bin ranges,
+ * then all bin counts) rather than sketch by sketch, which makes the encoded batch more
+ * compressible. Minimum indexes are delta-encoded from one sketch to the next, as sketches of the
+ * same batch usually track similar distributions.
+ *
+ * <p>Encoding format:
+ *
+ * <ul>
+ *   <li>the index mapping, as encoded by {@link IndexMapping#encode}
+ *   <li>[uvarint64] the number of sketches
+ *   <li>for each sketch, [varfloat64] the count of its zero bin
+ *   <li>for each sketch:
+ *       <ul>
+ *         <li>for its positive then its negative value store:
+ *             <ul>
+ *               <li>[uvarint64] twice the number of runs of bins, plus one if the counts are
+ *                   encoded as varints rather than as varfloats
+ *               <li>if the store is not empty, [varint64] its minimum index, minus the minimum
+ *                   index of the last non-empty store of the same sign in the batch (zero if none)
+ *             </ul>
+ *         <li>[uvarint64] the number of bytes that the bins of the sketch take
+ *       </ul>
+ *   <li>for each sketch, for its positive then its negative value store, for each run of bins:
+ *       <ul>
+ *         <li>unless it is the first run, [uvarint64] the number of empty bins between the last bin
+ *             of the previous run and the first bin of the run
+ *         <li>for a run of bins whose counts are all one:
+ *             <ul>
+ *               <li>[uvarint64] twice the number of bins of the run, plus one
+ *               <li>for each bin but the first one, [uvarint64] its index minus the index of the
+ *                   previous bin
+ *             </ul>
+ *         <li>for other runs:
+ *             <ul>
+ *               <li>[uvarint64] twice the number of bins of the run, empty bins included
+ *               <li>[uvarint64] or [varfloat64] the count of each bin of the run, from the lowest
+ *                   index to the highest one
+ *             </ul>
+ *       </ul>
+ * </ul>
+ *
+ * <p>Runs of arbitrary counts are split wherever there are more than a couple of consecutive empty
+ * bins, and runs of unit counts are encoded with their index deltas only, so that the sparse tails
+ * of distributions do not cost one byte per empty bin.
+ *
+ * <p>As the number of bytes that the bins of each sketch take is encoded, a single sketch can be
+ * decoded with {@link #decode(Input, Supplier, int)} without decoding the bins of the others.
+ *
+ * <p>Exact summary statistics are not encoded.
+ */
+public final class DDSketchBatchCodec {
+
+  /** The maximum number of consecutive empty bins that do not split a run of bins. */
+  private static final int MAX_FILLED_GAP = 2;
+
+  private DDSketchBatchCodec() {}
+
+  /**
+   * Encodes a batch of sketches.
+   *
+   * @param output where to write the encoded batch
+   * @param indexMapping the index mapping of the sketches
+   * @param sketches the sketches to encode
+   * @throws IOException if an IO exception is thrown while writing to the {@code output}
+   * @throws IllegalArgumentException if a sketch does not use {@code indexMapping}
+   */
+  public static void encode(Output output, IndexMapping indexMapping, List<DDSketch> sketches)
+      throws IOException {
+    for (final DDSketch sketch : sketches) {
+      if (!CachedValueIndexMapping.unwrap(indexMapping)
+          .equals(CachedValueIndexMapping.unwrap(sketch.getIndexMapping()))) {
+        throw new IllegalArgumentException("The sketches do not use the same index mapping.");
+      }
+    }
+
+    indexMapping.encode(output);
+    VarEncodingHelper.encodeUnsignedVarLong(output, sketches.size());
+
+    for (final DDSketch sketch : sketches) {
+      VarEncodingHelper.encodeVarDouble(output, sketch.getZeroCount());
+    }
+
+    final StoreBins positiveBins = new StoreBins();
+    final StoreBins negativeBins = new StoreBins();
+    long previousPositiveMinIndex = 0;
+    long previousNegativeMinIndex = 0;
+    for (final DDSketch sketch : sketches) {
+      positiveBins.set(sketch.getPositiveValueStore());
+      negativeBins.set(sketch.getNegativeValueStore());
+      previousPositiveMinIndex = positiveBins.encodeRange(output, previousPositiveMinIndex);
+      previousNegativeMinIndex = negativeBins.encodeRange(output, previousNegativeMinIndex);
+      VarEncodingHelper.encodeUnsignedVarLong(
+          output, positiveBins.binsEncodedLength + negativeBins.binsEncodedLength);
+    }
+
+    for (final DDSketch sketch : sketches) {
+      positiveBins.set(sketch.getPositiveValueStore());
+      negativeBins.set(sketch.getNegativeValueStore());
+      positiveBins.encodeBins(output);
+      negativeBins.encodeBins(output);
+    }
+  }
+
+  /**
+   * Decodes all the sketches of a batch.
+   *
+   * @param input where to read the encoded batch from
+   * @param storeSupplier the supplier of the stores of the decoded sketches
+   * @return the decoded sketches, in the order in which they were encoded
+   * @throws IOException if an IO exception is thrown while reading from the {@code input}, or if
+   *     the encoded batch is malformed
+   */
+  public static List<DDSketch> decode(Input input, Supplier<Store> storeSupplier)
+      throws IOException {
+    final Header header = Header.decode(input);
+    final List<DDSketch> sketches = new ArrayList<>(header.numSketches);
+    for (int i = 0; i < header.numSketches; i++) {
+      sketches.add(header.decodeSketch(input, i, storeSupplier));
+    }
+    return sketches;
+  }
+
+  /**
+   * Decodes a single sketch of a batch, without decoding the bin counts of the other ones.
+   *
+   * @param input where to read the encoded batch from
+   * @param storeSupplier the supplier of the stores of the decoded sketch
+   * @param sketchIndex the position of the sketch in the batch
+   * @return the decoded sketch
+   * @throws IOException if an IO exception is thrown while reading from the {@code input}, or if
+   *     the encoded batch is malformed
+   * @throws IndexOutOfBoundsException if the batch has no sketch at {@code sketchIndex}
+   */
+  public static DDSketch decode(Input input, Supplier<Store> storeSupplier, int sketchIndex)
+      throws IOException {
+    final Header header = Header.decode(input);
+    if (sketchIndex < 0 || sketchIndex >= header.numSketches) {
+      throw new IndexOutOfBoundsException();
+    }
+    long numSkippedBytes = 0;
+    for (int i = 0; i < sketchIndex; i++) {
+      numSkippedBytes += header.binsEncodedLengths[i];
+    }
+    input.skipBytes(numSkippedBytes);
+    return header.decodeSketch(input, sketchIndex, storeSupplier);
+  }
+
+  private static void encodeCount(Output output, double count, boolean varLongCount)
+      throws IOException {
+    if (varLongCount) {
+      VarEncodingHelper.encodeUnsignedVarLong(output, (long) count);
+    } else {
+      VarEncodingHelper.encodeVarDouble(output, count);
+    }
+  }
+
+  /**
+   * The non-empty bins of a store, and how they are split into runs. The arrays are reused from one
+   * store to the next.
+   */
+  private static final class StoreBins {
+
+    private int[] indexes = new int[64];
+    private double[] counts = new double[64];
+    private int numBins;
+    private boolean varLongCounts;
+    // The position of the first bin of each run, and whether the run only holds unit counts.
+    private int[] runStarts = new int[16];
+    private boolean[] unitRuns = new boolean[16];
+    private int numRuns;
+    private long binsEncodedLength;
+
+    private void set(Store store) {
+      numBins = 0;
+      varLongCounts = true;
+      store.forEach(this::addBin);
+
+      numRuns = 0;
+      int start = 0;
+      while (start < numBins) {
+        final int end = denseRunEnd(start);
+        final boolean unit = hasUnitCounts(start, end);
+        // Consecutive runs of unit counts are merged, as their index deltas are encoded anyway.
+        if (!unit || numRuns == 0 || !unitRuns[numRuns - 1]) {
+          addRun(start, unit);
+        }
+        start = end;
+      }
+
+      binsEncodedLength = 0;
+      for (int run = 0; run < numRuns; run++) {
+        final int runStart = runStarts[run];
+        final int runEnd = runEnd(run);
+        if (run != 0) {
+          binsEncodedLength += VarEncodingHelper.unsignedVarLongEncodedLength(gap(runStart));
+        }
+        if (unitRuns[run]) {
+          binsEncodedLength +=
+              VarEncodingHelper.unsignedVarLongEncodedLength(2L * (runEnd - runStart) + 1);
+          for (int i = runStart + 1; i < runEnd; i++) {
+            binsEncodedLength +=
+                VarEncodingHelper.unsignedVarLongEncodedLength((long) indexes[i] - indexes[i - 1]);
+          }
+        } else {
+          final long runLength = (long) indexes[runEnd - 1] - indexes[runStart] + 1;
+          // Empty bins are encoded with one byte, whether as varints or varfloats.
+          binsEncodedLength +=
+              VarEncodingHelper.unsignedVarLongEncodedLength(2 * runLength)
+                  + runLength
+                  - (runEnd - runStart);
+          for (int i = runStart; i < runEnd; i++) {
+            binsEncodedLength +=
+                varLongCounts
+                    ? VarEncodingHelper.unsignedVarLongEncodedLength((long) counts[i])
+                    : VarEncodingHelper.varDoubleEncodedLength(counts[i]);
+          }
+        }
+      }
+    }
+
+    private void addBin(int index, double count) {
+      if (numBins == indexes.length) {
+        indexes = Arrays.copyOf(indexes, 2 * numBins);
+        counts = Arrays.copyOf(counts, 2 * numBins);
+      }
+      indexes[numBins] = index;
+      counts[numBins] = count;
+      numBins++;
+      varLongCounts &= VarEncodingHelper.isUnsignedVarLongEncodable(count);
+    }
+
+    private void addRun(int start, boolean unit) {
+      if (numRuns == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, 2 * numRuns);
+        unitRuns = Arrays.copyOf(unitRuns, 2 * numRuns);
+      }
+      runStarts[numRuns] = start;
+      unitRuns[numRuns] = unit;
+      numRuns++;
+    }
+
+    /**
+     * Filling a gap of empty bins costs one byte per empty bin, while starting a new run costs the
+     * encoded lengths of the gap and of the run, which are usually one byte each.
+     *
+     * @return the position of the first bin that is more than {@link #MAX_FILLED_GAP} empty bins
+     *     away from the previous one, after {@code start}
+     */
+    private int denseRunEnd(int start) {
+      int end = start + 1;
+      while (end < numBins && gap(end) <= MAX_FILLED_GAP) {
+        end++;
+      }
+      return end;
+    }
+
+    private boolean hasUnitCounts(int start, int end) {
+      for (int i = start; i < end; i++) {
+        if (counts[i] != 1) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return the number of empty bins between the bin at position {@code i} and the previous one
+     */
+    private long gap(int i) {
+      return (long) indexes[i] - indexes[i - 1] - 1;
+    }
+
+    private int runEnd(int run) {
+      return run + 1 < numRuns ? runStarts[run + 1] : numBins;
+    }
+
+    /** @return the minimum index of the last non-empty store */
+    private long encodeRange(Output output, long previousMinIndex) throws IOException {
+      VarEncodingHelper.encodeUnsignedVarLong(output, 2L * numRuns + (varLongCounts ? 1 : 0));
+      if (numRuns == 0) {
+        return previousMinIndex;
+      }
+      VarEncodingHelper.encodeSignedVarLong(output, indexes[0] - previousMinIndex);
+      return indexes[0];
+    }
+
+    private void encodeBins(Output output) throws IOException {
+      for (int run = 0; run < numRuns; run++) {
+        final int runStart = runStarts[run];
+        final int runEnd = runEnd(run);
+        if (run != 0) {
+          VarEncodingHelper.encodeUnsignedVarLong(output, gap(runStart));
+        }
+        if (unitRuns[run]) {
+          VarEncodingHelper.encodeUnsignedVarLong(output, 2L * (runEnd - runStart) + 1);
+          for (int i = runStart + 1; i < runEnd; i++) {
+            VarEncodingHelper.encodeUnsignedVarLong(output, (long) indexes[i] - indexes[i - 1]);
+          }
+        } else {
+          VarEncodingHelper.encodeUnsignedVarLong(
+              output, 2 * ((long) indexes[runEnd - 1] - indexes[runStart] + 1));
+          for (int i = runStart; i < runEnd; i++) {
+            if (i != runStart) {
+              for (long j = 0; j < gap(i); j++) {
+                encodeCount(output, 0, varLongCounts);
+              }
+            }
+            encodeCount(output, counts[i], varLongCounts);
+          }
+        }
+      }
+    }
+  }
+
+  /** Everything that precedes the bin counts in the encoded batch. */
+  private static final class Header {
+
+    private static final int INITIAL_NUM_SKETCHES = 1 << 10;
+
+    private final IndexMapping indexMapping;
+    private final int numSketches;
+    private final double[] zeroCounts;
+    // For the positive then the negative value store of each sketch, the number of runs of bins,
+    // whether the counts are encoded as varints and the minimum index.
+    private final long[] numRuns;
+    private final boolean[] varLongCounts;
+    private final long[] minIndexes;
+    private final long[] binsEncodedLengths;
+
+    private Header(IndexMapping indexMapping, double[] zeroCounts) {
+      this.indexMapping = indexMapping;
+      this.numSketches = zeroCounts.length;
+      this.zeroCounts = zeroCounts;
+      this.numRuns = new long[2 * numSketches];
+      this.varLongCounts = new boolean[2 * numSketches];
+      this.minIndexes = new long[2 * numSketches];
+      this.binsEncodedLengths = new long[numSketches];
+    }
+
+    private static Header decode(Input input) throws IOException {
+      final Flag flag = Flag.decode(input);
+      if (flag.type() != Flag.Type.INDEX_MAPPING) {
+        throw new MalformedInputException("The index mapping is missing.");
+      }
+      final IndexMapping indexMapping = IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag));
+      final long numSketches = VarEncodingHelper.decodeUnsignedVarLong(input);
+      if (numSketches > Integer.MAX_VALUE / 2) {
+        throw new MalformedInputException("The number of sketches is too large.");
+      }
+
+      // The number of sketches is not trusted: the array of zero counts grows as they are read, so
+      // that a malformed input fails once exhausted rather than allocating for as many sketches as
+      // it claims. Every sketch takes at least one byte per column, so that the other arrays are
+      // proportional to the size of the input once the zero counts are read.
+      double[] zeroCounts = new double[(int) Math.min(numSketches, INITIAL_NUM_SKETCHES)];
+      for (int i = 0; i < numSketches; i++) {
+        if (i == zeroCounts.length) {
+          zeroCounts = Arrays.copyOf(zeroCounts, (int) Math.min(numSketches, 2L * i));
+        }
+        zeroCounts[i] = VarEncodingHelper.decodeVarDouble(input);
+      }
+      final Header header = new Header(indexMapping, zeroCounts);
+
+      final long[] previousMinIndexes = {0, 0};
+      for (int i = 0; i < 2 * numSketches; i++) {
+        final long numRunsAndCountEncoding = VarEncodingHelper.decodeUnsignedVarLong(input);
+        header.numRuns[i] = numRunsAndCountEncoding >>> 1;
+        header.varLongCounts[i] = (numRunsAndCountEncoding & 1) != 0;
+        if (header.numRuns[i] != 0) {
+          header.minIndexes[i] =
+              previousMinIndexes[i % 2] + VarEncodingHelper.decodeSignedVarLong(input);
+          previousMinIndexes[i % 2] = header.minIndexes[i];
+        }
+        if (i % 2 == 1) {
+          header.binsEncodedLengths[i / 2] = VarEncodingHelper.decodeUnsignedVarLong(input);
+        }
+      }
+      return header;
+    }
+
+    /**
+     * Decodes the sketch at the specified position, assuming that the {@code input} is at the
+     * beginning of its bin counts.
+     */
+    private DDSketch decodeSketch(Input input, int sketchIndex, Supplier<Store> storeSupplier)
+        throws IOException {
+      final Store positiveValueStore = decodeBins(input, 2 * sketchIndex, storeSupplier);
+      final Store negativeValueStore = decodeBins(input, 2 * sketchIndex + 1, storeSupplier);
+      return new DDSketch(
+          indexMapping,
+          storeSupplier,
+          negativeValueStore,
+          positiveValueStore,
+          zeroCounts[sketchIndex]);
+    }
+
+    /** @return the store of the decoded bins, or the empty store if there is none */
+    private Store decodeBins(Input input, int storeIndex, Supplier<Store> storeSupplier)
+        throws IOException {
+      if (numRuns[storeIndex] == 0) {
+        return Store.empty();
+      }
+      final Store store = storeSupplier.get();
+      decodeBins(input, storeIndex, store);
+      return store;
+    }
+
+    private void decodeBins(Input input, int storeIndex, Store store) throws IOException {
+      long index = minIndexes[storeIndex];
+      for (long run = 0; run < numRuns[storeIndex]; run++) {
+        if (run != 0) {
+          index += VarEncodingHelper.decodeUnsignedVarLong(input);
+        }
+        final long runHeader = VarEncodingHelper.decodeUnsignedVarLong(input);
+        if ((runHeader & 1) != 0) {
+          final long numUnitBins = runHeader >>> 1;
+          for (long i = 0; i < numUnitBins; i++) {
+            if (i != 0) {
+              index += VarEncodingHelper.decodeUnsignedVarLong(input);
+            }
+            store.add(Math.toIntExact(index));
+          }
+          index++;
+        } else {
+          final long runLength = runHeader >>> 1;
+          for (long i = 0; i < runLength; i++) {
+            if (varLongCounts[storeIndex]) {
+              final long count = VarEncodingHelper.decodeUnsignedVarLong(input);
+              if (count != 0) {
+                store.add(Math.toIntExact(index), count);
+              }
+            } else {
+              final double count = VarEncodingHelper.decodeVarDouble(input);
+              if (count != 0) {
+                store.add(Math.toIntExact(index), count);
+              }
+            }
+            index++;
+          }
+        }
+      }
+    }
+  }
+}
@@ -80,12 +80,70 @@ public class DDSketchWithExactSummaryStatistics extends WithExactSummaryStatisti
     return sketch().getPositiveValueStore();
   }
 
+  /**
+   * Precomputes the values of the bins of the underlying sketch (see {@link
+   * DDSketch#cacheValues()}).
+   */
+  public void cacheValues() {
+    sketch().cacheValues();
+  }
+
+  /**
+   * Lets the underlying sketch allocate upfront the memory that it needs to hold a range of values
+   * (see {@link DDSketch#reserve(double, double)}).
+   *
+   * @param minValue the lowest value that the sketch is expected to hold
+   * @param maxValue the highest value that the sketch is expected to hold
+   */
+  public void reserve(double minValue, double maxValue) {
+    sketch().reserve(minValue, maxValue);
+  }
+
+  /**
+   * Lowers the resolution of the underlying sketch (see {@link DDSketch#downsample(int)}). Exact
+   * summary statistics are not affected.
+   *
+   * @param factor the number of adjacent bins that are merged into a single bin
+   */
+  public void downsample(int factor) {
+    sketch().downsample(factor);
+  }
+
+  /**
+   * Releases the memory that the underlying sketch holds beyond what it needs for its bins (see
+   * {@link DDSketch#trimToSize()}).
+   */
+  public void trimToSize() {
+    sketch().trimToSize();
+  }
+
+  /**
+   * Returns an estimate of the memory that this sketch uses (see {@link
+   * DDSketch#estimatedSizeInBytes()}), including the exact summary statistics.
+   *
+   * @return the estimated size of this sketch, in bytes
+   */
+  public long estimatedSizeInBytes() {
+    return estimatedShallowSizeInBytes() + sketch().estimatedSizeInBytes();
+  }
+
   @Override
   public DDSketchWithExactSummaryStatistics copy() {
     return new DDSketchWithExactSummaryStatistics(
         sketch().copy(), getCount(), sum(), sumCompensation(), simpleSum(), min(), max());
   }
 
+  /**
+   * Returns a copy of this sketch whose stores may share their counters with the ones of this
+   * sketch until either is updated (see {@link DDSketch#snapshot()}).
+   *
+   * @return a snapshot of this sketch
+   */
+  public DDSketchWithExactSummaryStatistics snapshot() {
+    return new DDSketchWithExactSummaryStatistics(
+        sketch().snapshot(), getCount(), sum(), sumCompensation(), simpleSum(), min(), max());
+  }
+
   public void encode(Output output, boolean omitIndexMapping) throws IOException {
     final double count = getCount();
     if (count != 0) {
@@ -7,6 +7,7 @@ package com.datadoghq.sketch.ddsketch;
 
 import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
 import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMappingRegistry;
 import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
 import com.datadoghq.sketch.ddsketch.store.CollapsingHighestDenseStore;
 import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
@@ -28,7 +29,8 @@ import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
  * the logarithm may be costly to compute, other mappings can be favored, such as the {@link
  * CubicallyInterpolatedMapping}, which computes indexes at a faster rate but requires slightly more
  * memory to ensure the relative accuracy (about 1% more than the {@link LogarithmicMapping}). See
- * {@link IndexMapping} for more details and more mappings.
+ * {@link IndexMapping} for more details and more mappings. The mappings of preset sketches are
+ * interned (see {@link IndexMappingRegistry}), so that they are shared with decoded sketches.
  *
  * <p>Bin counts are tracked by instances of {@link Store} (one for positive values and another one
  * for negative values). They are essentially objects that map {@code int} indexes to {@code double}
@@ -74,7 +76,8 @@ public interface DDSketches {
    */
   static DDSketch unboundedDense(double relativeAccuracy) {
     return new DDSketch(
-        new CubicallyInterpolatedMapping(relativeAccuracy), UnboundedSizeDenseStore::new);
+        IndexMappingRegistry.intern(new CubicallyInterpolatedMapping(relativeAccuracy)),
+        UnboundedSizeDenseStore::new);
   }
 
   /**
@@ -88,7 +91,7 @@ public interface DDSketches {
    */
   static DDSketch collapsingLowestDense(double relativeAccuracy, int maxNumBins) {
     return new DDSketch(
-        new CubicallyInterpolatedMapping(relativeAccuracy),
+        IndexMappingRegistry.intern(new CubicallyInterpolatedMapping(relativeAccuracy)),
         () -> new CollapsingLowestDenseStore(maxNumBins));
   }
 
@@ -103,7 +106,7 @@ public interface DDSketches {
    */
   static DDSketch collapsingHighestDense(double relativeAccuracy, int maxNumBins) {
     return new DDSketch(
-        new CubicallyInterpolatedMapping(relativeAccuracy),
+        IndexMappingRegistry.intern(new CubicallyInterpolatedMapping(relativeAccuracy)),
         () -> new CollapsingHighestDenseStore(maxNumBins));
   }
 
@@ -118,7 +121,9 @@ public interface DDSketches {
    * @return an initially empty instance of {@code DDSketch}
    */
   static DDSketch sparse(double relativeAccuracy) {
-    return new DDSketch(new CubicallyInterpolatedMapping(relativeAccuracy), SparseStore::new);
+    return new DDSketch(
+        IndexMappingRegistry.intern(new CubicallyInterpolatedMapping(relativeAccuracy)),
+        SparseStore::new);
   }
 
   /**
@@ -132,7 +137,9 @@ public interface DDSketches {
    * @return an initially empty instance of {@code DDSketch}
    */
   static DDSketch logarithmicUnboundedDense(double relativeAccuracy) {
-    return new DDSketch(new LogarithmicMapping(relativeAccuracy), UnboundedSizeDenseStore::new);
+    return new DDSketch(
+        IndexMappingRegistry.intern(new LogarithmicMapping(relativeAccuracy)),
+        UnboundedSizeDenseStore::new);
   }
 
   /**
@@ -149,7 +156,8 @@ public interface DDSketches {
    */
   static DDSketch logarithmicCollapsingLowestDense(double relativeAccuracy, int maxNumBins) {
     return new DDSketch(
-        new LogarithmicMapping(relativeAccuracy), () -> new CollapsingLowestDenseStore(maxNumBins));
+        IndexMappingRegistry.intern(new LogarithmicMapping(relativeAccuracy)),
+        () -> new CollapsingLowestDenseStore(maxNumBins));
   }
 
   /**
@@ -166,7 +174,7 @@ public interface DDSketches {
    */
   static DDSketch logarithmicCollapsingHighestDense(double relativeAccuracy, int maxNumBins) {
     return new DDSketch(
-        new LogarithmicMapping(relativeAccuracy),
+        IndexMappingRegistry.intern(new LogarithmicMapping(relativeAccuracy)),
         () -> new CollapsingHighestDenseStore(maxNumBins));
   }
 }
@@ -0,0 +1,506 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
+import com.datadoghq.sketch.ddsketch.encoding.ByteBufferInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only view of a {@link DDSketch} in its encoded form, as produced by {@link
+ * DDSketch#encode}, that answers queries by walking the encoded bins rather than by decoding them
+ * into stores.
+ *
+ * <p>This is much cheaper than {@link DDSketch#decode} when only a few quantiles of an encoded
+ * sketch are needed. Wrapping the encoded sketch walks it once to decode the index mapping and to
+ * compute the total count and the range of indexes of each store. Afterwards, {@link #getCount()},
+ * {@link #getMinValue()} and {@link #getMaxValue()} are answered in constant time, and {@link
+ * #getValueAtQuantile(double)} and {@link #getValuesAtQuantiles(double[])} walk the encoded bins
+ * once more. The latter holds as long as the bins of each store are encoded in ascending order of
+ * indexes, which is the case for sketches encoded by this library. If they are not (e.g., if the
+ * encoded sketch is the concatenation of several encoded sketches), quantiles are found with a
+ * binary search over the indexes, each step of which walks the encoded bins.
+ *
+ * <p>The view behaves as the sketch that {@link DDSketch#decode} would return, with the difference
+ * that it does not allocate any store. Exact summary statistics that may be encoded are ignored.
+ * The encoded sketch must not be modified while the view is in use.
+ */
+public final class EncodedDDSketchView {
+
+  private final ByteBuffer buffer;
+  private final IndexMapping indexMapping;
+  private final double zeroCount;
+  private final StoreSummary negativeStoreSummary;
+  private final StoreSummary positiveStoreSummary;
+
+  private EncodedDDSketchView(ByteBuffer buffer, Summarizer summarizer) {
+    this.buffer = buffer;
+    this.indexMapping = summarizer.indexMapping;
+    this.zeroCount = summarizer.zeroCount;
+    this.negativeStoreSummary = summarizer.negativeStoreSummary;
+    this.positiveStoreSummary = summarizer.positiveStoreSummary;
+  }
+
+  /**
+   * Wraps an encoded sketch, which must include its index mapping.
+   *
+   * @param array the array that holds the encoded sketch
+   * @param offset the offset of the encoded sketch in the array
+   * @param length the length of the encoded sketch
+   * @return a view of the encoded sketch
+   * @throws IOException if the encoded sketch is malformed
+   */
+  public static EncodedDDSketchView wrap(byte[] array, int offset, int length) throws IOException {
+    return wrap(ByteBuffer.wrap(array, offset, length));
+  }
+
+  /**
+   * Wraps an encoded sketch, which must include its index mapping.
+   *
+   * @param array the array that holds the encoded sketch and nothing else
+   * @return a view of the encoded sketch
+   * @throws IOException if the encoded sketch is malformed
+   */
+  public static EncodedDDSketchView wrap(byte[] array) throws IOException {
+    return wrap(array, 0, array.length);
+  }
+
+  /**
+   * Wraps an encoded sketch, which must include its index mapping.
+   *
+   * @param buffer the buffer whose bytes between its position and its limit are the encoded sketch;
+   *     its position is not modified
+   * @return a view of the encoded sketch
+   * @throws IOException if the encoded sketch is malformed
+   */
+  public static EncodedDDSketchView wrap(ByteBuffer buffer) throws IOException {
+    return wrap(buffer, null);
+  }
+
+  /**
+   * Wraps an encoded sketch.
+   *
+   * @param buffer the buffer whose bytes between its position and its limit are the encoded sketch;
+   *     its position is not modified
+   * @param indexMapping the index mapping of the sketch, or {@code null} to use the one that is
+   *     encoded
+   * @return a view of the encoded sketch
+   * @throws IOException if the encoded sketch is malformed
+   * @throws IllegalArgumentException if the index mapping is missing, or if it does not match the
+   *     index mapping that is encoded
+   */
+  public static EncodedDDSketchView wrap(ByteBuffer buffer, IndexMapping indexMapping)
+      throws IOException {
+    final ByteBuffer slice = buffer.slice();
+    final Summarizer summarizer = new Summarizer(indexMapping);
+    walk(ByteBufferInput.wrap(slice.duplicate()), summarizer);
+    if (summarizer.indexMapping == null) {
+      throw new IllegalArgumentException("The index mapping is missing.");
+    }
+    return new EncodedDDSketchView(slice, summarizer);
+  }
+
+  public IndexMapping getIndexMapping() {
+    return indexMapping;
+  }
+
+  public boolean isEmpty() {
+    return zeroCount == 0 && negativeStoreSummary.isEmpty() && positiveStoreSummary.isEmpty();
+  }
+
+  public double getCount() {
+    return zeroCount + negativeStoreSummary.totalCount + positiveStoreSummary.totalCount;
+  }
+
+  public double getMinValue() {
+    if (!negativeStoreSummary.isEmpty()) {
+      return -indexMapping.value(negativeStoreSummary.getMaxIndex());
+    } else if (zeroCount > 0) {
+      return 0;
+    } else {
+      return indexMapping.value(positiveStoreSummary.getMinIndex());
+    }
+  }
+
+  public double getMaxValue() {
+    if (!positiveStoreSummary.isEmpty()) {
+      return indexMapping.value(positiveStoreSummary.getMaxIndex());
+    } else if (zeroCount > 0) {
+      return 0;
+    } else {
+      return -indexMapping.value(negativeStoreSummary.getMinIndex());
+    }
+  }
+
+  public double getValueAtQuantile(double quantile) {
+    return getValuesAtQuantiles(new double[] {quantile})[0];
+  }
+
+  public double[] getValuesAtQuantiles(double[] quantiles) {
+    for (final double quantile : quantiles) {
+      if (quantile < 0 || quantile > 1) {
+        throw new IllegalArgumentException("The quantile must be between 0 and 1.");
+      }
+    }
+
+    final double count = getCount();
+    if (count == 0) {
+      throw new NoSuchElementException();
+    }
+
+    // Ranks are sorted so that the bins can be walked once for all of them, the outcome for each
+    // quantile being then found by binary search on the sorted ranks.
+    final double[] ranks = new double[quantiles.length];
+    for (int i = 0; i < quantiles.length; i++) {
+      ranks[i] = quantiles[i] * (count - 1);
+    }
+    Arrays.sort(ranks);
+    final double[] values = new double[ranks.length];
+
+    final double negativeCount = negativeStoreSummary.totalCount;
+    final double nonPositiveCount = negativeCount + zeroCount;
+    final int numNegativeRanks = countLowerThan(ranks, negativeCount);
+    final int numNonPositiveRanks = countLowerThan(ranks, nonPositiveCount);
+
+    if (negativeStoreSummary.ascending && positiveStoreSummary.ascending) {
+      final RankFinder rankFinder =
+          new RankFinder(
+              ranks, numNegativeRanks, numNonPositiveRanks, negativeCount, nonPositiveCount);
+      walk(rankFinder);
+      rankFinder.finish();
+      for (int i = 0; i < ranks.length; i++) {
+        if (i < numNegativeRanks) {
+          values[i] = -indexMapping.value(rankFinder.indexes[i]);
+        } else if (i < numNonPositiveRanks) {
+          values[i] = 0;
+        } else if (i < rankFinder.numFoundPositiveRanks) {
+          values[i] = indexMapping.value(rankFinder.indexes[i]);
+        } else {
+          throw new NoSuchElementException();
+        }
+      }
+    } else {
+      for (int i = 0; i < ranks.length; i++) {
+        if (i < numNegativeRanks) {
+          values[i] = -indexMapping.value(searchNegativeIndex(ranks[i]));
+        } else if (i < numNonPositiveRanks) {
+          values[i] = 0;
+        } else {
+          values[i] = indexMapping.value(searchPositiveIndex(ranks[i] - nonPositiveCount));
+        }
+      }
+    }
+
+    final double[] valuesAtQuantiles = new double[quantiles.length];
+    for (int i = 0; i < quantiles.length; i++) {
+      valuesAtQuantiles[i] = values[Arrays.binarySearch(ranks, quantiles[i] * (count - 1))];
+    }
+    return valuesAtQuantiles;
+  }
+
+  private static int countLowerThan(double[] sortedValues, double threshold) {
+    int count = 0;
+    while (count < sortedValues.length && sortedValues[count] < threshold) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @return the highest index of the negative value store such that the sum of the counts of the
+   *     bins whose indexes are greater than or equal to it is greater than {@code rank}
+   */
+  private int searchNegativeIndex(double rank) {
+    long low = negativeStoreSummary.minIndex;
+    long high = negativeStoreSummary.maxIndex;
+    while (low < high) {
+      final long mid = low + (high - low + 1) / 2;
+      if (negativeStoreSummary.totalCount - getCountUpTo(false, mid - 1) > rank) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return (int) low;
+  }
+
+  /**
+   * @return the lowest index of the positive value store such that the sum of the counts of the
+   *     bins whose indexes are lower than or equal to it is greater than {@code rank}
+   */
+  private int searchPositiveIndex(double rank) {
+    long low = positiveStoreSummary.minIndex;
+    long high = positiveStoreSummary.maxIndex;
+    if (positiveStoreSummary.isEmpty() || positiveStoreSummary.totalCount <= rank) {
+      throw new NoSuchElementException();
+    }
+    while (low < high) {
+      final long mid = low + (high - low) / 2;
+      if (getCountUpTo(true, mid) > rank) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return (int) low;
+  }
+
+  private double getCountUpTo(boolean positive, long maxIndex) {
+    final double[] count = {0};
+    walk(
+        new Walker() {
+          @Override
+          void acceptBin(boolean positiveBin, int index, double binCount) {
+            if (positiveBin == positive && index <= maxIndex) {
+              count[0] += binCount;
+            }
+          }
+        });
+    return count[0];
+  }
+
+  private void walk(Walker walker) {
+    try {
+      walk(ByteBufferInput.wrap(buffer.duplicate()), walker);
+    } catch (IOException e) {
+      // The encoded sketch has been fully read once already when the view was built.
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void walk(Input input, Walker walker) throws IOException {
+    while (input.hasRemaining()) {
+      final Flag flag = Flag.decode(input);
+      switch (flag.type()) {
+        case POSITIVE_STORE:
+          walkBins(input, BinEncodingMode.ofFlag(flag), true, walker);
+          break;
+        case NEGATIVE_STORE:
+          walkBins(input, BinEncodingMode.ofFlag(flag), false, walker);
+          break;
+        case INDEX_MAPPING:
+          walker.acceptIndexMapping(IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag)));
+          break;
+        case SKETCH_FEATURES:
+          if (Flag.ZERO_COUNT.equals(flag)) {
+            walker.acceptZeroCount(VarEncodingHelper.decodeVarDouble(input));
+          } else {
+            DDSketch.ignoreExactSummaryStatisticFlags(input, flag);
+          }
+          break;
+        default:
+          throw new MalformedInputException("The flag type is invalid.");
+      }
+    }
+  }
+
+  private static void walkBins(
+      Input input, BinEncodingMode encodingMode, boolean positive, Walker walker)
+      throws IOException {
+    final long numBins = VarEncodingHelper.decodeUnsignedVarLong(input);
+    switch (encodingMode) {
+      case INDEX_DELTAS_AND_COUNTS:
+      case INDEX_DELTAS_AND_VARINT_COUNTS:
+      case INDEX_DELTAS:
+        {
+          long index = 0;
+          for (long i = 0; i != numBins; i++) {
+            index += VarEncodingHelper.decodeSignedVarLong(input);
+            final double count;
+            if (encodingMode == BinEncodingMode.INDEX_DELTAS_AND_COUNTS) {
+              count = VarEncodingHelper.decodeVarDouble(input);
+            } else if (encodingMode == BinEncodingMode.INDEX_DELTAS_AND_VARINT_COUNTS) {
+              count = VarEncodingHelper.decodeUnsignedVarLong(input);
+            } else {
+              count = 1;
+            }
+            acceptBin(walker, positive, index, count);
+          }
+        }
+        break;
+      case CONTIGUOUS_COUNTS:
+      case CONTIGUOUS_VARINT_COUNTS:
+        {
+          long index = VarEncodingHelper.decodeSignedVarLong(input);
+          final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+          for (long i = 0; i != numBins; i++, index += indexDelta) {
+            final double count =
+                encodingMode == BinEncodingMode.CONTIGUOUS_COUNTS
+                    ? VarEncodingHelper.decodeVarDouble(input)
+                    : VarEncodingHelper.decodeUnsignedVarLong(input);
+            acceptBin(walker, positive, index, count);
+          }
+        }
+        break;
+      default:
+        throw new IllegalStateException("The bin encoding mode is not handled.");
+    }
+  }
+
+  private static void acceptBin(Walker walker, boolean positive, long index, double count)
+      throws MalformedInputException {
+    if (!(count >= 0)) {
+      throw new MalformedInputException("The count is negative or NaN.");
+    }
+    if (index < Integer.MIN_VALUE || index > Integer.MAX_VALUE) {
+      throw new MalformedInputException("The index is out of range.");
+    }
+    if (count != 0) {
+      walker.acceptBin(positive, (int) index, count);
+    }
+  }
+
+  /**
+   * Gets called back with the content of an encoded sketch, in the order in which it is encoded.
+   */
+  private abstract static class Walker {
+
+    void acceptIndexMapping(IndexMapping indexMapping) {}
+
+    void acceptZeroCount(double count) {}
+
+    /** Gets called back with the non-empty bins only. */
+    abstract void acceptBin(boolean positive, int index, double count);
+  }
+
+  private static final class Summarizer extends Walker {
+
+    private IndexMapping indexMapping;
+    private double zeroCount = 0;
+    private final StoreSummary negativeStoreSummary = new StoreSummary();
+    private final StoreSummary positiveStoreSummary = new StoreSummary();
+
+    private Summarizer(IndexMapping indexMapping) {
+      this.indexMapping = indexMapping;
+    }
+
+    @Override
+    void acceptIndexMapping(IndexMapping decodedIndexMapping) {
+      if (indexMapping == null) {
+        indexMapping = decodedIndexMapping;
+      } else {
+        DDSketch.checkMergeability(indexMapping, decodedIndexMapping);
+      }
+    }
+
+    @Override
+    void acceptZeroCount(double count) {
+      zeroCount += count;
+    }
+
+    @Override
+    void acceptBin(boolean positive, int index, double count) {
+      (positive ? positiveStoreSummary : negativeStoreSummary).add(index, count);
+    }
+  }
+
+  private static final class StoreSummary {
+
+    private double totalCount = 0;
+    private long minIndex = Long.MAX_VALUE;
+    private long maxIndex = Long.MIN_VALUE;
+    // Whether the bins are encoded in strictly ascending order of indexes.
+    private boolean ascending = true;
+    private long lastIndex = Long.MIN_VALUE;
+
+    private void add(int index, double count) {
+      totalCount += count;
+      minIndex = Math.min(minIndex, index);
+      maxIndex = Math.max(maxIndex, index);
+      ascending &= index > lastIndex;
+      lastIndex = index;
+    }
+
+    private boolean isEmpty() {
+      return minIndex > maxIndex;
+    }
+
+    private int getMinIndex() {
+      if (isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return (int) minIndex;
+    }
+
+    private int getMaxIndex() {
+      if (isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return (int) maxIndex;
+    }
+  }
+
+  /**
+   * Finds the indexes of the bins at sorted ranks, assuming that the bins of each store are walked
+   * in ascending order of indexes.
+   */
+  private static final class RankFinder extends Walker {
+
+    private final double[] ranks;
+    private final int numNegativeRanks;
+    private final double negativeCount;
+    private final int[] indexes;
+
+    // The negative value store is walked from its highest value to its lowest one, so the indexes
+    // at the highest ranks are found first.
+    private int numFoundNegativeRanks = 0;
+    private double negativeCountSoFar = 0;
+    private int lastNegativeIndex;
+
+    private int numFoundPositiveRanks;
+    private double countSoFar;
+
+    private RankFinder(
+        double[] ranks,
+        int numNegativeRanks,
+        int numNonPositiveRanks,
+        double negativeCount,
+        double nonPositiveCount) {
+      this.ranks = ranks;
+      this.numNegativeRanks = numNegativeRanks;
+      this.negativeCount = negativeCount;
+      this.indexes = new int[ranks.length];
+      this.numFoundPositiveRanks = numNonPositiveRanks;
+      this.countSoFar = nonPositiveCount;
+    }
+
+    @Override
+    void acceptBin(boolean positive, int index, double count) {
+      if (positive) {
+        countSoFar += count;
+        while (numFoundPositiveRanks < ranks.length && countSoFar > ranks[numFoundPositiveRanks]) {
+          indexes[numFoundPositiveRanks++] = index;
+        }
+      } else {
+        // The bin at a given rank is the one with the highest index such that the total count of
+        // the bins with lower indexes is lower than the count of negative values minus the rank.
+        while (numFoundNegativeRanks < numNegativeRanks
+            && negativeCountSoFar
+                >= negativeCount - ranks[numNegativeRanks - 1 - numFoundNegativeRanks]) {
+          indexes[numNegativeRanks - 1 - numFoundNegativeRanks++] = lastNegativeIndex;
+        }
+        negativeCountSoFar += count;
+        lastNegativeIndex = index;
+      }
+    }
+
+    private void finish() {
+      while (numFoundNegativeRanks < numNegativeRanks) {
+        indexes[numNegativeRanks - 1 - numFoundNegativeRanks++] = lastNegativeIndex;
+      }
+    }
+  }
+}
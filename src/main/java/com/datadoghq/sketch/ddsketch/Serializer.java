@@ -55,6 +55,18 @@ public final class Serializer {
     }
   }
 
+  /**
+   * Writes {@code length} elements of {@code array}, starting from position {@code from} and
+   * wrapping around to the beginning of the array when reaching its end.
+   */
+  public void writeCompactCircularArray(int fieldIndex, double[] array, int from, int length) {
+    writeTag(fieldIndex, LENGTH_DELIMITED);
+    writeVarInt(length * Double.BYTES);
+    for (int i = 0, j = from; i < length; ++i, j = j + 1 < array.length ? j + 1 : 0) {
+      buffer.putDouble(array[j]);
+    }
+  }
+
   public void writeDouble(int fieldIndex, double value) {
     if (value != 0D) {
       writeTag(fieldIndex, FIXED_64);
@@ -0,0 +1,232 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the total memory used by a population of sketches within a budget, for sketches whose sizes
+ * cannot be bounded individually, for instance because they are too many for {@link
+ * com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore} to be given a maximum number of
+ * bins that is both safe and accurate enough.
+ *
+ * <p>The governor tracks the estimated sizes of the sketches that are registered with it. When
+ * {@link #enforce()} finds that their total exceeds the budget, it compacts sketches (see {@link
+ * CompactingDDSketch#compact()}), starting with the ones that have not been updated for the longest
+ * time, until the total is back within the budget. Compacting is lossless, and sketches are
+ * transparently hydrated when next updated. If the budget is still exceeded once all the sketches
+ * are compacted, and if the governor has been allowed to, it downsamples the largest sketches by a
+ * factor of 2 (see {@link CompactingDDSketch#downsample(int)}), which lowers their resolution,
+ * until the total is within the budget or until every sketch has been downsampled by the maximum
+ * factor. Downsampled sketches use a different index mapping, hence can no longer be merged with
+ * the sketches that have not been downsampled as much without converting them.
+ *
+ * <p>{@link #enforce()} is meant to be called periodically, for instance whenever the aggregation
+ * map that holds the sketches is flushed, and every call measures the sketches in time linear in
+ * their number. The budget can therefore be temporarily exceeded between calls. Sizes are estimates
+ * rather than actual measurements (see {@link CompactingDDSketch#estimatedSizeInBytes()}), and the
+ * memory that is used by the governor itself is not accounted for.
+ *
+ * <p>Note that this implementation is not thread-safe, and that it updates the sketches, which
+ * therefore must not be updated concurrently with {@link #enforce()}.
+ */
+public class SketchMemoryGovernor {
+
+  private static final int DOWNSAMPLING_FACTOR = 2;
+
+  private final long maxSizeInBytes;
+  private final int maxDownsamplingFactor;
+  private final Map<CompactingDDSketch, Entry> entries = new HashMap<>();
+
+  private long compactionCount;
+  private long downsamplingCount;
+
+  /**
+   * Constructs a governor that only compacts sketches to keep them within the budget.
+   *
+   * @param maxSizeInBytes the budget for the total estimated size of the registered sketches
+   * @throws IllegalArgumentException if {@code maxSizeInBytes} is negative
+   */
+  public SketchMemoryGovernor(long maxSizeInBytes) {
+    this(maxSizeInBytes, 1);
+  }
+
+  /**
+   * Constructs a governor that compacts sketches, then downsamples them if that is not enough, to
+   * keep them within the budget.
+   *
+   * @param maxSizeInBytes the budget for the total estimated size of the registered sketches
+   * @param maxDownsamplingFactor the maximum factor by which a sketch can be downsampled in total,
+   *     that is, since it has been registered, which is 1 if sketches are not to be downsampled
+   * @throws IllegalArgumentException if {@code maxSizeInBytes} is negative or if {@code
+   *     maxDownsamplingFactor} is less than 1
+   */
+  public SketchMemoryGovernor(long maxSizeInBytes, int maxDownsamplingFactor) {
+    if (maxSizeInBytes < 0) {
+      throw new IllegalArgumentException("The maximum size cannot be negative.");
+    }
+    if (maxDownsamplingFactor < 1) {
+      throw new IllegalArgumentException("The maximum downsampling factor must be at least 1.");
+    }
+    this.maxSizeInBytes = maxSizeInBytes;
+    this.maxDownsamplingFactor = maxDownsamplingFactor;
+  }
+
+  public long getMaxSizeInBytes() {
+    return maxSizeInBytes;
+  }
+
+  public int getMaxDownsamplingFactor() {
+    return maxDownsamplingFactor;
+  }
+
+  /**
+   * Registers a sketch, whose size is accounted for by the next calls to {@link #enforce()}.
+   *
+   * @param sketch the sketch to be registered
+   * @return {@code true} if the sketch was not already registered
+   */
+  public boolean register(CompactingDDSketch sketch) {
+    return null == entries.putIfAbsent(sketch, new Entry(sketch));
+  }
+
+  /**
+   * Unregisters a sketch, for instance when it is flushed and discarded, so that it is not
+   * accounted for anymore and that it is not retained by the governor.
+   *
+   * @param sketch the sketch to be unregistered
+   * @return {@code true} if the sketch was registered
+   */
+  public boolean unregister(CompactingDDSketch sketch) {
+    return null != entries.remove(sketch);
+  }
+
+  /** @return the number of registered sketches */
+  public int getNumSketches() {
+    return entries.size();
+  }
+
+  /** @return the number of times a sketch has been compacted by {@link #enforce()} */
+  public long getCompactionCount() {
+    return compactionCount;
+  }
+
+  /** @return the number of times a sketch has been downsampled by {@link #enforce()} */
+  public long getDownsamplingCount() {
+    return downsamplingCount;
+  }
+
+  /** @return the total estimated size of the registered sketches, in bytes */
+  public long estimatedSizeInBytes() {
+    long sizeInBytes = 0;
+    for (final CompactingDDSketch sketch : entries.keySet()) {
+      sizeInBytes += sketch.estimatedSizeInBytes();
+    }
+    return sizeInBytes;
+  }
+
+  /**
+   * Compacts, then possibly downsamples, registered sketches until their total estimated size is
+   * within the budget, or until there is nothing left to be done.
+   *
+   * @return the total estimated size of the registered sketches after this call, in bytes
+   */
+  public long enforce() {
+    long sizeInBytes = 0;
+    final List<Entry> hydrated = new ArrayList<>();
+    for (final Entry entry : entries.values()) {
+      entry.measure();
+      sizeInBytes += entry.sizeInBytes;
+      if (!entry.sketch.isCompacted()) {
+        hydrated.add(entry);
+      }
+    }
+    if (sizeInBytes <= maxSizeInBytes) {
+      return sizeInBytes;
+    }
+
+    // Coldest first
+    hydrated.sort(Comparator.comparingLong((Entry entry) -> entry.idleNanos).reversed());
+    for (final Entry entry : hydrated) {
+      entry.sketch.compact();
+      compactionCount++;
+      sizeInBytes += entry.remeasure();
+      if (sizeInBytes <= maxSizeInBytes) {
+        return sizeInBytes;
+      }
+    }
+
+    if (maxDownsamplingFactor == 1) {
+      return sizeInBytes;
+    }
+    final List<Entry> downsamplable = new ArrayList<>(entries.values());
+    while (!downsamplable.isEmpty()) {
+      // Largest first, measured again after every round, as downsampling shrinks sketches unevenly.
+      downsamplable.sort(Comparator.comparingLong((Entry entry) -> entry.sizeInBytes).reversed());
+      final List<Entry> remaining = new ArrayList<>();
+      for (final Entry entry : downsamplable) {
+        if (sizeInBytes <= maxSizeInBytes) {
+          return sizeInBytes;
+        }
+        if (!entry.downsample()) {
+          continue;
+        }
+        downsamplingCount++;
+        sizeInBytes += entry.remeasure();
+        if (entry.downsamplingFactor <= maxDownsamplingFactor / DOWNSAMPLING_FACTOR) {
+          remaining.add(entry);
+        }
+      }
+      downsamplable.clear();
+      downsamplable.addAll(remaining);
+    }
+    return sizeInBytes;
+  }
+
+  private final class Entry {
+
+    private final CompactingDDSketch sketch;
+    private int downsamplingFactor = 1;
+    private long sizeInBytes;
+    private long idleNanos;
+
+    private Entry(CompactingDDSketch sketch) {
+      this.sketch = sketch;
+    }
+
+    private void measure() {
+      sizeInBytes = sketch.estimatedSizeInBytes();
+      idleNanos = sketch.getIdleNanos();
+    }
+
+    /** @return the difference between the new and the previous estimated sizes of the sketch */
+    private long remeasure() {
+      final long previousSizeInBytes = sizeInBytes;
+      sizeInBytes = sketch.estimatedSizeInBytes();
+      return sizeInBytes - previousSizeInBytes;
+    }
+
+    /** @return {@code true} if the sketch has been downsampled */
+    private boolean downsample() {
+      if (downsamplingFactor > maxDownsamplingFactor / DOWNSAMPLING_FACTOR) {
+        return false;
+      }
+      try {
+        sketch.downsample(DOWNSAMPLING_FACTOR);
+      } catch (IllegalArgumentException | UnsupportedOperationException e) {
+        // The index mapping of the sketch cannot be downsampled any further.
+        downsamplingFactor = maxDownsamplingFactor;
+        return false;
+      }
+      downsamplingFactor *= DOWNSAMPLING_FACTOR;
+      return true;
+    }
+  }
+}
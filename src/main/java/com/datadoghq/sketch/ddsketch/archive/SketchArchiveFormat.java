@@ -0,0 +1,71 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.archive;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of sketch archive files, which hold sketches that can be looked up by key.
+ *
+ * <p>Fixed-width integers are big-endian. An archive is made of, in order:
+ *
+ * <ul>
+ *   <li>the header:
+ *       <ul>
+ *         <li>[4 bytes] the magic bytes, {@code DDSA}
+ *         <li>[int32] the version of the format
+ *         <li>[int32] the number of sketches
+ *         <li>[int64] the offset of the key region
+ *         <li>[int64] the offset of the index region
+ *       </ul>
+ *   <li>the data region: the sketches, each of them with the encoding of {@link
+ *       com.datadoghq.sketch.ddsketch.DDSketch#encode}, including its index mapping
+ *   <li>the key region: the UTF-8 encoded keys
+ *   <li>the index region: one entry per sketch, sorted by key (by lexicographic order of the
+ *       unsigned bytes of the UTF-8 encoded keys, which is the order of their code points), each of
+ *       them being:
+ *       <ul>
+ *         <li>[int64] the offset of the key
+ *         <li>[int32] the length of the key
+ *         <li>[int64] the offset of the encoded sketch
+ *         <li>[int32] the length of the encoded sketch
+ *       </ul>
+ * </ul>
+ *
+ * <p>Offsets are relative to the beginning of the file.
+ */
+final class SketchArchiveFormat {
+
+  static final byte[] MAGIC = {'D', 'D', 'S', 'A'};
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = MAGIC.length + 4 + 4 + 8 + 8;
+  static final int NUM_SKETCHES_POSITION = MAGIC.length + 4;
+  static final int KEYS_OFFSET_POSITION = NUM_SKETCHES_POSITION + 4;
+  static final int INDEX_OFFSET_POSITION = KEYS_OFFSET_POSITION + 8;
+
+  static final int INDEX_ENTRY_SIZE = 8 + 4 + 8 + 4;
+  static final int KEY_LENGTH_POSITION = 8;
+  static final int SKETCH_OFFSET_POSITION = KEY_LENGTH_POSITION + 4;
+  static final int SKETCH_LENGTH_POSITION = SKETCH_OFFSET_POSITION + 8;
+
+  private SketchArchiveFormat() {}
+
+  static byte[] encodeKey(String key) {
+    return key.getBytes(StandardCharsets.UTF_8);
+  }
+
+  static int compareKeys(byte[] key1, byte[] key2) {
+    final int length = Math.min(key1.length, key2.length);
+    for (int i = 0; i < length; i++) {
+      final int cmp = Integer.compare(Byte.toUnsignedInt(key1[i]), Byte.toUnsignedInt(key2[i]));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(key1.length, key2.length);
+  }
+}
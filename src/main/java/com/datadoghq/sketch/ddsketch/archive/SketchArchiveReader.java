@@ -0,0 +1,242 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.archive;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.EncodedDDSketchView;
+import com.datadoghq.sketch.ddsketch.encoding.ByteBufferInput;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Reads sketches from an archive file that has been written with {@link SketchArchiveWriter}. See
+ * {@link SketchArchiveFormat} for the layout of the file.
+ *
+ * <p>The file is memory-mapped: opening it only reads and validates its header, and the pages of
+ * the file that hold a sketch are only read from the disk when the sketch is looked up. Looking up
+ * a sketch by key is a binary search over the sorted index of the archive, which takes {@code
+ * O(log(n))} key comparisons. As the mapping is backed by the page cache of the operating system,
+ * processes that read the same archive share the memory that holds it.
+ *
+ * <p>The file is closed as soon as it is mapped. The mapping remains valid until the reader is
+ * garbage-collected, and the file must not be modified until then. Archives that are larger than
+ * {@link Integer#MAX_VALUE} bytes cannot be read.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class SketchArchiveReader {
+
+  private final ByteBuffer buffer;
+  private final int numSketches;
+  private final int keysOffset;
+  private final int indexOffset;
+
+  private SketchArchiveReader(ByteBuffer buffer, int numSketches, int keysOffset, int indexOffset) {
+    this.buffer = buffer;
+    this.numSketches = numSketches;
+    this.keysOffset = keysOffset;
+    this.indexOffset = indexOffset;
+  }
+
+  /**
+   * Opens an archive file.
+   *
+   * @param path the path of the archive file
+   * @return a reader of the archive file
+   * @throws IOException if the file cannot be mapped, or if it is not a valid archive file
+   */
+  public static SketchArchiveReader open(Path path) throws IOException {
+    final ByteBuffer buffer;
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("The archive is too large to be mapped.");
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    if (buffer.capacity() < SketchArchiveFormat.HEADER_SIZE) {
+      throw new MalformedInputException("The archive header is truncated.");
+    }
+    for (int i = 0; i < SketchArchiveFormat.MAGIC.length; i++) {
+      if (buffer.get(i) != SketchArchiveFormat.MAGIC[i]) {
+        throw new MalformedInputException("The file is not a sketch archive.");
+      }
+    }
+    if (buffer.getInt(SketchArchiveFormat.MAGIC.length) != SketchArchiveFormat.VERSION) {
+      throw new MalformedInputException("The archive version is not supported.");
+    }
+    final int numSketches = buffer.getInt(SketchArchiveFormat.NUM_SKETCHES_POSITION);
+    final long keysOffset = buffer.getLong(SketchArchiveFormat.KEYS_OFFSET_POSITION);
+    final long indexOffset = buffer.getLong(SketchArchiveFormat.INDEX_OFFSET_POSITION);
+    if (numSketches < 0
+        || keysOffset < SketchArchiveFormat.HEADER_SIZE
+        || indexOffset < keysOffset
+        || indexOffset + (long) SketchArchiveFormat.INDEX_ENTRY_SIZE * numSketches
+            != buffer.capacity()) {
+      throw new MalformedInputException("The archive header is invalid.");
+    }
+    return new SketchArchiveReader(buffer, numSketches, (int) keysOffset, (int) indexOffset);
+  }
+
+  /** @return the number of sketches in the archive */
+  public int size() {
+    return numSketches;
+  }
+
+  /**
+   * @return the keys of the archive, sorted by code points; they are decoded when accessed, and
+   *     accessing a key whose index entry is malformed throws an {@link UncheckedIOException} that
+   *     wraps a {@link MalformedInputException}
+   */
+  public List<String> keys() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int i) {
+        if (i < 0 || i >= numSketches) {
+          throw new IndexOutOfBoundsException();
+        }
+        final int keyOffset;
+        try {
+          keyOffset = keyOffset(i);
+        } catch (MalformedInputException e) {
+          throw new UncheckedIOException(e);
+        }
+        final byte[] key = new byte[keyLength(i)];
+        final ByteBuffer keyBuffer = buffer.duplicate();
+        keyBuffer.position(keyOffset);
+        keyBuffer.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public int size() {
+        return numSketches;
+      }
+    };
+  }
+
+  /**
+   * @param key the key of a sketch
+   * @return whether the archive contains a sketch for the key
+   * @throws MalformedInputException if an index entry that the lookup reads is malformed
+   */
+  public boolean contains(String key) throws MalformedInputException {
+    return find(key) >= 0;
+  }
+
+  /**
+   * @param key the key of the sketch
+   * @return a read-only buffer whose bytes between its position and its limit are the encoded
+   *     sketch, or {@code null} if the archive does not contain any sketch for the key
+   * @throws MalformedInputException if an index entry that the lookup reads is malformed, or if the
+   *     index entry of the sketch points outside of the data region of the archive
+   */
+  public ByteBuffer getEncoded(String key) throws MalformedInputException {
+    final int i = find(key);
+    if (i < 0) {
+      return null;
+    }
+    final long offset =
+        buffer.getLong(entryPosition(i) + SketchArchiveFormat.SKETCH_OFFSET_POSITION);
+    final int length = buffer.getInt(entryPosition(i) + SketchArchiveFormat.SKETCH_LENGTH_POSITION);
+    // The index is only read lazily, hence validated here rather than when opening the archive.
+    if (offset < SketchArchiveFormat.HEADER_SIZE || length < 0 || offset + length > indexOffset) {
+      throw new MalformedInputException("The index entry of the sketch is invalid.");
+    }
+    final ByteBuffer encoded = buffer.asReadOnlyBuffer();
+    encoded.limit((int) (offset + length));
+    encoded.position((int) offset);
+    return encoded;
+  }
+
+  /**
+   * @param key the key of the sketch
+   * @param storeSupplier the supplier of the stores of the decoded sketch
+   * @return the decoded sketch, or {@code null} if the archive does not contain any sketch for the
+   *     key
+   * @throws IOException if the sketch is malformed
+   */
+  public DDSketch get(String key, Supplier<Store> storeSupplier) throws IOException {
+    final ByteBuffer encoded = getEncoded(key);
+    return encoded == null ? null : DDSketch.decode(ByteBufferInput.wrap(encoded), storeSupplier);
+  }
+
+  /**
+   * @param key the key of the sketch
+   * @return a view of the sketch that can be queried without decoding it, or {@code null} if the
+   *     archive does not contain any sketch for the key
+   * @throws IOException if the sketch is malformed
+   */
+  public EncodedDDSketchView getView(String key) throws IOException {
+    final ByteBuffer encoded = getEncoded(key);
+    return encoded == null ? null : EncodedDDSketchView.wrap(encoded);
+  }
+
+  /** @return the position of the index entry of the key, or a negative value if it is missing */
+  private int find(String key) throws MalformedInputException {
+    final byte[] encodedKey = SketchArchiveFormat.encodeKey(key);
+    int low = 0;
+    int high = numSketches - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int cmp = compareKey(mid, encodedKey);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareKey(int i, byte[] key) throws MalformedInputException {
+    final int keyOffset = keyOffset(i);
+    final int keyLength = keyLength(i);
+    final int length = Math.min(keyLength, key.length);
+    for (int j = 0; j < length; j++) {
+      final int cmp =
+          Integer.compare(
+              Byte.toUnsignedInt(buffer.get(keyOffset + j)), Byte.toUnsignedInt(key[j]));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(keyLength, key.length);
+  }
+
+  /**
+   * @return the offset of the key of the index entry, after checking that the key lies within the
+   *     key region of the archive, so that {@link #keyLength} can be trusted afterwards
+   */
+  private int keyOffset(int i) throws MalformedInputException {
+    final long keyOffset = buffer.getLong(entryPosition(i));
+    final int keyLength = keyLength(i);
+    if (keyOffset < keysOffset || keyLength < 0 || keyOffset + keyLength > indexOffset) {
+      throw new MalformedInputException("The index entry of the key is invalid.");
+    }
+    return (int) keyOffset;
+  }
+
+  private int keyLength(int i) {
+    return buffer.getInt(entryPosition(i) + SketchArchiveFormat.KEY_LENGTH_POSITION);
+  }
+
+  private int entryPosition(int i) {
+    return indexOffset + i * SketchArchiveFormat.INDEX_ENTRY_SIZE;
+  }
+}
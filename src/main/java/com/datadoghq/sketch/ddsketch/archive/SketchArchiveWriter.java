@@ -0,0 +1,150 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.archive;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes sketches to an archive file that can then be read with {@link SketchArchiveReader}. See
+ * {@link SketchArchiveFormat} for the layout of the file.
+ *
+ * <p>Sketches are encoded and written to the file as they are added, so that only their keys and
+ * offsets are held in memory. The index is written when the writer is closed, and the archive is
+ * not readable until then.
+ *
+ * <p>This class is not thread-safe.
+ */
+public final class SketchArchiveWriter implements Closeable {
+
+  private final FileChannel channel;
+  private final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+  private final List<Entry> entries = new ArrayList<>();
+  private final Set<String> keys = new HashSet<>();
+  private long position = SketchArchiveFormat.HEADER_SIZE;
+  private boolean closed = false;
+
+  private SketchArchiveWriter(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Creates a writer of an archive file, which is created if it does not exist, and truncated
+   * otherwise.
+   *
+   * @param path the path of the archive file
+   * @return a writer of the archive file
+   * @throws IOException if the file cannot be opened
+   */
+  public static SketchArchiveWriter create(Path path) throws IOException {
+    return new SketchArchiveWriter(
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE));
+  }
+
+  /**
+   * Adds a sketch to the archive.
+   *
+   * @param key the key the sketch can be looked up by
+   * @param sketch the sketch to add
+   * @throws IOException if an IO exception is thrown while writing the sketch
+   * @throws IllegalArgumentException if a sketch with the same key has already been added
+   * @throws IllegalStateException if the writer has been closed
+   */
+  public void add(String key, DDSketch sketch) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("The writer has been closed.");
+    }
+    if (!keys.add(key)) {
+      throw new IllegalArgumentException("A sketch with the same key has already been added.");
+    }
+    output.clear();
+    sketch.encode(output, false);
+    final int length = output.numWrittenBytes();
+    write(ByteBuffer.wrap(output.backingArray(), 0, length), position);
+    entries.add(new Entry(SketchArchiveFormat.encodeKey(key), position, length));
+    position += length;
+  }
+
+  /**
+   * Writes the keys and the index, completes the header and closes the file.
+   *
+   * @throws IOException if an IO exception is thrown while writing to the file
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      entries.sort((entry1, entry2) -> SketchArchiveFormat.compareKeys(entry1.key, entry2.key));
+
+      final long keysOffset = position;
+      for (final Entry entry : entries) {
+        write(ByteBuffer.wrap(entry.key), position);
+        position += entry.key.length;
+      }
+      final long indexOffset = position;
+
+      final ByteBuffer index =
+          ByteBuffer.allocate(SketchArchiveFormat.INDEX_ENTRY_SIZE * entries.size());
+      long keyOffset = keysOffset;
+      for (final Entry entry : entries) {
+        index.putLong(keyOffset);
+        index.putInt(entry.key.length);
+        index.putLong(entry.sketchOffset);
+        index.putInt(entry.sketchLength);
+        keyOffset += entry.key.length;
+      }
+      index.flip();
+      write(index, indexOffset);
+
+      final ByteBuffer header = ByteBuffer.allocate(SketchArchiveFormat.HEADER_SIZE);
+      header.put(SketchArchiveFormat.MAGIC);
+      header.putInt(SketchArchiveFormat.VERSION);
+      header.putInt(entries.size());
+      header.putLong(keysOffset);
+      header.putLong(indexOffset);
+      header.flip();
+      write(header, 0);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private void write(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset);
+    }
+  }
+
+  private static final class Entry {
+
+    private final byte[] key;
+    private final long sketchOffset;
+    private final int sketchLength;
+
+    private Entry(byte[] key, long sketchOffset, int sketchLength) {
+      this.key = key;
+      this.sketchOffset = sketchOffset;
+      this.sketchLength = sketchLength;
+    }
+  }
+}
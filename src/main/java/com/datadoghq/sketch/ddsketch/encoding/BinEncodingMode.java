@@ -55,7 +55,46 @@ public enum BinEncodingMode {
    *   <li>[varfloat64] count of N-th bin
    * </ul>
    */
-  CONTIGUOUS_COUNTS((byte) 3);
+  CONTIGUOUS_COUNTS((byte) 3),
+  /**
+   * Encodes N bins whose counts are non-negative integers, each one with its index and its count.
+   * Indexes are delta-encoded. This is similar to {@link #INDEX_DELTAS_AND_COUNTS}, but counts are
+   * encoded as varints, which is more space-efficient for most integer values.
+   *
+   * <p>Encoding format:
+   *
+   * <ul>
+   *   <li>[byte] flag
+   *   <li>[uvarint64] number of bins N
+   *   <li>[varint64] index of first bin
+   *   <li>[uvarint64] count of first bin
+   *   <li>[varint64] difference between the index of the second bin and the index of the first bin
+   *   <li>[uvarint64] count of second bin
+   *   <li>...
+   *   <li>[varint64] difference between the index of the N-th bin and the index of the (N-1)-th bin
+   *   <li>[uvarint64] count of N-th bin
+   * </ul>
+   */
+  INDEX_DELTAS_AND_VARINT_COUNTS((byte) 4),
+  /**
+   * Encodes N contiguous bins whose counts are non-negative integers, specifying the count of each
+   * one. This is similar to {@link #CONTIGUOUS_COUNTS}, but counts are encoded as varints, which is
+   * more space-efficient for most integer values.
+   *
+   * <p>Encoding format:
+   *
+   * <ul>
+   *   <li>[byte] flag
+   *   <li>[uvarint64] number of bins N
+   *   <li>[varint64] index of first bin
+   *   <li>[varint64] difference between two successive indexes
+   *   <li>[uvarint64] count of first bin
+   *   <li>[uvarint64] count of second bin
+   *   <li>...
+   *   <li>[uvarint64] count of N-th bin
+   * </ul>
+   */
+  CONTIGUOUS_VARINT_COUNTS((byte) 5);
 
   private final byte subFlag;
 
@@ -64,4 +64,12 @@ public final class ByteArrayInput implements Input {
     pos += 8;
     return value;
   }
+
+  @Override
+  public final void skipBytes(long numBytes) throws EOFException {
+    if (numBytes > endPos - pos) {
+      throw new EOFException();
+    }
+    pos += (int) numBytes;
+  }
 }
@@ -0,0 +1,59 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.encoding;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * An implementation of {@link Input} that is backed by a {@link ByteBuffer}. It reads the bytes
+ * between the position and the limit of the buffer, and advances its position accordingly.
+ */
+public final class ByteBufferInput implements Input {
+
+  private final ByteBuffer buffer;
+
+  private ByteBufferInput(ByteBuffer buffer) {
+    this.buffer = Objects.requireNonNull(buffer);
+  }
+
+  public static ByteBufferInput wrap(ByteBuffer buffer) {
+    return new ByteBufferInput(buffer);
+  }
+
+  @Override
+  public final boolean hasRemaining() {
+    return buffer.hasRemaining();
+  }
+
+  @Override
+  public final byte readByte() throws EOFException {
+    if (!buffer.hasRemaining()) {
+      throw new EOFException();
+    }
+    return buffer.get();
+  }
+
+  @Override
+  public final long readLongLE() throws IOException {
+    if (buffer.remaining() < 8) {
+      throw new EOFException();
+    }
+    final long value = buffer.getLong();
+    return ByteOrder.LITTLE_ENDIAN.equals(buffer.order()) ? value : Long.reverseBytes(value);
+  }
+
+  @Override
+  public final void skipBytes(long numBytes) throws EOFException {
+    if (numBytes > buffer.remaining()) {
+      throw new EOFException();
+    }
+    buffer.position(buffer.position() + (int) numBytes);
+  }
+}
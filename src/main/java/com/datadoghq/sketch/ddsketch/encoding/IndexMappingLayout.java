@@ -69,7 +69,34 @@ public enum IndexMappingLayout {
    *   <li>[float64LE] index offset
    * </ul>
    */
-  LOG_QUARTIC;
+  LOG_QUARTIC,
+  /**
+   * Encodes the index mapping that has one bucket per integer below a threshold and logarithmic
+   * buckets above it, specifying the base \(\gamma\) of the logarithmic buckets and the threshold.
+   *
+   * <p>Encoding format:
+   *
+   * <ul>
+   *   <li>[byte] flag
+   *   <li>[float64LE] gamma
+   *   <li>[float64LE] threshold, which is an integer
+   * </ul>
+   */
+  HYBRID_LINEAR_LOG,
+  /**
+   * Encodes the index mapping whose buckets are the ones of the OpenTelemetry exponential
+   * histograms at a given scale, specifying the base \(\gamma = 2^{2^{-scale}}\) and the scale.
+   * Contrary to the logarithmic index mapping, buckets include their upper bound.
+   *
+   * <p>Encoding format:
+   *
+   * <ul>
+   *   <li>[byte] flag
+   *   <li>[float64LE] gamma
+   *   <li>[float64LE] scale, which is an integer
+   * </ul>
+   */
+  BASE2_EXPONENTIAL;
 
   private final Flag flag;
 
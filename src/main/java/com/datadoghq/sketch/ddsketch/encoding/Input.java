@@ -40,4 +40,16 @@ public interface Input {
   default double readDoubleLE() throws IOException {
     return Double.longBitsToDouble(readLongLE());
   }
+
+  /**
+   * Skips the next bytes.
+   *
+   * @param numBytes the number of bytes to skip
+   * @throws java.io.EOFException iff there are fewer than {@code numBytes} remaining bytes to read
+   */
+  default void skipBytes(long numBytes) throws IOException {
+    for (long i = 0; i < numBytes; i++) {
+      readByte();
+    }
+  }
 }
@@ -139,6 +139,19 @@ public final class VarEncodingHelper {
     return UNSIGNED_VAR_LONG_LENGTHS[Long.numberOfLeadingZeros(zigZagEncode(value))];
   }
 
+  /**
+   * {@code isUnsignedVarLongEncodable} returns whether a {@code double} value is a non-negative
+   * integer that can be exactly encoded using {@link #encodeUnsignedVarLong(Output, long)} once
+   * cast to {@code long}.
+   *
+   * @param value the value to check
+   * @return {@code true} iff casting {@code value} to {@code long} does not lose any information
+   *     and the resulting value is non-negative
+   */
+  public static boolean isUnsignedVarLongEncodable(double value) {
+    return value >= 0 && value < 0x1p63 && (double) (long) value == value;
+  }
+
   private static long zigZagEncode(long value) {
     return value >> (64 - 1) ^ (value << 1);
   }
@@ -0,0 +1,242 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static com.datadoghq.sketch.ddsketch.Serializer.*;
+import static com.datadoghq.sketch.ddsketch.mapping.Interpolation.NONE;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import com.datadoghq.sketch.ddsketch.Serializer;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * An {@link IndexMapping} whose buckets are the ones of the OpenTelemetry exponential histograms at
+ * a given scale, so that the bins of sketches that use it can be exported as exponential histogram
+ * buckets without any conversion (see {@link
+ * com.datadoghq.sketch.ddsketch.store.ExponentialHistogramBuckets}).
+ *
+ * <p>At scale \(s\), the base of the buckets is \(\gamma = 2^{2^{-s}}\) and the bucket of index
+ * \(i\) is \(]\gamma^i, \gamma^{i+1}]\). Note that, as specified by OpenTelemetry, buckets include
+ * their upper bound rather than their lower bound. The index is computed as specified by
+ * OpenTelemetry: from the binary representation of the value for non-positive scales and for powers
+ * of two, and with {@link Math#log} of the significand of the value otherwise.
+ *
+ * <p>Buckets are logarithmically spaced, hence this mapping is memory-optimal for the discrete set
+ * of relative accuracies that scales define. It is encoded with its own layout, hence decoded into
+ * an equal mapping. However, as the protobuf index mapping message cannot describe it, it is
+ * serialized as a {@link LogarithmicMapping} with the same base, which defines the same buckets
+ * except for the bounds they include, and which is what it is deserialized into.
+ */
+public class Base2ExponentialMapping implements IndexMapping {
+
+  /** The lowest supported scale, below which the relative accuracy cannot be represented. */
+  public static final int MIN_SCALE = -5;
+
+  /** The highest supported scale, above which indexes overflow. */
+  public static final int MAX_SCALE = 20;
+
+  private static final double LOG_2 = Math.log(2);
+
+  private final int scale;
+
+  // Fields precomputed for performance.
+  private final double scaleFactor;
+  private final double inverseScaleFactor;
+  private final double relativeAccuracy;
+
+  /**
+   * @param scale the OpenTelemetry scale of the buckets, between {@link #MIN_SCALE} and {@link
+   *     #MAX_SCALE}
+   */
+  public Base2ExponentialMapping(int scale) {
+    if (scale < MIN_SCALE || scale > MAX_SCALE) {
+      throw new IllegalArgumentException(
+          "The scale must be between " + MIN_SCALE + " and " + MAX_SCALE + ".");
+    }
+    this.scale = scale;
+    this.scaleFactor = Math.scalb(1 / LOG_2, scale);
+    this.inverseScaleFactor = Math.scalb(LOG_2, -scale);
+    this.relativeAccuracy = relativeAccuracy(scale);
+  }
+
+  /**
+   * @param relativeAccuracy the relative accuracy that the mapping should guarantee
+   * @return the mapping with the lowest scale that guarantees {@code relativeAccuracy}
+   * @throws IllegalArgumentException if no supported scale guarantees {@code relativeAccuracy}
+   */
+  public static Base2ExponentialMapping ofRelativeAccuracy(double relativeAccuracy) {
+    LogLikeIndexMapping.requireValidRelativeAccuracy(relativeAccuracy);
+    // The base 2^(2^-scale) must be at most (1 + relativeAccuracy) / (1 - relativeAccuracy).
+    final double log2Gamma = Math.log1p(2 * relativeAccuracy / (1 - relativeAccuracy)) / LOG_2;
+    int scale = Math.max((int) Math.ceil(-Math.log(log2Gamma) / LOG_2), MIN_SCALE);
+    // Rounding errors matter if the requested relative accuracy is the one of a scale.
+    if (scale > MIN_SCALE && relativeAccuracy(scale - 1) <= relativeAccuracy) {
+      scale--;
+    } else if (relativeAccuracy(scale) > relativeAccuracy) {
+      scale++;
+    }
+    return new Base2ExponentialMapping(scale);
+  }
+
+  /**
+   * @param gamma the base of the buckets
+   * @param scale the scale of the buckets, which should be an integer
+   * @return the mapping with the specified scale
+   * @throws MalformedInputException if the scale is not a supported integer, or if it does not
+   *     match the base
+   */
+  static Base2ExponentialMapping ofGammaAndScale(double gamma, double scale)
+      throws MalformedInputException {
+    if (scale != (int) scale || scale < MIN_SCALE || scale > MAX_SCALE) {
+      throw new MalformedInputException("The scale is invalid.");
+    }
+    final Base2ExponentialMapping mapping = new Base2ExponentialMapping((int) scale);
+    if (Double.compare(mapping.gamma(), gamma) != 0) {
+      throw new MalformedInputException("The base does not match the scale.");
+    }
+    return mapping;
+  }
+
+  private static double relativeAccuracy(int scale) {
+    final double gamma = gamma(scale);
+    return (gamma - 1) / (gamma + 1);
+  }
+
+  private static double gamma(int scale) {
+    return Math.pow(2, Math.scalb(1.0, -scale));
+  }
+
+  /** @return the OpenTelemetry scale of the buckets */
+  public int scale() {
+    return scale;
+  }
+
+  @Override
+  public int index(double value) {
+    final long longBits = Double.doubleToRawLongBits(value);
+    final long exponent = DoubleBitOperationHelper.getExponent(longBits);
+    final boolean isPowerOfTwo = (longBits & DoubleBitOperationHelper.SIGNIFICAND_MASK) == 0;
+    if (scale <= 0) {
+      // Powers of two are the upper bounds of their buckets.
+      return (int) ((isPowerOfTwo ? exponent - 1 : exponent) >> -scale);
+    } else if (isPowerOfTwo) {
+      return (int) ((exponent << scale) - 1);
+    } else {
+      // The logarithm of the significand is computed separately for precision, and the index is
+      // clamped so that rounding errors cannot make it exceed the range of the exponent.
+      final double scaledLogSignificand =
+          Math.log(DoubleBitOperationHelper.getSignificandPlusOne(longBits)) * scaleFactor;
+      return (int)
+          ((exponent << scale)
+              + Math.min((long) Math.ceil(scaledLogSignificand) - 1, (1L << scale) - 1));
+    }
+  }
+
+  @Override
+  public double value(int index) {
+    return lowerBound(index) * (1 + relativeAccuracy);
+  }
+
+  @Override
+  public double lowerBound(int index) {
+    if (scale <= 0) {
+      return Math.scalb(1.0, index << -scale);
+    }
+    return Math.exp(index * inverseScaleFactor);
+  }
+
+  @Override
+  public double upperBound(int index) {
+    return lowerBound(index + 1);
+  }
+
+  @Override
+  public double relativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  @Override
+  public double minIndexableValue() {
+    return Double.MIN_NORMAL * (1 + relativeAccuracy) / (1 - relativeAccuracy);
+  }
+
+  @Override
+  public double maxIndexableValue() {
+    return Double.MAX_VALUE / (1 + relativeAccuracy);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Merging {@code 2^k} adjacent buckets amounts to lowering the scale by {@code k}, which is
+   * how OpenTelemetry downscales exponential histograms.
+   *
+   * @throws IllegalArgumentException if {@code factor} is not a power of two, or if the downsampled
+   *     scale would be less than {@link #MIN_SCALE}
+   */
+  @Override
+  public Base2ExponentialMapping downsample(int factor) {
+    if (factor < 1
+        || Integer.bitCount(factor) != 1
+        || scale - Integer.numberOfTrailingZeros(factor) < MIN_SCALE) {
+      throw new IllegalArgumentException(
+          "The downsampling factor must be a power of two that is not greater than "
+              + (1 << (scale - MIN_SCALE))
+              + ".");
+    }
+    if (factor == 1) {
+      return this;
+    }
+    return new Base2ExponentialMapping(scale - Integer.numberOfTrailingZeros(factor));
+  }
+
+  @Override
+  public void encode(Output output) throws IOException {
+    IndexMappingLayout.BASE2_EXPONENTIAL.toFlag().encode(output);
+    output.writeDoubleLE(gamma());
+    output.writeDoubleLE(scale);
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(Integer.BYTES + 3 * Double.BYTES);
+  }
+
+  @Override
+  public int serializedSize() {
+    return doubleFieldSize(1, gamma()) + fieldSize(3, NONE.ordinal());
+  }
+
+  @Override
+  public void serialize(Serializer serializer) {
+    serializer.writeDouble(1, gamma());
+    serializer.writeUnsignedInt32(3, NONE.ordinal());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return scale == ((Base2ExponentialMapping) o).scale;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(scale);
+  }
+
+  double gamma() {
+    return gamma(scale);
+  }
+}
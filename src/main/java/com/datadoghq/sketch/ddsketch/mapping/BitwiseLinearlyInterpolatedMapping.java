@@ -8,6 +8,7 @@ package com.datadoghq.sketch.ddsketch.mapping;
 import static com.datadoghq.sketch.ddsketch.Serializer.*;
 import static com.datadoghq.sketch.ddsketch.mapping.Interpolation.LINEAR;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.Serializer;
 import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
@@ -67,6 +68,16 @@ public class BitwiseLinearlyInterpolatedMapping implements IndexMapping {
             | getPartialSignificand(longBits));
   }
 
+  @Override
+  public int index(long value) {
+    final int numLeadingZeros = Long.numberOfLeadingZeros(value);
+    // The bits that follow the leading one bit, aligned to the left.
+    final long significand = value << numLeadingZeros << 1;
+    return (int)
+        (((long) (Long.SIZE - 1 - numLeadingZeros) << numSignificantBinaryDigits)
+            | significand >>> 1 >>> (Long.SIZE - 1 - numSignificantBinaryDigits));
+  }
+
   private long getPartialSignificand(long longBits) {
     return (longBits & DoubleBitOperationHelper.SIGNIFICAND_MASK) >> partialSignificandShift;
   }
@@ -107,6 +118,30 @@ public class BitwiseLinearlyInterpolatedMapping implements IndexMapping {
         Double.MAX_VALUE / (1 + relativeAccuracy));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>As the lowest bits of the index are the most significant bits of the significand, merging
+   * {@code 2^k} adjacent buckets amounts to dropping {@code k} significant binary digits.
+   *
+   * @throws IllegalArgumentException if {@code factor} is not a power of two, or if it is greater
+   *     than {@code 2^numSignificantBinaryDigits}
+   */
+  @Override
+  public BitwiseLinearlyInterpolatedMapping downsample(int factor) {
+    if (factor < 1 || Integer.bitCount(factor) != 1 || factor > multiplier) {
+      throw new IllegalArgumentException(
+          "The downsampling factor must be a power of two that is not greater than "
+              + multiplier
+              + ".");
+    }
+    if (factor == 1) {
+      return this;
+    }
+    return new BitwiseLinearlyInterpolatedMapping(
+        numSignificantBinaryDigits - Integer.numberOfTrailingZeros(factor));
+  }
+
   @Override
   public void encode(Output output) throws IOException {
     IndexMappingLayout.LOG_LINEAR.toFlag().encode(output);
@@ -114,6 +149,11 @@ public class BitwiseLinearlyInterpolatedMapping implements IndexMapping {
     output.writeDoubleLE(0);
   }
 
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(3 * Integer.BYTES + Double.BYTES);
+  }
+
   @Override
   public int serializedSize() {
     return doubleFieldSize(1, gamma()) + fieldSize(3, LINEAR.ordinal());
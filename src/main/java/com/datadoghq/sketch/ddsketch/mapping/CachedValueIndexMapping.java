@@ -0,0 +1,164 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import com.datadoghq.sketch.ddsketch.Serializer;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import java.io.IOException;
+
+/**
+ * An {@link IndexMapping} that decorates another one and precomputes {@link #value}, {@link
+ * #lowerBound} and {@link #upperBound} over a range of indexes, so that they are table lookups
+ * rather than evaluations of {@link Math#exp} or of the inverse of an interpolation polynomial. It
+ * is meant for sketches whose values are read far more often than they are written, for instance
+ * sketches whose sum, histogram or many quantiles are computed repeatedly (see {@link
+ * com.datadoghq.sketch.ddsketch.DDSketch#cacheValues()}).
+ *
+ * <p>The values and bounds are the ones of the decorated mapping, and indexes that are outside the
+ * cached range are delegated to it, so that this mapping behaves exactly as the decorated one. It
+ * is also encoded and serialized as the decorated mapping, and sketches that use it can be merged
+ * with sketches that use the decorated mapping. It is not equal to the decorated mapping though, as
+ * {@link #equals} could not be symmetric otherwise: mappings are to be compared with {@link
+ * #unwrap} to ignore the cache. The cache requires 16 bytes per index.
+ */
+public final class CachedValueIndexMapping implements IndexMapping {
+
+  private final IndexMapping mapping;
+  private final int minIndex;
+  private final int maxIndex;
+  private final double[] values;
+  // One more bound than values, so that the upper bound of maxIndex is cached as well.
+  private final double[] lowerBounds;
+
+  /**
+   * @param mapping the mapping to decorate
+   * @param minIndex the lowest index whose value and bounds are cached
+   * @param maxIndex the highest index whose value and bounds are cached
+   */
+  public CachedValueIndexMapping(IndexMapping mapping, int minIndex, int maxIndex) {
+    if (minIndex > maxIndex) {
+      throw new IllegalArgumentException("The minimum index cannot be greater than the maximum.");
+    }
+    if ((long) maxIndex - minIndex + 2 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("The index range is too wide to be cached.");
+    }
+    this.mapping = unwrap(mapping);
+    this.minIndex = minIndex;
+    this.maxIndex = maxIndex;
+    this.values = new double[maxIndex - minIndex + 1];
+    this.lowerBounds = new double[values.length + 1];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = this.mapping.value(minIndex + i);
+      lowerBounds[i] = this.mapping.lowerBound(minIndex + i);
+    }
+    lowerBounds[values.length] = this.mapping.upperBound(maxIndex);
+  }
+
+  /**
+   * @param mapping an index mapping
+   * @return the mapping that {@code mapping} decorates if it is a {@code CachedValueIndexMapping},
+   *     {@code mapping} itself otherwise
+   */
+  public static IndexMapping unwrap(IndexMapping mapping) {
+    return mapping instanceof CachedValueIndexMapping
+        ? ((CachedValueIndexMapping) mapping).mapping
+        : mapping;
+  }
+
+  /** @return the lowest index whose value and bounds are cached */
+  public int minCachedIndex() {
+    return minIndex;
+  }
+
+  /** @return the highest index whose value and bounds are cached */
+  public int maxCachedIndex() {
+    return maxIndex;
+  }
+
+  @Override
+  public int index(double value) {
+    return mapping.index(value);
+  }
+
+  @Override
+  public int index(long value) {
+    return mapping.index(value);
+  }
+
+  @Override
+  public double value(int index) {
+    if (index >= minIndex && index <= maxIndex) {
+      return values[index - minIndex];
+    }
+    return mapping.value(index);
+  }
+
+  @Override
+  public double lowerBound(int index) {
+    if (index >= minIndex && index <= maxIndex) {
+      return lowerBounds[index - minIndex];
+    }
+    return mapping.lowerBound(index);
+  }
+
+  @Override
+  public double upperBound(int index) {
+    if (index >= minIndex && index <= maxIndex) {
+      return lowerBounds[index - minIndex + 1];
+    }
+    return mapping.upperBound(index);
+  }
+
+  @Override
+  public double relativeAccuracy() {
+    return mapping.relativeAccuracy();
+  }
+
+  @Override
+  public double minIndexableValue() {
+    return mapping.minIndexableValue();
+  }
+
+  @Override
+  public double maxIndexableValue() {
+    return mapping.maxIndexableValue();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The returned mapping is not cached, unless {@code factor} is 1.
+   */
+  @Override
+  public IndexMapping downsample(int factor) {
+    return factor == 1 ? this : mapping.downsample(factor);
+  }
+
+  @Override
+  public void encode(Output output) throws IOException {
+    mapping.encode(output);
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(
+            3 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 2 * Integer.BYTES)
+        + MemoryFootprint.arraySizeInBytes(values.length, Double.BYTES)
+        + MemoryFootprint.arraySizeInBytes(lowerBounds.length, Double.BYTES)
+        + mapping.estimatedSizeInBytes();
+  }
+
+  @Override
+  public int serializedSize() {
+    return mapping.serializedSize();
+  }
+
+  @Override
+  public void serialize(Serializer serializer) {
+    mapping.serialize(serializer);
+  }
+}
@@ -121,6 +121,11 @@ public class CubicallyInterpolatedMapping extends LogLikeIndexMapping {
     return CORRECTING_FACTOR;
   }
 
+  @Override
+  CubicallyInterpolatedMapping withGamma(double gamma, double indexOffset) {
+    return new CubicallyInterpolatedMapping(gamma, indexOffset);
+  }
+
   @Override
   IndexMappingLayout layout() {
     return IndexMappingLayout.LOG_CUBIC;
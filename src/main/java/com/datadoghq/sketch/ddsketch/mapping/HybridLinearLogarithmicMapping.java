@@ -0,0 +1,167 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import com.datadoghq.sketch.ddsketch.Serializer;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * An {@link IndexMapping} that is meant for metrics whose values are mostly small integers, such as
+ * queue depths, retry counts or batch sizes. It has one bucket per integer below a threshold, and
+ * logarithmically-spaced buckets (the ones of {@link LogarithmicMapping}) above it.
+ *
+ * <p>The bucket of index {@code k}, where {@code 1 <= k < threshold}, covers the values that are
+ * between {@code k - 0.5} and {@code k + 0.5}, and its value is {@code k}. Therefore, integer
+ * values that are less than the threshold are mapped exactly, and quantiles of sketches that only
+ * contain such values are exact. Buckets of higher indexes cover the values that are greater than
+ * or equal to {@code threshold - 0.5} and guarantee {@link #relativeAccuracy()}. The relative
+ * accuracy of non-integer values that are less than the threshold is not guaranteed, and values
+ * that are not greater than {@code 0.5} ({@link #minIndexableValue()}) are counted as zeros by
+ * sketches.
+ *
+ * <p>When the threshold is less than about {@code 1 / relativeAccuracy}, this mapping requires
+ * fewer buckets than {@link LogarithmicMapping} to cover the same range of values, as the
+ * logarithmic buckets are narrower than one in that range.
+ *
+ * <p>This mapping cannot be serialized in protobuf, whose index mapping message cannot describe it.
+ */
+public class HybridLinearLogarithmicMapping implements IndexMapping {
+
+  private final double gamma;
+  private final int threshold;
+
+  // Fields precomputed for performance.
+  private final double linearUpperBound;
+  private final LogLikeIndexMapping logarithmicMapping;
+
+  /**
+   * @param relativeAccuracy the relative accuracy of the values that are greater than or equal to
+   *     {@code threshold - 0.5}
+   * @param threshold the integer below which each integer has its own bucket
+   */
+  public HybridLinearLogarithmicMapping(double relativeAccuracy, int threshold) {
+    this(new LogarithmicMapping(relativeAccuracy), threshold);
+  }
+
+  /**
+   * @param gamma the base of the logarithm that defines the logarithmic buckets
+   * @param threshold the integer below which each integer has its own bucket
+   */
+  static HybridLinearLogarithmicMapping ofGamma(double gamma, int threshold) {
+    return new HybridLinearLogarithmicMapping(new LogarithmicMapping(gamma, 0), threshold);
+  }
+
+  private HybridLinearLogarithmicMapping(LogarithmicMapping mapping, int threshold) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("The threshold must be at least 1.");
+    }
+    this.gamma = mapping.gamma();
+    this.threshold = threshold;
+    this.linearUpperBound = threshold - 0.5;
+    // Offset so that the bucket of index threshold starts exactly where the linear buckets end.
+    this.logarithmicMapping =
+        new LookupTableLogarithmicMapping(
+            gamma, threshold - Math.log(linearUpperBound) / Math.log(gamma));
+  }
+
+  @Override
+  public int index(double value) {
+    if (value < linearUpperBound) {
+      return (int) Math.round(value);
+    }
+    // Rounding errors could push the lowest values of the logarithmic range below the threshold.
+    return Math.max(logarithmicMapping.index(value), threshold);
+  }
+
+  @Override
+  public double value(int index) {
+    return index < threshold ? index : logarithmicMapping.value(index);
+  }
+
+  @Override
+  public double lowerBound(int index) {
+    if (index < threshold) {
+      return index - 0.5;
+    } else if (index == threshold) {
+      return linearUpperBound;
+    } else {
+      return logarithmicMapping.lowerBound(index);
+    }
+  }
+
+  @Override
+  public double upperBound(int index) {
+    return lowerBound(index + 1);
+  }
+
+  @Override
+  public double relativeAccuracy() {
+    return logarithmicMapping.relativeAccuracy();
+  }
+
+  @Override
+  public double minIndexableValue() {
+    return 0.5;
+  }
+
+  @Override
+  public double maxIndexableValue() {
+    return logarithmicMapping.maxIndexableValue();
+  }
+
+  public int threshold() {
+    return threshold;
+  }
+
+  @Override
+  public void encode(Output output) throws IOException {
+    IndexMappingLayout.HYBRID_LINEAR_LOG.toFlag().encode(output);
+    output.writeDoubleLE(gamma);
+    output.writeDoubleLE(threshold);
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(
+            2 * Double.BYTES + Integer.BYTES + MemoryFootprint.REFERENCE_SIZE_IN_BYTES)
+        + logarithmicMapping.estimatedSizeInBytes();
+  }
+
+  /** @throws UnsupportedOperationException always */
+  @Override
+  public int serializedSize() {
+    throw new UnsupportedOperationException(
+        "The hybrid linear-logarithmic mapping cannot be serialized in protobuf.");
+  }
+
+  /** @throws UnsupportedOperationException always */
+  @Override
+  public void serialize(Serializer serializer) {
+    throw new UnsupportedOperationException(
+        "The hybrid linear-logarithmic mapping cannot be serialized in protobuf.");
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final HybridLinearLogarithmicMapping that = (HybridLinearLogarithmicMapping) o;
+    return Double.compare(that.gamma, gamma) == 0 && threshold == that.threshold;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(gamma, threshold);
+  }
+}
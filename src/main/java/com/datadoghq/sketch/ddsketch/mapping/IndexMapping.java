@@ -5,6 +5,7 @@
 
 package com.datadoghq.sketch.ddsketch.mapping;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.Serializer;
 import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
 import com.datadoghq.sketch.ddsketch.encoding.Input;
@@ -92,11 +93,37 @@ import java.io.IOException;
  * Using a polynomial of higher degree (e.g., {@link QuarticallyInterpolatedMapping}) does not yield
  * a significant gain in memory space efficiency (less than 1%), while it degrades its insertion
  * speed to some extent.
+ *
+ * <p>{@link LookupTableLogarithmicMapping} defines the same buckets as {@link LogarithmicMapping},
+ * but computes the logarithm with a lookup table rather than with {@link Math#log}, which makes it
+ * faster while remaining memory-optimal, at the cost of a table of 16 KiB that is shared by all its
+ * instances.
+ *
+ * <p>{@link Base2ExponentialMapping} defines the buckets of the OpenTelemetry exponential
+ * histograms, which makes it possible to export sketches as such histograms without converting
+ * them.
  */
 public interface IndexMapping {
 
   int index(double value);
 
+  /**
+   * Computes the index of a {@code long} value. Mappings that can derive the index from the binary
+   * representation of the value override this method so as to compute the index with integer
+   * operations only.
+   *
+   * <p>The index is the one of the value itself, which may differ from the index of {@code (double)
+   * value} if the conversion rounds the value onto a bucket boundary, which can only happen for
+   * values that are greater than {@code 2^53}.
+   *
+   * @param value a positive value that is between {@link #minIndexableValue()} and {@link
+   *     #maxIndexableValue()}
+   * @return the index of the bucket that the value belongs to
+   */
+  default int index(long value) {
+    return index((double) value);
+  }
+
   double value(int index);
 
   double lowerBound(int index);
@@ -109,28 +136,69 @@ public interface IndexMapping {
 
   double maxIndexableValue();
 
+  /**
+   * Returns a coarser mapping whose buckets are the unions of {@code factor} adjacent buckets of
+   * this mapping, that is to say, such that for any indexable {@code value}, {@code
+   * downsample(factor).index(value) == Math.floorDiv(index(value), factor)}.
+   *
+   * <p>Contrary to {@link IndexMappingConverter}, which is required to convert sketches between
+   * arbitrary mappings, converting a sketch to a downsampled mapping (see {@link
+   * com.datadoghq.sketch.ddsketch.DDSketch#downsample(int)}) is exact, as the counts of the bins of
+   * the sketch only need to be summed with integer index arithmetic.
+   *
+   * @param factor the number of adjacent buckets of this mapping that are merged into a single
+   *     bucket of the returned mapping
+   * @return the downsampled mapping, which is this mapping if {@code factor} is 1
+   * @throws IllegalArgumentException if {@code factor} is not supported by this mapping
+   * @throws UnsupportedOperationException if this mapping cannot be downsampled
+   */
+  default IndexMapping downsample(int factor) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " does not support downsampling.");
+  }
+
+  /**
+   * Returns an estimate of the memory that this mapping uses, that is, of the total size of this
+   * mapping and of the objects that it holds (see {@link MemoryFootprint}). Tables that are shared
+   * by all the instances of a class are not accounted for.
+   *
+   * <p>The default implementation only accounts for the header of the object, and should be
+   * overridden by mappings that hold fields.
+   *
+   * @return the estimated size of this mapping, in bytes
+   */
+  default long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(0);
+  }
+
   void encode(Output output) throws IOException;
 
+  /**
+   * Decodes an index mapping. Decoded mappings are interned (see {@link IndexMappingRegistry}).
+   *
+   * @param input the input to read the parameters of the mapping from, after its flag
+   * @param layout the layout of the mapping, as given by its flag
+   * @return the canonical instance of the decoded mapping
+   * @throws IOException if an IO exception is thrown while reading from the {@code input}, or if
+   *     the encoded mapping is malformed
+   */
   static IndexMapping decode(Input input, IndexMappingLayout layout) throws IOException {
     final double gamma = input.readDoubleLE();
     final double indexOffset = input.readDoubleLE();
-    switch (layout) {
-      case LOG:
-        return new LogarithmicMapping(gamma, indexOffset);
-      case LOG_LINEAR:
-        return new LinearlyInterpolatedMapping(gamma, indexOffset);
-      case LOG_QUADRATIC:
-        return new QuadraticallyInterpolatedMapping(gamma, indexOffset);
-      case LOG_CUBIC:
-        return new CubicallyInterpolatedMapping(gamma, indexOffset);
-      case LOG_QUARTIC:
-        return new QuarticallyInterpolatedMapping(gamma, indexOffset);
-      default:
-        throw new IllegalStateException("The index mapping layout is not handled.");
-    }
+    return IndexMappingRegistry.get(layout, gamma, indexOffset);
   }
 
+  /**
+   * @return the size of this mapping when serialized in protobuf
+   * @throws UnsupportedOperationException if this mapping cannot be described by the protobuf index
+   *     mapping message
+   */
   int serializedSize();
 
+  /**
+   * @param serializer the serializer to write the protobuf index mapping message to
+   * @throws UnsupportedOperationException if this mapping cannot be described by the protobuf index
+   *     mapping message
+   */
   void serialize(Serializer serializer);
 }
@@ -7,8 +7,10 @@ package com.datadoghq.sketch.ddsketch.mapping;
 
 import com.datadoghq.sketch.ddsketch.store.Bin;
 import com.datadoghq.sketch.ddsketch.store.BinAcceptor;
+import com.datadoghq.sketch.ddsketch.store.BinCursor;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.List;
 
 /**
  * An interface for converting bins that have been encoded using an {@link IndexMapping} to bins
@@ -26,6 +28,24 @@ public interface IndexMappingConverter {
    */
   void convertAscendingIterator(Iterator<Bin> inBins, BinAcceptor outBins);
 
+  /**
+   * Converts bins, as {@link #convertAscendingIterator} does, but without requiring a {@link Bin}
+   * to be allocated for each of them (see {@link
+   * com.datadoghq.sketch.ddsketch.store.Store#getAscendingCursor()}).
+   *
+   * @param inBins an ascending cursor, that is, a cursor that moves over bins whose indexes are
+   *     sorted in ascending order
+   * @param outBins a consumer that is fed the converted bins
+   * @throws IllegalArgumentException if the provided cursor is not ascending
+   */
+  default void convertAscendingCursor(BinCursor inBins, BinAcceptor outBins) {
+    final List<Bin> bins = new ArrayList<>();
+    while (inBins.next()) {
+      bins.add(new Bin(inBins.getIndex(), inBins.getCount()));
+    }
+    convertAscendingIterator(bins.iterator(), outBins);
+  }
+
   /**
    * Returns a converter that uniformly distributes the count of a bin to the overlapping bins of
    * the new mapping based on the shares of the initial bin that the new bins cover.
@@ -78,67 +98,14 @@ public interface IndexMappingConverter {
    * The resulting value at quantile \(1\) (i.e., the maximum value) is shifted by \(\alpha_i\)
    * because of (1), an additional \(\alpha_i\) because of (2) and \(\alpha_o\) because of (3).
    *
+   * <p>Converters are cached per pair of mappings, so that calling this method repeatedly, for
+   * instance for each sketch that is merged, does not allocate.
+   *
    * @return a converter that uniformly distributes the count of a bin to the overlapping bins of
    *     the new mapping depending on the shares of the initial bin that the new bins cover
    */
   static IndexMappingConverter distributingUniformly(
       IndexMapping inMapping, IndexMapping outMapping) {
-    Objects.requireNonNull(inMapping);
-    Objects.requireNonNull(outMapping);
-    return (inBins, outBins) -> {
-      Integer inIndex = null;
-      int outIndex = Integer.MIN_VALUE;
-      double value = 0;
-      double outCount = 0;
-
-      while (inBins.hasNext()) {
-        final Bin inBin = inBins.next();
-
-        if (inIndex != null && inBin.getIndex() <= inIndex) {
-          throw new IllegalArgumentException("The bin iterator is not ascending.");
-        }
-        inIndex = inBin.getIndex();
-
-        final double inLowerBound = inMapping.lowerBound(inBin.getIndex());
-        final double inUpperBound = inMapping.upperBound(inBin.getIndex());
-
-        if (inLowerBound < value) {
-          throw new RuntimeException("The input mapping is invalid.");
-        }
-        value = inLowerBound;
-
-        final int newOutIndex = outMapping.index(value);
-        if (newOutIndex < outIndex) {
-          throw new RuntimeException("The output mapping is invalid.");
-        } else if (newOutIndex > outIndex && outCount != 0) {
-          outBins.accept(outIndex, outCount);
-          outCount = 0;
-        }
-        outIndex = newOutIndex;
-
-        // Allocate shares of the count of the current input bin to the overlapping bins of the
-        // output mapping whose upper bounds are still within the input bin.
-        double outUpperBound;
-        while ((outUpperBound = outMapping.upperBound(outIndex)) < inUpperBound) {
-          outCount += inBin.getCount() * (outUpperBound - value) / (inUpperBound - inLowerBound);
-          value = outUpperBound;
-          if (outCount != 0) {
-            outBins.accept(outIndex, outCount);
-            outCount = 0;
-          }
-          outIndex++;
-        }
-        // Allocate the remaining of the count of the current input bin to the rightmost overlapping
-        // bin. Do not transfer it to outBins just yet as other input bins may also overlap the
-        // output bin of index outIndex (we want to forward the whole resulting count at once).
-        outCount += inBin.getCount() * (inUpperBound - value) / (inUpperBound - inLowerBound);
-      }
-
-      // No other input bin overlaps the output bin of index outIndex. Forward its count to
-      // outBins.
-      if (outCount != 0) {
-        outBins.accept(outIndex, outCount);
-      }
-    };
+    return UniformlyDistributingConverter.of(inMapping, outMapping);
   }
 }
@@ -0,0 +1,141 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of canonical {@link IndexMapping} instances.
+ *
+ * <p>Mappings that are decoded with {@link IndexMapping#decode} are interned: decoding the same
+ * layout, gamma and index offset returns the same instance, so that decoded sketches share their
+ * index mapping rather than each holding its own, and so that checking whether two sketches can be
+ * merged usually amounts to comparing references. Mappings that are constructed directly can be
+ * interned as well with {@link #intern}, which is what {@link
+ * com.datadoghq.sketch.ddsketch.DDSketches} does.
+ *
+ * <p>The number of interned mappings is bounded, so that decoding arbitrary inputs cannot make the
+ * registry grow indefinitely. Once the bound is reached, mappings are returned without being
+ * interned, which is still correct as mappings are compared with {@link IndexMapping#equals} when
+ * they are not the same instance.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class IndexMappingRegistry {
+
+  static final int MAX_NUM_INTERNED_MAPPINGS = 1 << 10;
+
+  private static final Map<IndexMapping, IndexMapping> CANONICAL_MAPPINGS =
+      new ConcurrentHashMap<>();
+  private static final Map<Key, IndexMapping> DECODED_MAPPINGS = new ConcurrentHashMap<>();
+
+  private IndexMappingRegistry() {}
+
+  /**
+   * Mappings of different classes can be equal, for instance a {@link
+   * LookupTableLogarithmicMapping} and the {@link LogarithmicMapping} with the same parameters. The
+   * canonical instance is only returned if it is of the same class as {@code mapping}, so that
+   * interning a mapping does not change how indexes are computed.
+   *
+   * @param mapping an index mapping
+   * @return the canonical instance that is equal to {@code mapping}, which is {@code mapping}
+   *     itself if no equal mapping of the same class has been interned before
+   */
+  public static IndexMapping intern(IndexMapping mapping) {
+    final IndexMapping canonicalMapping = CANONICAL_MAPPINGS.get(mapping);
+    if (canonicalMapping != null) {
+      return canonicalMapping.getClass() == mapping.getClass() ? canonicalMapping : mapping;
+    }
+    if (CANONICAL_MAPPINGS.size() >= MAX_NUM_INTERNED_MAPPINGS) {
+      return mapping;
+    }
+    final IndexMapping previousMapping = CANONICAL_MAPPINGS.putIfAbsent(mapping, mapping);
+    return previousMapping != null && previousMapping.getClass() == mapping.getClass()
+        ? previousMapping
+        : mapping;
+  }
+
+  /**
+   * @return the canonical mapping that is encoded with the specified layout and parameters
+   * @throws MalformedInputException if the parameters are not valid for the layout
+   */
+  static IndexMapping get(IndexMappingLayout layout, double gamma, double indexOffset)
+      throws MalformedInputException {
+    final Key key = new Key(layout, gamma, indexOffset);
+    final IndexMapping decodedMapping = DECODED_MAPPINGS.get(key);
+    if (decodedMapping != null) {
+      return decodedMapping;
+    }
+    final IndexMapping mapping = intern(create(layout, gamma, indexOffset));
+    if (DECODED_MAPPINGS.size() < MAX_NUM_INTERNED_MAPPINGS) {
+      DECODED_MAPPINGS.putIfAbsent(key, mapping);
+    }
+    return mapping;
+  }
+
+  private static IndexMapping create(IndexMappingLayout layout, double gamma, double indexOffset)
+      throws MalformedInputException {
+    switch (layout) {
+      case LOG:
+        return new LogarithmicMapping(gamma, indexOffset);
+      case LOG_LINEAR:
+        return new LinearlyInterpolatedMapping(gamma, indexOffset);
+      case LOG_QUADRATIC:
+        return new QuadraticallyInterpolatedMapping(gamma, indexOffset);
+      case LOG_CUBIC:
+        return new CubicallyInterpolatedMapping(gamma, indexOffset);
+      case LOG_QUARTIC:
+        return new QuarticallyInterpolatedMapping(gamma, indexOffset);
+      case HYBRID_LINEAR_LOG:
+        // The second field is the threshold rather than an index offset.
+        if (indexOffset != (int) indexOffset) {
+          throw new MalformedInputException("The threshold is not an integer.");
+        }
+        return HybridLinearLogarithmicMapping.ofGamma(gamma, (int) indexOffset);
+      case BASE2_EXPONENTIAL:
+        // The second field is the scale rather than an index offset.
+        return Base2ExponentialMapping.ofGammaAndScale(gamma, indexOffset);
+      default:
+        throw new IllegalStateException("The index mapping layout is not handled.");
+    }
+  }
+
+  private static final class Key {
+
+    private final IndexMappingLayout layout;
+    private final double gamma;
+    private final double indexOffset;
+
+    private Key(IndexMappingLayout layout, double gamma, double indexOffset) {
+      this.layout = layout;
+      this.gamma = gamma;
+      this.indexOffset = indexOffset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return layout == key.layout
+          && Double.compare(gamma, key.gamma) == 0
+          && Double.compare(indexOffset, key.indexOffset) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(layout, gamma, indexOffset);
+    }
+  }
+}
@@ -63,6 +63,11 @@ public class LinearlyInterpolatedMapping extends LogLikeIndexMapping {
     return CORRECTING_FACTOR;
   }
 
+  @Override
+  LinearlyInterpolatedMapping withGamma(double gamma, double indexOffset) {
+    return new LinearlyInterpolatedMapping(gamma, indexOffset);
+  }
+
   @Override
   IndexMappingLayout layout() {
     return IndexMappingLayout.LOG_LINEAR;
@@ -7,6 +7,7 @@ package com.datadoghq.sketch.ddsketch.mapping;
 
 import static com.datadoghq.sketch.ddsketch.Serializer.*;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.Serializer;
 import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
@@ -109,6 +110,12 @@ abstract class LogLikeIndexMapping implements IndexMapping {
    */
   abstract double correctingFactor();
 
+  /**
+   * @return a mapping of the same class as this one, with the specified parameters (see {@link
+   *     #LogLikeIndexMapping(double, double)})
+   */
+  abstract LogLikeIndexMapping withGamma(double gamma, double indexOffset);
+
   @Override
   public final int index(double value) {
     final double index = log(value) * multiplier + indexOffset;
@@ -155,22 +162,45 @@ abstract class LogLikeIndexMapping implements IndexMapping {
         Double.MAX_VALUE / (1 + relativeAccuracy));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>As the index is the floor value of {@code log(value)} to the base {@code gamma}, shifted by
+   * {@code indexOffset}, the downsampled mapping has the base {@code gamma^factor} and the index
+   * offset {@code indexOffset / factor}.
+   *
+   * @throws IllegalArgumentException if {@code factor} is less than 1
+   */
+  @Override
+  public LogLikeIndexMapping downsample(int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("The downsampling factor must be at least 1.");
+    }
+    if (factor == 1) {
+      return this;
+    }
+    return withGamma(Math.pow(gamma, factor), indexOffset / factor);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
       return true;
     }
-    if (o == null || getClass() != o.getClass()) {
+    // Mappings are equal if they are encoded the same way, whatever their classes, so that a
+    // sketch can be merged with its own decoded copy.
+    if (!(o instanceof LogLikeIndexMapping)) {
       return false;
     }
     final LogLikeIndexMapping that = (LogLikeIndexMapping) o;
-    return Double.compare(that.gamma, gamma) == 0
+    return that.layout() == layout()
+        && Double.compare(that.gamma, gamma) == 0
         && Double.compare(that.indexOffset, indexOffset) == 0;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(gamma, indexOffset);
+    return Objects.hash(layout(), gamma, indexOffset);
   }
 
   abstract IndexMappingLayout layout();
@@ -184,6 +214,11 @@ abstract class LogLikeIndexMapping implements IndexMapping {
 
   abstract Interpolation interpolation();
 
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(4 * Double.BYTES);
+  }
+
   @Override
   public int serializedSize() {
     return doubleFieldSize(1, gamma)
@@ -45,6 +45,11 @@ public class LogarithmicMapping extends LogLikeIndexMapping {
     return 1;
   }
 
+  @Override
+  LogarithmicMapping withGamma(double gamma, double indexOffset) {
+    return new LogarithmicMapping(gamma, indexOffset);
+  }
+
   @Override
   IndexMappingLayout layout() {
     return IndexMappingLayout.LOG;
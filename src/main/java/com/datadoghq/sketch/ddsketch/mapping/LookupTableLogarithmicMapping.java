@@ -0,0 +1,76 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+/**
+ * A {@link LogarithmicMapping} that computes the logarithm with a lookup table rather than with
+ * {@link Math#log}. It defines the same buckets as {@link LogarithmicMapping}, hence it is
+ * memory-optimal, while computing indexes at a rate that is closer to the one of the interpolated
+ * mappings.
+ *
+ * <p>Writing \(x = 2^e m\), where \(e\) is an integer and \(1 \leq m \lt 2\), the exponent \(e\)
+ * and the top bits of the significand \(m\) are extracted from the binary representation of \(x\).
+ * The top bits of the significand select a precomputed entry of the table, namely the logarithm of
+ * the center \(c\) of the subinterval of \([1, 2[\) that they define, as well as its inverse. The
+ * logarithm is then \(e \log 2 + \log c + \log(1 + r)\), where \(r = m / c - 1\) is small enough
+ * for a short series expansion of \(\log(1 + r)\) to be as accurate as {@link Math#log}. As a
+ * consequence, this mapping and {@link LogarithmicMapping} assign the same index to any value,
+ * except possibly for values that are within a few ulps of the boundaries of the buckets.
+ *
+ * <p>The table holds {@code 2 * 2^10} doubles and is shared by all the instances of this class.
+ *
+ * <p>This mapping is encoded and serialized as a {@link LogarithmicMapping}, which is what it is
+ * decoded and deserialized into, and it is equal to the {@link LogarithmicMapping} with the same
+ * parameters, so that sketches that use either of them can be merged with each other.
+ */
+public class LookupTableLogarithmicMapping extends LogarithmicMapping {
+
+  // log(2) split into a high part whose product with any exponent is exact and a low part.
+  private static final double LOG_2_HIGH = 6.93147180369123816490e-01;
+  private static final double LOG_2_LOW = 1.90821492927058770002e-10;
+
+  private static final int TABLE_BITS = 10;
+  private static final int TABLE_SHIFT =
+      DoubleBitOperationHelper.SIGNIFICAND_WIDTH - 1 - TABLE_BITS;
+
+  // The logarithms of the centers of the subintervals of [1, 2[, and the inverses of the centers.
+  private static final double[] LOG_CENTERS = new double[1 << TABLE_BITS];
+  private static final double[] INVERSE_CENTERS = new double[1 << TABLE_BITS];
+
+  static {
+    for (int i = 0; i < LOG_CENTERS.length; i++) {
+      final double center = 1 + (i + 0.5) / LOG_CENTERS.length;
+      LOG_CENTERS[i] = Math.log(center);
+      INVERSE_CENTERS[i] = 1 / center;
+    }
+  }
+
+  public LookupTableLogarithmicMapping(double relativeAccuracy) {
+    super(relativeAccuracy);
+  }
+
+  /** {@inheritDoc} */
+  LookupTableLogarithmicMapping(double gamma, double indexOffset) {
+    super(gamma, indexOffset);
+  }
+
+  @Override
+  double log(double value) {
+    final long longBits = Double.doubleToRawLongBits(value);
+    final long exponent = DoubleBitOperationHelper.getExponent(longBits);
+    final int i = (int) ((longBits & DoubleBitOperationHelper.SIGNIFICAND_MASK) >>> TABLE_SHIFT);
+    // |r| <= 2^-(TABLE_BITS+1), so that the truncation error of the series is less than 2^-57.
+    final double r =
+        DoubleBitOperationHelper.getSignificandPlusOne(longBits) * INVERSE_CENTERS[i] - 1;
+    final double log1pR = r * (1 + r * (-1.0 / 2 + r * (1.0 / 3 + r * (-1.0 / 4))));
+    return exponent * LOG_2_HIGH + (LOG_CENTERS[i] + log1pR + exponent * LOG_2_LOW);
+  }
+
+  @Override
+  LookupTableLogarithmicMapping withGamma(double gamma, double indexOffset) {
+    return new LookupTableLogarithmicMapping(gamma, indexOffset);
+  }
+}
@@ -54,6 +54,11 @@ public class QuadraticallyInterpolatedMapping extends LogLikeIndexMapping {
     return CORRECTING_FACTOR;
   }
 
+  @Override
+  QuadraticallyInterpolatedMapping withGamma(double gamma, double indexOffset) {
+    return new QuadraticallyInterpolatedMapping(gamma, indexOffset);
+  }
+
   @Override
   IndexMappingLayout layout() {
     return IndexMappingLayout.LOG_QUADRATIC;
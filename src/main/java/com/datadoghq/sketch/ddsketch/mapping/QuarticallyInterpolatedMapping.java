@@ -73,6 +73,11 @@ public class QuarticallyInterpolatedMapping extends LogLikeIndexMapping {
     return CORRECTING_FACTOR;
   }
 
+  @Override
+  QuarticallyInterpolatedMapping withGamma(double gamma, double indexOffset) {
+    return new QuarticallyInterpolatedMapping(gamma, indexOffset);
+  }
+
   @Override
   IndexMappingLayout layout() {
     return IndexMappingLayout.LOG_QUARTIC;
@@ -0,0 +1,154 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import com.datadoghq.sketch.ddsketch.store.Bin;
+import com.datadoghq.sketch.ddsketch.store.BinAcceptor;
+import com.datadoghq.sketch.ddsketch.store.BinCursor;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** See {@link IndexMappingConverter#distributingUniformly(IndexMapping, IndexMapping)}. */
+final class UniformlyDistributingConverter implements IndexMappingConverter {
+
+  static final int MAX_NUM_CACHED_CONVERTERS = 1 << 10;
+
+  private static final Map<Key, UniformlyDistributingConverter> CONVERTERS =
+      new ConcurrentHashMap<>();
+
+  private final IndexMapping inMapping;
+  private final IndexMapping outMapping;
+
+  private UniformlyDistributingConverter(IndexMapping inMapping, IndexMapping outMapping) {
+    this.inMapping = inMapping;
+    this.outMapping = outMapping;
+  }
+
+  static UniformlyDistributingConverter of(IndexMapping inMapping, IndexMapping outMapping) {
+    // Mappings are unwrapped so that the cache does not hold on to the tables of cached values.
+    final Key key =
+        new Key(
+            CachedValueIndexMapping.unwrap(Objects.requireNonNull(inMapping)),
+            CachedValueIndexMapping.unwrap(Objects.requireNonNull(outMapping)));
+    final UniformlyDistributingConverter cachedConverter = CONVERTERS.get(key);
+    if (cachedConverter != null) {
+      return cachedConverter;
+    }
+    final UniformlyDistributingConverter converter =
+        new UniformlyDistributingConverter(key.inMapping, key.outMapping);
+    if (CONVERTERS.size() >= MAX_NUM_CACHED_CONVERTERS) {
+      return converter;
+    }
+    final UniformlyDistributingConverter previousConverter = CONVERTERS.putIfAbsent(key, converter);
+    return previousConverter != null ? previousConverter : converter;
+  }
+
+  @Override
+  public void convertAscendingIterator(Iterator<Bin> inBins, BinAcceptor outBins) {
+    convertAscendingCursor(BinCursor.of(inBins), outBins);
+  }
+
+  @Override
+  public void convertAscendingCursor(BinCursor inBins, BinAcceptor outBins) {
+    boolean isFirstBin = true;
+    int inIndex = 0;
+    double inUpperBound = 0;
+    int outIndex = Integer.MIN_VALUE;
+    double outUpperBound = 0;
+    double value = 0;
+    double outCount = 0;
+
+    while (inBins.next()) {
+      final int newInIndex = inBins.getIndex();
+      final double inCount = inBins.getCount();
+
+      if (!isFirstBin && newInIndex <= inIndex) {
+        throw new IllegalArgumentException("The bin iterator is not ascending.");
+      }
+      // Contiguous bins share their bounds, which spares evaluating the mappings again.
+      final boolean isContiguous = !isFirstBin && newInIndex == inIndex + 1;
+      isFirstBin = false;
+      inIndex = newInIndex;
+
+      final double inLowerBound = isContiguous ? inUpperBound : inMapping.lowerBound(inIndex);
+      inUpperBound = inMapping.upperBound(inIndex);
+      final double inWidth = inUpperBound - inLowerBound;
+
+      if (inLowerBound < value) {
+        throw new RuntimeException("The input mapping is invalid.");
+      }
+      value = inLowerBound;
+
+      // If the bins are contiguous, the output bin of index outIndex spans the lower bound of the
+      // current input bin, which only needs to be indexed if it is a bound of the output bin.
+      final int newOutIndex =
+          isContiguous && value < outUpperBound ? outIndex : outMapping.index(value);
+      if (newOutIndex < outIndex) {
+        throw new RuntimeException("The output mapping is invalid.");
+      } else if (newOutIndex > outIndex) {
+        if (outCount != 0) {
+          outBins.accept(outIndex, outCount);
+          outCount = 0;
+        }
+        outIndex = newOutIndex;
+        outUpperBound = outMapping.upperBound(outIndex);
+      }
+
+      // Allocate shares of the count of the current input bin to the overlapping bins of the
+      // output mapping whose upper bounds are still within the input bin.
+      while (outUpperBound < inUpperBound) {
+        outCount += inCount * (outUpperBound - value) / inWidth;
+        value = outUpperBound;
+        if (outCount != 0) {
+          outBins.accept(outIndex, outCount);
+          outCount = 0;
+        }
+        outIndex++;
+        outUpperBound = outMapping.upperBound(outIndex);
+      }
+      // Allocate the remaining of the count of the current input bin to the rightmost overlapping
+      // bin. Do not transfer it to outBins just yet as other input bins may also overlap the
+      // output bin of index outIndex (we want to forward the whole resulting count at once).
+      outCount += inCount * (inUpperBound - value) / inWidth;
+    }
+
+    // No other input bin overlaps the output bin of index outIndex. Forward its count to
+    // outBins.
+    if (outCount != 0) {
+      outBins.accept(outIndex, outCount);
+    }
+  }
+
+  private static final class Key {
+
+    private final IndexMapping inMapping;
+    private final IndexMapping outMapping;
+
+    private Key(IndexMapping inMapping, IndexMapping outMapping) {
+      this.inMapping = inMapping;
+      this.outMapping = outMapping;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return inMapping.equals(key.inMapping) && outMapping.equals(key.outMapping);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(inMapping, outMapping);
+    }
+  }
+}
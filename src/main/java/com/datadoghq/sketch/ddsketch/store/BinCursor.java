@@ -0,0 +1,65 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import java.util.Iterator;
+
+/**
+ * A cursor over bins, which, unlike an {@link Iterator} of {@link Bin}, does not allocate an object
+ * per bin. It is initially positioned before the first bin and is meant to be used as follows:
+ *
+ * <pre>
+ * while (cursor.next()) {
+ *   process(cursor.getIndex(), cursor.getCount());
+ * }
+ * </pre>
+ */
+public interface BinCursor {
+
+  /**
+   * Moves the cursor to the next bin.
+   *
+   * @return {@code true} if the cursor is positioned on a bin, {@code false} if there are no more
+   *     bins
+   */
+  boolean next();
+
+  /** @return the index of the bin that the cursor is positioned on */
+  int getIndex();
+
+  /** @return the count of the bin that the cursor is positioned on */
+  double getCount();
+
+  /**
+   * @param bins an iterator of bins
+   * @return a cursor over the bins that {@code bins} returns
+   */
+  static BinCursor of(Iterator<Bin> bins) {
+    return new BinCursor() {
+
+      private Bin bin;
+
+      @Override
+      public boolean next() {
+        if (!bins.hasNext()) {
+          return false;
+        }
+        bin = bins.next();
+        return true;
+      }
+
+      @Override
+      public int getIndex() {
+        return bin.getIndex();
+      }
+
+      @Override
+      public double getCount() {
+        return bin.getCount();
+      }
+    };
+  }
+}
@@ -0,0 +1,337 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the non-empty bins of one or more arrays of counts (the segments) by splitting them into
+ * runs of bins and encoding each run with the {@link BinEncodingMode} that is the most compact for
+ * it.
+ *
+ * <p>Runs are built greedily: starting from maximal sequences of contiguous non-empty bins, a run
+ * is merged with the next one if encoding them as a single run takes fewer bytes than encoding them
+ * separately. The encoded lengths of the candidate encoding modes are computed with the {@code
+ * *EncodedLength} methods of {@link VarEncodingHelper}, without actually encoding anything. If
+ * encoding all bins as a single run happens to be more compact than the outcome of the greedy
+ * process, that is what is done instead.
+ *
+ * <p>Segments must be added in ascending order of indexes and must not overlap. Empty bins of the
+ * segments, and therefore empty segments, are ignored.
+ */
+final class BinRunEncoder {
+
+  private static final long EMPTY_BIN_VAR_DOUBLE_ENCODED_LENGTH =
+      VarEncodingHelper.varDoubleEncodedLength(0);
+  private static final long EMPTY_BIN_VAR_LONG_ENCODED_LENGTH =
+      VarEncodingHelper.unsignedVarLongEncodedLength(0);
+
+  private final List<Segment> segments = new ArrayList<>();
+
+  // Cursor over the non-empty bins of the segments.
+  private int segmentIndex;
+  private int arrayIndex;
+  private long binIndex;
+  private double binCount;
+
+  /**
+   * Adds a segment of bins to be encoded.
+   *
+   * @param counts the array that holds the counts of the segment
+   * @param fromArrayIndex the array index of the first bin of the segment (inclusive)
+   * @param toArrayIndex the array index of the last bin of the segment (inclusive)
+   * @param firstIndex the index of the first bin of the segment
+   */
+  void addSegment(double[] counts, int fromArrayIndex, int toArrayIndex, int firstIndex) {
+    segments.add(new Segment(counts, fromArrayIndex, toArrayIndex, firstIndex));
+  }
+
+  void encode(Output output, Flag.Type storeFlagType) throws IOException {
+    final List<Run> runs = new ArrayList<>();
+    Run all = null;
+    Run current = null;
+    Run contiguous = null;
+    resetCursor();
+    while (advanceCursor()) {
+      if (contiguous != null && binIndex == contiguous.lastIndex + 1) {
+        contiguous.append(binIndex, binCount);
+        continue;
+      }
+      if (contiguous != null) {
+        current = mergeOrFlush(runs, current, contiguous);
+        all = all == null ? contiguous : all.mergedWith(contiguous);
+      }
+      contiguous = new Run(binIndex, binCount);
+    }
+    if (contiguous == null) {
+      return;
+    }
+    current = mergeOrFlush(runs, current, contiguous);
+    all = all == null ? contiguous : all.mergedWith(contiguous);
+    runs.add(current);
+
+    long totalEncodedLength = 0;
+    for (final Run run : runs) {
+      totalEncodedLength += run.encodedLength();
+    }
+    resetCursor();
+    if (all.encodedLength() <= totalEncodedLength) {
+      encode(output, storeFlagType, all);
+    } else {
+      for (final Run run : runs) {
+        encode(output, storeFlagType, run);
+      }
+    }
+  }
+
+  private static Run mergeOrFlush(List<Run> runs, Run current, Run next) {
+    if (current == null) {
+      return next;
+    }
+    final Run merged = current.mergedWith(next);
+    if (merged.encodedLength() <= current.encodedLength() + next.encodedLength()) {
+      return merged;
+    }
+    runs.add(current);
+    return next;
+  }
+
+  private void encode(Output output, Flag.Type storeFlagType, Run run) throws IOException {
+    final BinEncodingMode encodingMode = run.encodingMode();
+    encodingMode.toFlag(storeFlagType).encode(output);
+    switch (encodingMode) {
+      case CONTIGUOUS_COUNTS:
+      case CONTIGUOUS_VARINT_COUNTS:
+        {
+          final boolean varLongCounts = encodingMode == BinEncodingMode.CONTIGUOUS_VARINT_COUNTS;
+          VarEncodingHelper.encodeUnsignedVarLong(output, run.numSlots());
+          VarEncodingHelper.encodeSignedVarLong(output, run.firstIndex);
+          VarEncodingHelper.encodeSignedVarLong(output, 1);
+          long nextIndex = run.firstIndex;
+          for (long i = 0; i < run.numNonEmptyBins; i++) {
+            advanceCursor();
+            for (; nextIndex < binIndex; nextIndex++) {
+              encodeCount(output, 0, varLongCounts);
+            }
+            encodeCount(output, binCount, varLongCounts);
+            nextIndex++;
+          }
+        }
+        break;
+      case INDEX_DELTAS_AND_COUNTS:
+      case INDEX_DELTAS_AND_VARINT_COUNTS:
+      case INDEX_DELTAS:
+        {
+          VarEncodingHelper.encodeUnsignedVarLong(output, run.numNonEmptyBins);
+          long previousIndex = 0;
+          for (long i = 0; i < run.numNonEmptyBins; i++) {
+            advanceCursor();
+            VarEncodingHelper.encodeSignedVarLong(output, binIndex - previousIndex);
+            if (encodingMode == BinEncodingMode.INDEX_DELTAS_AND_COUNTS) {
+              VarEncodingHelper.encodeVarDouble(output, binCount);
+            } else if (encodingMode == BinEncodingMode.INDEX_DELTAS_AND_VARINT_COUNTS) {
+              VarEncodingHelper.encodeUnsignedVarLong(output, (long) binCount);
+            }
+            previousIndex = binIndex;
+          }
+        }
+        break;
+      default:
+        throw new IllegalStateException("The bin encoding mode is not handled.");
+    }
+  }
+
+  private static void encodeCount(Output output, double count, boolean varLongCount)
+      throws IOException {
+    if (varLongCount) {
+      VarEncodingHelper.encodeUnsignedVarLong(output, (long) count);
+    } else {
+      VarEncodingHelper.encodeVarDouble(output, count);
+    }
+  }
+
+  private void resetCursor() {
+    segmentIndex = 0;
+    arrayIndex = segments.isEmpty() ? 0 : segments.get(0).fromArrayIndex;
+  }
+
+  /**
+   * Moves the cursor to the next non-empty bin, whose index and count are then held by {@code
+   * binIndex} and {@code binCount}.
+   *
+   * @return {@code true} iff there was a next non-empty bin
+   */
+  private boolean advanceCursor() {
+    for (; segmentIndex < segments.size(); segmentIndex++) {
+      final Segment segment = segments.get(segmentIndex);
+      if (arrayIndex < segment.fromArrayIndex) {
+        arrayIndex = segment.fromArrayIndex;
+      }
+      for (; arrayIndex <= segment.toArrayIndex; arrayIndex++) {
+        final double count = segment.counts[arrayIndex];
+        if (count != 0) {
+          binIndex = (long) segment.firstIndex + (arrayIndex - segment.fromArrayIndex);
+          binCount = count;
+          arrayIndex++;
+          return true;
+        }
+      }
+      arrayIndex = Integer.MIN_VALUE;
+    }
+    return false;
+  }
+
+  private static final class Segment {
+
+    private final double[] counts;
+    private final int fromArrayIndex;
+    private final int toArrayIndex;
+    private final int firstIndex;
+
+    private Segment(double[] counts, int fromArrayIndex, int toArrayIndex, int firstIndex) {
+      this.counts = counts;
+      this.fromArrayIndex = fromArrayIndex;
+      this.toArrayIndex = toArrayIndex;
+      this.firstIndex = firstIndex;
+    }
+  }
+
+  /**
+   * The summary of a run of bins, from which the encoded lengths of the run with the various
+   * encoding modes can be computed.
+   */
+  private static final class Run {
+
+    private final long firstIndex;
+    private long lastIndex;
+    private long numNonEmptyBins;
+    // The sum of the encoded lengths of the differences between the indexes of successive non-empty
+    // bins (which excludes the index of the first bin).
+    private long indexDeltasEncodedLength;
+    private long varDoubleCountsEncodedLength;
+    private long varLongCountsEncodedLength;
+    private boolean integralCounts;
+    private boolean unitCounts;
+
+    private Run(long index, double count) {
+      this.firstIndex = index;
+      this.lastIndex = index;
+      this.numNonEmptyBins = 0;
+      this.indexDeltasEncodedLength = 0;
+      this.varDoubleCountsEncodedLength = 0;
+      this.varLongCountsEncodedLength = 0;
+      this.integralCounts = true;
+      this.unitCounts = true;
+      addCount(count);
+    }
+
+    private Run(Run first, Run second) {
+      this.firstIndex = first.firstIndex;
+      this.lastIndex = second.lastIndex;
+      this.numNonEmptyBins = first.numNonEmptyBins + second.numNonEmptyBins;
+      this.indexDeltasEncodedLength =
+          first.indexDeltasEncodedLength
+              + VarEncodingHelper.signedVarLongEncodedLength(second.firstIndex - first.lastIndex)
+              + second.indexDeltasEncodedLength;
+      this.varDoubleCountsEncodedLength =
+          first.varDoubleCountsEncodedLength + second.varDoubleCountsEncodedLength;
+      this.varLongCountsEncodedLength =
+          first.varLongCountsEncodedLength + second.varLongCountsEncodedLength;
+      this.integralCounts = first.integralCounts && second.integralCounts;
+      this.unitCounts = first.unitCounts && second.unitCounts;
+    }
+
+    private void append(long index, double count) {
+      indexDeltasEncodedLength += VarEncodingHelper.signedVarLongEncodedLength(index - lastIndex);
+      lastIndex = index;
+      addCount(count);
+    }
+
+    private void addCount(double count) {
+      numNonEmptyBins++;
+      varDoubleCountsEncodedLength += VarEncodingHelper.varDoubleEncodedLength(count);
+      if (integralCounts && VarEncodingHelper.isUnsignedVarLongEncodable(count)) {
+        varLongCountsEncodedLength += VarEncodingHelper.unsignedVarLongEncodedLength((long) count);
+      } else {
+        integralCounts = false;
+      }
+      unitCounts &= count == 1;
+    }
+
+    private Run mergedWith(Run next) {
+      return new Run(this, next);
+    }
+
+    private long numSlots() {
+      return lastIndex - firstIndex + 1;
+    }
+
+    private long contiguousEncodedLength(boolean varLongCounts) {
+      final long numEmptyBins = numSlots() - numNonEmptyBins;
+      return 1
+          + VarEncodingHelper.unsignedVarLongEncodedLength(numSlots())
+          + VarEncodingHelper.signedVarLongEncodedLength(firstIndex)
+          + VarEncodingHelper.signedVarLongEncodedLength(1)
+          + (varLongCounts
+              ? varLongCountsEncodedLength + numEmptyBins * EMPTY_BIN_VAR_LONG_ENCODED_LENGTH
+              : varDoubleCountsEncodedLength + numEmptyBins * EMPTY_BIN_VAR_DOUBLE_ENCODED_LENGTH);
+    }
+
+    private long indexDeltasEncodedLength() {
+      return 1
+          + VarEncodingHelper.unsignedVarLongEncodedLength(numNonEmptyBins)
+          + VarEncodingHelper.signedVarLongEncodedLength(firstIndex)
+          + indexDeltasEncodedLength;
+    }
+
+    private BinEncodingMode encodingMode() {
+      BinEncodingMode encodingMode = BinEncodingMode.CONTIGUOUS_COUNTS;
+      long encodedLength = contiguousEncodedLength(false);
+      final long indexDeltasEncodedLength = indexDeltasEncodedLength();
+      if (indexDeltasEncodedLength + varDoubleCountsEncodedLength < encodedLength) {
+        encodingMode = BinEncodingMode.INDEX_DELTAS_AND_COUNTS;
+        encodedLength = indexDeltasEncodedLength + varDoubleCountsEncodedLength;
+      }
+      if (integralCounts) {
+        if (contiguousEncodedLength(true) < encodedLength) {
+          encodingMode = BinEncodingMode.CONTIGUOUS_VARINT_COUNTS;
+          encodedLength = contiguousEncodedLength(true);
+        }
+        if (indexDeltasEncodedLength + varLongCountsEncodedLength < encodedLength) {
+          encodingMode = BinEncodingMode.INDEX_DELTAS_AND_VARINT_COUNTS;
+          encodedLength = indexDeltasEncodedLength + varLongCountsEncodedLength;
+        }
+      }
+      if (unitCounts && indexDeltasEncodedLength < encodedLength) {
+        encodingMode = BinEncodingMode.INDEX_DELTAS;
+      }
+      return encodingMode;
+    }
+
+    private long encodedLength() {
+      switch (encodingMode()) {
+        case CONTIGUOUS_COUNTS:
+          return contiguousEncodedLength(false);
+        case CONTIGUOUS_VARINT_COUNTS:
+          return contiguousEncodedLength(true);
+        case INDEX_DELTAS_AND_COUNTS:
+          return indexDeltasEncodedLength() + varDoubleCountsEncodedLength;
+        case INDEX_DELTAS_AND_VARINT_COUNTS:
+          return indexDeltasEncodedLength() + varLongCountsEncodedLength;
+        case INDEX_DELTAS:
+          return indexDeltasEncodedLength();
+        default:
+          throw new IllegalStateException("The bin encoding mode is not handled.");
+      }
+    }
+  }
+}
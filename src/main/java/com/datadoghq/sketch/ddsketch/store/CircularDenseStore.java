@@ -0,0 +1,428 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import com.datadoghq.sketch.ddsketch.Serializer;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A dense store that holds its counters in a circular array whose length is a power of two: the
+ * counter of {@code index} is at position {@code index & (counts.length - 1)}. Any range of indexes
+ * that is not wider than the array can therefore be held without moving counters, and extending the
+ * range on either side within the capacity of the array only updates {@code minIndex} or {@code
+ * maxIndex}. This is unlike {@link DenseStore}, which shifts its counters when the range of indexes
+ * drifts, for instance when the distribution of the values slowly moves over time.
+ *
+ * <p>The array is grown to the next power of two when the range of indexes gets wider than it, in
+ * which case the counters are copied once, in the order of their indexes. Counters outside the
+ * range of indexes are always zero.
+ */
+public abstract class CircularDenseStore implements Store {
+
+  private static final int MIN_ARRAY_LENGTH = 64;
+  private static final int MAX_ARRAY_LENGTH = 1 << 30;
+
+  double[] counts;
+  int minIndex;
+  int maxIndex;
+
+  CircularDenseStore() {
+    this.counts = null;
+    this.minIndex = Integer.MAX_VALUE;
+    this.maxIndex = Integer.MIN_VALUE;
+  }
+
+  CircularDenseStore(CircularDenseStore store) {
+    this.minIndex = store.minIndex;
+    this.maxIndex = store.maxIndex;
+    if (store.counts != null && !store.isEmpty()) {
+      // Not getNewLength, which subclasses override, as they are not initialized yet.
+      this.counts = new double[arrayLength((long) store.maxIndex - store.minIndex + 1)];
+      copyCounts(store.counts, counts, store.minIndex, store.maxIndex);
+    }
+  }
+
+  @Override
+  public void add(int index) {
+    final int normalizedIndex = normalize(index);
+    counts[normalizedIndex & (counts.length - 1)]++;
+  }
+
+  @Override
+  public void add(int index, double count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("The count cannot be negative.");
+    }
+    if (count == 0) {
+      return;
+    }
+    final int normalizedIndex = normalize(index);
+    counts[normalizedIndex & (counts.length - 1)] += count;
+  }
+
+  @Override
+  public void add(Bin bin) {
+    add(bin.getIndex(), bin.getCount());
+  }
+
+  /**
+   * Extends the range of indexes, if necessary, so that the counter of the specified index can be
+   * updated.
+   *
+   * @param index the index of the counter to be updated
+   * @return the index of the counter to actually update, which differs from {@code index} if it
+   *     needs to be collapsed
+   */
+  abstract int normalize(int index);
+
+  /**
+   * Extends the range of indexes, if necessary, so that the counters of the indexes from {@code
+   * newMinIndex} to {@code newMaxIndex} can be updated, collapsing bins as {@link #normalize(int)}
+   * does if the range gets too wide.
+   */
+  void normalizeRange(int newMinIndex, int newMaxIndex) {
+    normalize(newMinIndex);
+    normalize(newMaxIndex);
+  }
+
+  /**
+   * Extends the range of indexes so that it includes {@code newMinIndex} and {@code newMaxIndex},
+   * growing the array if the range gets wider than it.
+   */
+  void extendRange(int newMinIndex, int newMaxIndex) {
+    if (isEmpty()) {
+      final int length = getNewLength((long) newMaxIndex - newMinIndex + 1);
+      if (null == counts || length > counts.length) {
+        counts = new double[length];
+      }
+    } else {
+      newMinIndex = Math.min(newMinIndex, minIndex);
+      newMaxIndex = Math.max(newMaxIndex, maxIndex);
+      final long desiredLength = (long) newMaxIndex - newMinIndex + 1;
+      if (desiredLength > counts.length) {
+        final double[] newCounts = new double[getNewLength(desiredLength)];
+        copyCounts(counts, newCounts, minIndex, maxIndex);
+        counts = newCounts;
+      }
+    }
+    minIndex = newMinIndex;
+    maxIndex = newMaxIndex;
+  }
+
+  /**
+   * @param desiredLength the number of counters that the array needs to hold
+   * @return the length of the array to allocate, which is a power of two
+   */
+  int getNewLength(long desiredLength) {
+    return arrayLength(desiredLength);
+  }
+
+  private static int arrayLength(long desiredLength) {
+    if (desiredLength > MAX_ARRAY_LENGTH) {
+      throw new ArithmeticException("The range of indexes is too wide to be held in an array.");
+    }
+    return Math.max(Integer.highestOneBit((int) desiredLength - 1) << 1, MIN_ARRAY_LENGTH);
+  }
+
+  /**
+   * Copies the counters of a range of indexes from a circular array to another one, in as many
+   * contiguous chunks as the wraparounds of both arrays require.
+   */
+  private static void copyCounts(double[] from, double[] to, int minIndex, int maxIndex) {
+    long index = minIndex;
+    while (index <= maxIndex) {
+      final int fromArrayIndex = (int) index & (from.length - 1);
+      final int toArrayIndex = (int) index & (to.length - 1);
+      final int length =
+          (int)
+              Math.min(
+                  maxIndex - index + 1,
+                  Math.min(from.length - fromArrayIndex, to.length - toArrayIndex));
+      System.arraycopy(from, fromArrayIndex, to, toArrayIndex, length);
+      index += length;
+    }
+  }
+
+  void resetCounts(int fromIndex, int toIndex) {
+    long index = fromIndex;
+    while (index <= toIndex) {
+      final int arrayIndex = (int) index & (counts.length - 1);
+      final int length = (int) Math.min(toIndex - index + 1, counts.length - arrayIndex);
+      Arrays.fill(counts, arrayIndex, arrayIndex + length, 0);
+      index += length;
+    }
+  }
+
+  double getTotalCount(int fromIndex, int toIndex) {
+    double totalCount = 0;
+    for (long index = fromIndex; index <= toIndex; index++) {
+      totalCount += counts[(int) index & (counts.length - 1)];
+    }
+    return totalCount;
+  }
+
+  @Override
+  public void mergeWith(Store store) {
+    if (store.isEmpty()) {
+      return;
+    }
+    normalizeRange(store.getMinIndex(), store.getMaxIndex());
+    CountRuns.mergeClamped(store, minIndex, maxIndex, this::addRun, this::addClamped);
+  }
+
+  private void addRun(int fromIndex, double[] runCounts, int fromArrayIndex, int length) {
+    // The counters are added in as many contiguous chunks as the wraparound of the array requires.
+    long index = fromIndex;
+    int runArrayIndex = fromArrayIndex;
+    while (runArrayIndex < fromArrayIndex + length) {
+      final int arrayIndex = (int) index & (counts.length - 1);
+      final int chunkLength =
+          Math.min(fromArrayIndex + length - runArrayIndex, counts.length - arrayIndex);
+      CountRuns.add(counts, arrayIndex, runCounts, runArrayIndex, chunkLength);
+      index += chunkLength;
+      runArrayIndex += chunkLength;
+    }
+  }
+
+  private void addClamped(int index, double count) {
+    counts[Math.min(Math.max(index, minIndex), maxIndex) & (counts.length - 1)] += count;
+  }
+
+  void forEachRun(CountRuns.Acceptor acceptor) {
+    if (isEmpty()) {
+      return;
+    }
+    // The range of indexes is split in two runs if it wraps around the end of the array.
+    final int fromArrayIndex = minIndex & (counts.length - 1);
+    final int toArrayIndex = maxIndex & (counts.length - 1);
+    if (fromArrayIndex <= toArrayIndex) {
+      acceptor.accept(minIndex, counts, fromArrayIndex, toArrayIndex - fromArrayIndex + 1);
+    } else {
+      acceptor.accept(minIndex, counts, fromArrayIndex, counts.length - fromArrayIndex);
+      acceptor.accept(minIndex + (counts.length - fromArrayIndex), counts, 0, toArrayIndex + 1);
+    }
+  }
+
+  @Override
+  public void clear() {
+    if (!isEmpty()) {
+      resetCounts(minIndex, maxIndex);
+    }
+    minIndex = Integer.MAX_VALUE;
+    maxIndex = Integer.MIN_VALUE;
+  }
+
+  @Override
+  public void reserve(int minIndex, int maxIndex) {
+    if (!isEmpty() || minIndex > maxIndex) {
+      return;
+    }
+    final int length = getNewLength((long) maxIndex - minIndex + 1);
+    if (null == counts || length > counts.length) {
+      counts = new double[length];
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return maxIndex < minIndex;
+  }
+
+  @Override
+  public void trimToSize() {
+    if (isEmpty()) {
+      counts = null;
+      return;
+    }
+    // The length of the array remains a power of two.
+    final int length = arrayLength((long) maxIndex - minIndex + 1);
+    if (length < counts.length) {
+      final double[] trimmedCounts = new double[length];
+      copyCounts(counts, trimmedCounts, minIndex, maxIndex);
+      counts = trimmedCounts;
+    }
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(fieldsSizeInBytes())
+        + (null == counts ? 0 : MemoryFootprint.arraySizeInBytes(counts.length, Double.BYTES));
+  }
+
+  /** @return the total size of the instance fields of this store, in bytes */
+  int fieldsSizeInBytes() {
+    return 2 * Integer.BYTES + MemoryFootprint.REFERENCE_SIZE_IN_BYTES;
+  }
+
+  @Override
+  public int getMinIndex() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return minIndex;
+  }
+
+  @Override
+  public int getMaxIndex() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return maxIndex;
+  }
+
+  @Override
+  public double getTotalCount() {
+    if (isEmpty()) {
+      return 0;
+    }
+    return getTotalCount(minIndex, maxIndex);
+  }
+
+  @Override
+  public void forEach(BinAcceptor acceptor) {
+    if (isEmpty()) {
+      return;
+    }
+    final int mask = counts.length - 1;
+    for (long index = minIndex; index <= maxIndex; index++) {
+      final double count = counts[(int) index & mask];
+      if (count != 0) {
+        acceptor.accept((int) index, count);
+      }
+    }
+  }
+
+  @Override
+  public void copyCountsTo(int fromIndex, long[] counts) {
+    for (int i = 0; i < counts.length; i++) {
+      final long index = (long) fromIndex + i;
+      counts[i] =
+          index >= minIndex && index <= maxIndex
+              ? Math.round(this.counts[(int) index & (this.counts.length - 1)])
+              : 0;
+    }
+  }
+
+  @Override
+  public Iterator<Bin> getAscendingIterator() {
+
+    return new Iterator<Bin>() {
+
+      private long index = minIndex;
+
+      @Override
+      public boolean hasNext() {
+        return index <= maxIndex;
+      }
+
+      @Override
+      public Bin next() {
+        final int nextIndex = (int) index;
+        do {
+          index++;
+        } while (index <= maxIndex && counts[(int) index & (counts.length - 1)] == 0);
+        return new Bin(nextIndex, counts[nextIndex & (counts.length - 1)]);
+      }
+    };
+  }
+
+  @Override
+  public Iterator<Bin> getDescendingIterator() {
+
+    return new Iterator<Bin>() {
+
+      private long index = maxIndex;
+
+      @Override
+      public boolean hasNext() {
+        return index >= minIndex;
+      }
+
+      @Override
+      public Bin next() {
+        final int nextIndex = (int) index;
+        do {
+          index--;
+        } while (index >= minIndex && counts[(int) index & (counts.length - 1)] == 0);
+        return new Bin(nextIndex, counts[nextIndex & (counts.length - 1)]);
+      }
+    };
+  }
+
+  @Override
+  public BinCursor getAscendingCursor() {
+
+    return new BinCursor() {
+
+      private long index = (long) minIndex - 1;
+      private double count;
+
+      @Override
+      public boolean next() {
+        do {
+          index++;
+        } while (index <= maxIndex && counts[(int) index & (counts.length - 1)] == 0);
+        if (index > maxIndex) {
+          return false;
+        }
+        count = counts[(int) index & (counts.length - 1)];
+        return true;
+      }
+
+      @Override
+      public int getIndex() {
+        return (int) index;
+      }
+
+      @Override
+      public double getCount() {
+        return count;
+      }
+    };
+  }
+
+  @Override
+  public void encode(Output output, Flag.Type storeFlagType) throws IOException {
+    if (isEmpty()) {
+      return;
+    }
+    final BinRunEncoder encoder = new BinRunEncoder();
+    // The range of indexes is split in two segments if it wraps around the end of the array.
+    final int fromArrayIndex = minIndex & (counts.length - 1);
+    final int toArrayIndex = maxIndex & (counts.length - 1);
+    if (fromArrayIndex <= toArrayIndex) {
+      encoder.addSegment(counts, fromArrayIndex, toArrayIndex, minIndex);
+    } else {
+      encoder.addSegment(counts, fromArrayIndex, counts.length - 1, minIndex);
+      encoder.addSegment(counts, 0, toArrayIndex, minIndex + (counts.length - fromArrayIndex));
+    }
+    encoder.encode(output, storeFlagType);
+  }
+
+  @Override
+  public int serializedSize() {
+    if (!isEmpty()) {
+      return Serializer.sizeOfCompactDoubleArray(2, maxIndex - minIndex + 1)
+          + Serializer.signedIntFieldSize(3, minIndex);
+    }
+    return 0;
+  }
+
+  @Override
+  public void serialize(Serializer serializer) {
+    if (!isEmpty()) {
+      serializer.writeCompactCircularArray(
+          2, counts, minIndex & (counts.length - 1), maxIndex - minIndex + 1);
+      serializer.writeSignedInt32(3, minIndex);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+abstract class CollapsingCircularDenseStore extends CircularDenseStore {
+
+  final int maxNumBins;
+
+  boolean isCollapsed;
+
+  CollapsingCircularDenseStore(int maxNumBins) {
+    this.maxNumBins = maxNumBins;
+    this.isCollapsed = false;
+  }
+
+  CollapsingCircularDenseStore(CollapsingCircularDenseStore store) {
+    super(store);
+    this.maxNumBins = store.maxNumBins;
+    this.isCollapsed = store.isCollapsed;
+  }
+
+  @Override
+  int getNewLength(long desiredLength) {
+    return super.getNewLength(Math.min(desiredLength, maxNumBins));
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    isCollapsed = false;
+  }
+
+  @Override
+  int fieldsSizeInBytes() {
+    return super.fieldsSizeInBytes() + Integer.BYTES + 1;
+  }
+}
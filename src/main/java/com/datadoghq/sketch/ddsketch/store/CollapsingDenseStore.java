@@ -32,4 +32,9 @@ abstract class CollapsingDenseStore extends DenseStore {
     super.clear();
     isCollapsed = false;
   }
+
+  @Override
+  int fieldsSizeInBytes() {
+    return super.fieldsSizeInBytes() + Integer.BYTES + 1;
+  }
 }
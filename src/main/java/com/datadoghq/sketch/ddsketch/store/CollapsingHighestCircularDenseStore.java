@@ -0,0 +1,73 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+/**
+ * A {@link CircularDenseStore} that holds at most {@code maxNumBins} bins by collapsing the bins of
+ * highest indexes, as {@link CollapsingHighestDenseStore} does.
+ */
+public class CollapsingHighestCircularDenseStore extends CollapsingCircularDenseStore {
+
+  public CollapsingHighestCircularDenseStore(int maxNumBins) {
+    super(maxNumBins);
+  }
+
+  private CollapsingHighestCircularDenseStore(CollapsingHighestCircularDenseStore store) {
+    super(store);
+  }
+
+  @Override
+  int normalize(int index) {
+
+    if (isEmpty()) {
+
+      extendRange(index, index);
+
+    } else if (index > maxIndex) {
+
+      if (isCollapsed) {
+        return maxIndex;
+      }
+      if ((long) index - minIndex + 1 > maxNumBins) {
+        // The range of indexes is too wide, the new bin is collapsed with the bins of highest
+        // indexes.
+        extendRange(minIndex, minIndex + maxNumBins - 1);
+        isCollapsed = true;
+        return maxIndex;
+      }
+      extendRange(minIndex, index);
+
+    } else if (index < minIndex) {
+
+      if ((long) maxIndex - index + 1 > maxNumBins) {
+        // The range of indexes is too wide, the bins of highest indexes need to be collapsed.
+        final int newMaxIndex = index + maxNumBins - 1;
+        if (newMaxIndex < minIndex) {
+          // There will be only one non-empty bin.
+          final double totalCount = getTotalCount();
+          resetCounts(minIndex, maxIndex);
+          minIndex = newMaxIndex;
+          maxIndex = newMaxIndex;
+          counts[newMaxIndex & (counts.length - 1)] = totalCount;
+        } else {
+          final double collapsedCount = getTotalCount(newMaxIndex + 1, maxIndex);
+          resetCounts(newMaxIndex + 1, maxIndex);
+          maxIndex = newMaxIndex;
+          counts[newMaxIndex & (counts.length - 1)] += collapsedCount;
+        }
+        isCollapsed = true;
+      }
+      extendRange(index, maxIndex);
+    }
+
+    return index;
+  }
+
+  @Override
+  public Store copy() {
+    return new CollapsingHighestCircularDenseStore(this);
+  }
+}
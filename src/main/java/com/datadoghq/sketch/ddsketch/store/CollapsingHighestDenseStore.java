@@ -90,37 +90,4 @@ public class CollapsingHighestDenseStore extends CollapsingDenseStore {
   public Store copy() {
     return new CollapsingHighestDenseStore(this);
   }
-
-  @Override
-  public void mergeWith(Store store) {
-    if (store instanceof CollapsingHighestDenseStore) {
-      mergeWith((CollapsingHighestDenseStore) store);
-    } else {
-      getAscendingStream().forEachOrdered(this::add);
-    }
-  }
-
-  private void mergeWith(CollapsingHighestDenseStore store) {
-
-    if (store.isEmpty()) {
-      return;
-    }
-
-    if (store.minIndex < minIndex || store.maxIndex > maxIndex) {
-      extendRange(store.minIndex, store.maxIndex);
-    }
-
-    int index = store.maxIndex;
-    for (; index > maxIndex && index >= store.minIndex; index--) {
-      counts[counts.length - 1] += store.counts[index - store.offset];
-    }
-    for (; index > store.minIndex; index--) {
-      counts[index - offset] += store.counts[index - store.offset];
-    }
-    // This is a separate test so that the comparison in the previous loop is strict (>) and handles
-    // store.minIndex = Integer.MIN_VALUE.
-    if (index == store.minIndex) {
-      counts[index - offset] += store.counts[index - store.offset];
-    }
-  }
 }
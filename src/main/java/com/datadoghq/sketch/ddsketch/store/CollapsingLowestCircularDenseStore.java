@@ -0,0 +1,73 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+/**
+ * A {@link CircularDenseStore} that holds at most {@code maxNumBins} bins by collapsing the bins of
+ * lowest indexes, as {@link CollapsingLowestDenseStore} does.
+ */
+public class CollapsingLowestCircularDenseStore extends CollapsingCircularDenseStore {
+
+  public CollapsingLowestCircularDenseStore(int maxNumBins) {
+    super(maxNumBins);
+  }
+
+  private CollapsingLowestCircularDenseStore(CollapsingLowestCircularDenseStore store) {
+    super(store);
+  }
+
+  @Override
+  int normalize(int index) {
+
+    if (isEmpty()) {
+
+      extendRange(index, index);
+
+    } else if (index < minIndex) {
+
+      if (isCollapsed) {
+        return minIndex;
+      }
+      if ((long) maxIndex - index + 1 > maxNumBins) {
+        // The range of indexes is too wide, the new bin is collapsed with the bins of lowest
+        // indexes.
+        extendRange(maxIndex - maxNumBins + 1, maxIndex);
+        isCollapsed = true;
+        return minIndex;
+      }
+      extendRange(index, maxIndex);
+
+    } else if (index > maxIndex) {
+
+      if ((long) index - minIndex + 1 > maxNumBins) {
+        // The range of indexes is too wide, the bins of lowest indexes need to be collapsed.
+        final int newMinIndex = index - maxNumBins + 1;
+        if (newMinIndex > maxIndex) {
+          // There will be only one non-empty bin.
+          final double totalCount = getTotalCount();
+          resetCounts(minIndex, maxIndex);
+          minIndex = newMinIndex;
+          maxIndex = newMinIndex;
+          counts[newMinIndex & (counts.length - 1)] = totalCount;
+        } else {
+          final double collapsedCount = getTotalCount(minIndex, newMinIndex - 1);
+          resetCounts(minIndex, newMinIndex - 1);
+          minIndex = newMinIndex;
+          counts[newMinIndex & (counts.length - 1)] += collapsedCount;
+        }
+        isCollapsed = true;
+      }
+      extendRange(minIndex, index);
+    }
+
+    return index;
+  }
+
+  @Override
+  public Store copy() {
+    return new CollapsingLowestCircularDenseStore(this);
+  }
+}
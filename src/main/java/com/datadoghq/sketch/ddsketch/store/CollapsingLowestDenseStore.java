@@ -90,37 +90,4 @@ public class CollapsingLowestDenseStore extends CollapsingDenseStore {
   public Store copy() {
     return new CollapsingLowestDenseStore(this);
   }
-
-  @Override
-  public void mergeWith(Store store) {
-    if (store instanceof CollapsingLowestDenseStore) {
-      mergeWith((CollapsingLowestDenseStore) store);
-    } else {
-      getDescendingStream().forEachOrdered(this::add);
-    }
-  }
-
-  private void mergeWith(CollapsingLowestDenseStore store) {
-
-    if (store.isEmpty()) {
-      return;
-    }
-
-    if (store.minIndex < minIndex || store.maxIndex > maxIndex) {
-      extendRange(store.minIndex, store.maxIndex);
-    }
-
-    int index = store.minIndex;
-    for (; index < minIndex && index <= store.maxIndex; index++) {
-      counts[0] += store.counts[index - store.offset];
-    }
-    for (; index < store.maxIndex; index++) {
-      counts[index - offset] += store.counts[index - store.offset];
-    }
-    // This is a separate test so that the comparison in the previous loop is strict (<) and handles
-    // store.maxIndex = Integer.MAX_VALUE.
-    if (index == store.maxIndex) {
-      counts[index - offset] += store.counts[index - store.offset];
-    }
-  }
 }
@@ -0,0 +1,123 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+/**
+ * Exposes the counters of the stores that hold them in arrays as runs of contiguous indexes, so
+ * that other stores can merge them with array loops rather than bin by bin.
+ */
+final class CountRuns {
+
+  private CountRuns() {}
+
+  @FunctionalInterface
+  interface Acceptor {
+
+    /**
+     * Accepts the counters of the indexes {@code fromIndex} to {@code fromIndex + length - 1},
+     * which may be zero.
+     *
+     * @param fromIndex the index of the first counter of the run
+     * @param counts the array that holds the counters of the store
+     * @param fromArrayIndex the position in {@code counts} of the first counter of the run
+     * @param length the number of counters of the run
+     */
+    void accept(int fromIndex, double[] counts, int fromArrayIndex, int length);
+  }
+
+  /**
+   * Adds counters to the ones of a range of an array, namely, adds {@code runCounts[runArrayIndex +
+   * i]} to {@code counts[arrayIndex + i]} for {@code i} from {@code 0} to {@code length - 1}.
+   *
+   * <p>This is the kernel of the merges of the stores that hold their counters in arrays. It is a
+   * counted loop over local arrays, which the JIT compiler unrolls and vectorizes.
+   */
+  static void add(
+      double[] counts, int arrayIndex, double[] runCounts, int runArrayIndex, int length) {
+    for (int i = 0; i < length; i++) {
+      counts[arrayIndex + i] += runCounts[runArrayIndex + i];
+    }
+  }
+
+  /** @return the sum of the counters of a range of an array */
+  static double sum(double[] counts, int arrayIndex, int length) {
+    double sum = 0;
+    for (int i = 0; i < length; i++) {
+      sum += counts[arrayIndex + i];
+    }
+    return sum;
+  }
+
+  /**
+   * Merges the counters of a store into the range of indexes {@code minIndex} to {@code maxIndex}
+   * of another store, as runs if the merged store holds its counters in arrays, bin by bin
+   * otherwise. The range is expected to have been extended so that it includes the indexes of the
+   * merged store, unless bins had to be collapsed, in which case the counters of the indexes that
+   * are out of the range are added to the counter of the closest bound of the range.
+   *
+   * @param store the store whose counters are to be merged
+   * @param minIndex the lowest index of the range of the store that is merged into
+   * @param maxIndex the highest index of the range of the store that is merged into
+   * @param inRangeAcceptor the acceptor of the runs of counters that are within the range
+   * @param clampingAcceptor the acceptor of the other counters, which adds them to the counter of
+   *     the index of the range that is the closest to theirs
+   */
+  static void mergeClamped(
+      Store store,
+      int minIndex,
+      int maxIndex,
+      Acceptor inRangeAcceptor,
+      BinAcceptor clampingAcceptor) {
+    final boolean merged =
+        forEach(
+            store,
+            (fromIndex, runCounts, fromArrayIndex, length) -> {
+              final int fromInRange =
+                  (int) Math.min(Math.max((long) minIndex - fromIndex, 0), length);
+              final int toInRange =
+                  (int) Math.max(Math.min((long) maxIndex - fromIndex + 1, length), fromInRange);
+              if (fromInRange > 0) {
+                clampingAcceptor.accept(minIndex, sum(runCounts, fromArrayIndex, fromInRange));
+              }
+              if (toInRange > fromInRange) {
+                inRangeAcceptor.accept(
+                    fromIndex + fromInRange,
+                    runCounts,
+                    fromArrayIndex + fromInRange,
+                    toInRange - fromInRange);
+              }
+              if (toInRange < length) {
+                clampingAcceptor.accept(
+                    maxIndex, sum(runCounts, fromArrayIndex + toInRange, length - toInRange));
+              }
+            });
+    if (!merged) {
+      store.forEach(clampingAcceptor);
+    }
+  }
+
+  /**
+   * Supplies the counters of a store to an acceptor as runs of contiguous indexes, in ascending
+   * order, if the store holds them in arrays.
+   *
+   * @param store the store whose counters are to be supplied
+   * @param acceptor the acceptor of the runs
+   * @return {@code true} if the counters have been supplied, {@code false} if the store does not
+   *     hold them in arrays, in which case the acceptor has not been called
+   */
+  static boolean forEach(Store store, Acceptor acceptor) {
+    if (store instanceof DenseStore) {
+      ((DenseStore) store).forEachRun(acceptor);
+    } else if (store instanceof CircularDenseStore) {
+      ((CircularDenseStore) store).forEachRun(acceptor);
+    } else if (store instanceof PaginatedStore) {
+      ((PaginatedStore) store).forEachRun(acceptor);
+    } else {
+      return false;
+    }
+    return true;
+  }
+}
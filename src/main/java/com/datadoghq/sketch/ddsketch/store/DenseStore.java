@@ -5,11 +5,10 @@
 
 package com.datadoghq.sketch.ddsketch.store;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.Serializer;
-import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
 import com.datadoghq.sketch.ddsketch.encoding.Flag;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
-import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -30,6 +29,10 @@ public abstract class DenseStore implements Store {
   int minIndex;
   int maxIndex;
 
+  // Whether counts may be shared with snapshots or copies of snapshots, in which case it needs to
+  // be copied before being updated.
+  private boolean countsShared;
+
   DenseStore() {
     this(DEFAULT_ARRAY_LENGTH_GROWTH_INCREMENT);
   }
@@ -57,7 +60,12 @@ public abstract class DenseStore implements Store {
     this.arrayLengthOverhead = store.arrayLengthOverhead;
     this.minIndex = store.minIndex;
     this.maxIndex = store.maxIndex;
-    if (store.counts != null && !store.isEmpty()) {
+    if (store.countsShared) {
+      // The store has been snapshotted and not updated since then.
+      this.counts = store.counts;
+      this.offset = store.offset;
+      this.countsShared = true;
+    } else if (store.counts != null && !store.isEmpty()) {
       this.counts =
           Arrays.copyOfRange(
               store.counts, store.minIndex - store.offset, store.maxIndex - store.offset + 1);
@@ -70,6 +78,7 @@ public abstract class DenseStore implements Store {
 
   @Override
   public void add(int index) {
+    unshareCounts();
     final int arrayIndex = normalize(index);
     counts[arrayIndex]++;
   }
@@ -82,6 +91,7 @@ public abstract class DenseStore implements Store {
     if (count == 0) {
       return;
     }
+    unshareCounts();
     final int arrayIndex = normalize(index);
     counts[arrayIndex] += count;
   }
@@ -91,13 +101,17 @@ public abstract class DenseStore implements Store {
     if (bin.getCount() == 0) {
       return;
     }
+    unshareCounts();
     final int arrayIndex = normalize(bin.getIndex());
     counts[arrayIndex] += bin.getCount();
   }
 
   @Override
   public void clear() {
-    if (null != counts) {
+    if (countsShared) {
+      counts = null;
+      countsShared = false;
+    } else if (null != counts) {
       Arrays.fill(counts, 0D);
     }
     maxIndex = Integer.MIN_VALUE;
@@ -105,6 +119,106 @@ public abstract class DenseStore implements Store {
     offset = 0;
   }
 
+  @Override
+  public void downsample(int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("The downsampling factor must be at least 1.");
+    }
+    if (factor == 1 || isEmpty()) {
+      return;
+    }
+    unshareCounts();
+    final int newMinIndex = Math.floorDiv(minIndex, factor);
+    final int newMaxIndex = Math.floorDiv(maxIndex, factor);
+    // The array index of minIndex is kept, so that every counter is moved to an array index that is
+    // not greater than its own, and the counters can be merged in place in a single ascending pass.
+    final int newOffset = newMinIndex - (minIndex - offset);
+    for (int arrayIndex = minIndex - offset; arrayIndex <= maxIndex - offset; arrayIndex++) {
+      final double count = counts[arrayIndex];
+      if (count != 0) {
+        counts[arrayIndex] = 0;
+        counts[Math.floorDiv(arrayIndex + offset, factor) - newOffset] += count;
+      }
+    }
+    offset = newOffset;
+    minIndex = newMinIndex;
+    maxIndex = newMaxIndex;
+  }
+
+  @Override
+  public void reserve(int minIndex, int maxIndex) {
+    if (!isEmpty() || minIndex > maxIndex) {
+      return;
+    }
+    unshareCounts();
+    final int length = Math.toIntExact(getNewLength(minIndex, maxIndex));
+    if (null == counts || length > counts.length) {
+      counts = new double[length];
+    }
+    // Center the range in the array, as extendRange would do on the first insertion.
+    offset =
+        Math.toIntExact(
+            Math.max(
+                (long) minIndex - (counts.length - ((long) maxIndex - minIndex + 1)) / 2,
+                (long) Integer.MIN_VALUE));
+  }
+
+  @Override
+  public void mergeWith(Store store) {
+    if (store.isEmpty()) {
+      return;
+    }
+    unshareCounts();
+    final int storeMinIndex = store.getMinIndex();
+    final int storeMaxIndex = store.getMaxIndex();
+    if (storeMinIndex < minIndex || storeMaxIndex > maxIndex) {
+      extendRange(storeMinIndex, storeMaxIndex);
+    }
+    CountRuns.mergeClamped(store, minIndex, maxIndex, this::addRun, this::addClamped);
+  }
+
+  private void addRun(int fromIndex, double[] runCounts, int fromArrayIndex, int length) {
+    CountRuns.add(counts, fromIndex - offset, runCounts, fromArrayIndex, length);
+  }
+
+  private void addClamped(int index, double count) {
+    counts[Math.min(Math.max(index, minIndex), maxIndex) - offset] += count;
+  }
+
+  void forEachRun(CountRuns.Acceptor acceptor) {
+    if (!isEmpty()) {
+      acceptor.accept(minIndex, counts, minIndex - offset, maxIndex - minIndex + 1);
+    }
+  }
+
+  @Override
+  public void trimToSize() {
+    if (isEmpty()) {
+      counts = null;
+      countsShared = false;
+      offset = 0;
+    } else if (counts.length > maxIndex - minIndex + 1) {
+      counts = Arrays.copyOfRange(counts, minIndex - offset, maxIndex - offset + 1);
+      countsShared = false;
+      offset = minIndex;
+    }
+  }
+
+  @Override
+  public Store snapshot() {
+    // The copy shares the array of counters, which either store copies when it is next updated.
+    countsShared = null != counts;
+    return copy();
+  }
+
+  /** Copies the array of counters if it is shared, so that it can be updated. */
+  void unshareCounts() {
+    if (countsShared) {
+      counts = counts.clone();
+      countsShared = false;
+    }
+  }
+
   /**
    * Normalize the store, if necessary, so that the counter of the specified index can be updated.
    *
@@ -131,7 +245,16 @@ public abstract class DenseStore implements Store {
     newMinIndex = Math.min(newMinIndex, minIndex);
     newMaxIndex = Math.max(newMaxIndex, maxIndex);
 
-    if (isEmpty()) {
+    if (isEmpty()
+        && null != counts
+        && newMinIndex >= offset
+        && newMaxIndex < (long) offset + counts.length) {
+
+      // The array already covers the range, for instance because it has been reserved.
+      minIndex = newMinIndex;
+      maxIndex = newMaxIndex;
+
+    } else if (isEmpty()) {
 
       final int initialLength = Math.toIntExact(getNewLength(newMinIndex, newMaxIndex));
       if (null == counts || initialLength >= counts.length) {
@@ -139,7 +262,9 @@ public abstract class DenseStore implements Store {
       }
       offset = newMinIndex;
       minIndex = newMinIndex;
-      maxIndex = newMaxIndex;
+      // If bins need to be collapsed because the range is wider than the array, the range is first
+      // restricted to a single index so that adjust does not access counters out of the array.
+      maxIndex = (long) newMaxIndex - newMinIndex + 1 > counts.length ? newMinIndex : newMaxIndex;
       adjust(newMinIndex, newMaxIndex);
 
     } else if (newMinIndex >= offset && newMaxIndex < (long) offset + counts.length) {
@@ -216,6 +341,17 @@ public abstract class DenseStore implements Store {
     return maxIndex;
   }
 
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(fieldsSizeInBytes())
+        + (null == counts ? 0 : MemoryFootprint.arraySizeInBytes(counts.length, Double.BYTES));
+  }
+
+  /** @return the total size of the instance fields of this store, in bytes */
+  int fieldsSizeInBytes() {
+    return 5 * Integer.BYTES + MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 1;
+  }
+
   long getNewLength(int newMinIndex, int newMaxIndex) {
     final long desiredLength = (long) newMaxIndex - newMinIndex + 1;
     return ((desiredLength + arrayLengthOverhead - 1) / arrayLengthGrowthIncrement + 1)
@@ -261,6 +397,21 @@ public abstract class DenseStore implements Store {
     }
   }
 
+  @Override
+  public void copyCountsTo(int fromIndex, long[] counts) {
+    // The range of indexes that both the store and the array hold, which is empty if the store is.
+    final int fromArrayIndex =
+        (int) Math.min(Math.max((long) minIndex - fromIndex, 0), counts.length);
+    final int toArrayIndex =
+        (int) Math.max(Math.min((long) maxIndex - fromIndex + 1, counts.length), fromArrayIndex);
+    Arrays.fill(counts, 0, fromArrayIndex, 0);
+    final int shift = fromIndex - offset;
+    for (int i = fromArrayIndex; i < toArrayIndex; i++) {
+      counts[i] = Math.round(this.counts[i + shift]);
+    }
+    Arrays.fill(counts, toArrayIndex, counts.length, 0);
+  }
+
   @Override
   public Stream<Bin> getAscendingStream() {
     if (isEmpty()) {
@@ -329,66 +480,45 @@ public abstract class DenseStore implements Store {
   }
 
   @Override
-  public void encode(Output output, Flag.Type storeFlagType) throws IOException {
-    if (isEmpty()) {
-      return;
-    }
+  public BinCursor getAscendingCursor() {
 
-    long denseEncodingSize = 0;
-    final long numBins = (long) maxIndex - (long) minIndex + 1;
-    denseEncodingSize += VarEncodingHelper.unsignedVarLongEncodedLength(numBins);
-    denseEncodingSize += VarEncodingHelper.signedVarLongEncodedLength(minIndex);
-    denseEncodingSize += VarEncodingHelper.signedVarLongEncodedLength(1);
+    return new BinCursor() {
 
-    long sparseEncodingSize = 0;
-    long numNonEmptyBins = 0;
+      private long index = (long) minIndex - 1;
+      private double count;
 
-    long previousIndex = 0;
-    for (int i = minIndex - offset; i <= maxIndex - offset; i++) {
-      final double count = counts[i];
-      final long countVarDoubleEncodedLength = VarEncodingHelper.varDoubleEncodedLength(count);
-      denseEncodingSize += countVarDoubleEncodedLength;
-      if (count != 0) {
-        numNonEmptyBins++;
-        final long index = offset + i;
-        sparseEncodingSize += VarEncodingHelper.signedVarLongEncodedLength(index - previousIndex);
-        sparseEncodingSize += countVarDoubleEncodedLength;
-        previousIndex = index;
+      @Override
+      public boolean next() {
+        do {
+          index++;
+        } while (index <= maxIndex && counts[(int) index - offset] == 0);
+        if (index > maxIndex) {
+          return false;
+        }
+        count = counts[(int) index - offset];
+        return true;
       }
-    }
 
-    if (denseEncodingSize <= sparseEncodingSize) {
-      encodeDensely(output, storeFlagType, numBins);
-    } else {
-      encodeSparsely(output, storeFlagType, numNonEmptyBins);
-    }
-  }
+      @Override
+      public int getIndex() {
+        return (int) index;
+      }
 
-  private void encodeDensely(Output output, Flag.Type storeFlagType, long numBins)
-      throws IOException {
-    BinEncodingMode.CONTIGUOUS_COUNTS.toFlag(storeFlagType).encode(output);
-    VarEncodingHelper.encodeUnsignedVarLong(output, numBins);
-    VarEncodingHelper.encodeSignedVarLong(output, minIndex);
-    VarEncodingHelper.encodeSignedVarLong(output, 1);
-    for (int i = minIndex - offset; i <= maxIndex - offset; i++) {
-      VarEncodingHelper.encodeVarDouble(output, counts[i]);
-    }
+      @Override
+      public double getCount() {
+        return count;
+      }
+    };
   }
 
-  private void encodeSparsely(Output output, Flag.Type storeFlagType, long numNonEmptyBins)
-      throws IOException {
-    BinEncodingMode.INDEX_DELTAS_AND_COUNTS.toFlag(storeFlagType).encode(output);
-    VarEncodingHelper.encodeUnsignedVarLong(output, numNonEmptyBins);
-    long previousIndex = 0;
-    for (int i = minIndex - offset; i <= maxIndex - offset; i++) {
-      final double count = counts[i];
-      if (count != 0) {
-        final long index = offset + i;
-        VarEncodingHelper.encodeSignedVarLong(output, index - previousIndex);
-        VarEncodingHelper.encodeVarDouble(output, count);
-        previousIndex = index;
-      }
+  @Override
+  public void encode(Output output, Flag.Type storeFlagType) throws IOException {
+    if (isEmpty()) {
+      return;
     }
+    final BinRunEncoder encoder = new BinRunEncoder();
+    encoder.addSegment(counts, minIndex - offset, maxIndex - offset, minIndex);
+    encoder.encode(output, storeFlagType);
   }
 
   @Override
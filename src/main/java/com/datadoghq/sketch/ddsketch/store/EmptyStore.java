@@ -0,0 +1,82 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.Output;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** An immutable store that holds no bins (see {@link Store#empty()}). */
+final class EmptyStore implements Store {
+
+  static final EmptyStore INSTANCE = new EmptyStore();
+
+  private EmptyStore() {}
+
+  @Override
+  public void add(int index, double count) {
+    throw new UnsupportedOperationException("The empty store cannot be updated.");
+  }
+
+  @Override
+  public void mergeWith(Store store) {
+    if (!store.isEmpty()) {
+      throw new UnsupportedOperationException("The empty store cannot be updated.");
+    }
+  }
+
+  @Override
+  public Store copy() {
+    return this;
+  }
+
+  @Override
+  public void clear() {}
+
+  @Override
+  public boolean isEmpty() {
+    return true;
+  }
+
+  @Override
+  public double getTotalCount() {
+    return 0;
+  }
+
+  /** @return zero, as the empty store is shared */
+  @Override
+  public long estimatedSizeInBytes() {
+    return 0;
+  }
+
+  @Override
+  public int getMinIndex() {
+    throw new NoSuchElementException();
+  }
+
+  @Override
+  public int getMaxIndex() {
+    throw new NoSuchElementException();
+  }
+
+  @Override
+  public void forEach(BinAcceptor acceptor) {}
+
+  @Override
+  public Iterator<Bin> getAscendingIterator() {
+    return Collections.emptyIterator();
+  }
+
+  @Override
+  public Iterator<Bin> getDescendingIterator() {
+    return Collections.emptyIterator();
+  }
+
+  @Override
+  public void encode(Output output, Flag.Type storeFlagType) {}
+}
@@ -0,0 +1,61 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+/**
+ * The bins of a {@link Store}, laid out as the buckets of an OpenTelemetry exponential histogram,
+ * that is to say, as the index of the first bucket and the counts of the contiguous buckets that
+ * follow. If the store belongs to a sketch that uses a {@link
+ * com.datadoghq.sketch.ddsketch.mapping.Base2ExponentialMapping}, the indexes are the ones of the
+ * exponential histogram buckets at the scale of the mapping, so that the offset and the counts can
+ * be exported as they are.
+ */
+public final class ExponentialHistogramBuckets {
+
+  private static final ExponentialHistogramBuckets EMPTY =
+      new ExponentialHistogramBuckets(0, new long[0]);
+
+  private final int offset;
+  private final long[] bucketCounts;
+
+  private ExponentialHistogramBuckets(int offset, long[] bucketCounts) {
+    this.offset = offset;
+    this.bucketCounts = bucketCounts;
+  }
+
+  /**
+   * @param store the store whose bins to lay out as buckets
+   * @return the buckets from the lowest to the highest non-empty bins of the store, whose counts
+   *     are rounded to the nearest integer
+   * @throws IllegalArgumentException if there are too many buckets to be held in an array
+   */
+  public static ExponentialHistogramBuckets of(Store store) {
+    if (store.isEmpty()) {
+      return EMPTY;
+    }
+    final int minIndex = store.getMinIndex();
+    final long numBuckets = (long) store.getMaxIndex() - minIndex + 1;
+    if (numBuckets > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("There are too many buckets to be held in an array.");
+    }
+    final long[] bucketCounts = new long[(int) numBuckets];
+    store.copyCountsTo(minIndex, bucketCounts);
+    return new ExponentialHistogramBuckets(minIndex, bucketCounts);
+  }
+
+  /** @return the index of the first bucket */
+  public int offset() {
+    return offset;
+  }
+
+  /**
+   * @return the counts of the buckets, the count of the bucket of index {@code offset() + i} being
+   *     at position {@code i}; the array is not copied and should not be modified
+   */
+  public long[] bucketCounts() {
+    return bucketCounts;
+  }
+}
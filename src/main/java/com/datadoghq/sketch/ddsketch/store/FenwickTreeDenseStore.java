@@ -0,0 +1,212 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import com.datadoghq.sketch.MemoryFootprint;
+import java.util.NoSuchElementException;
+
+/**
+ * An {@link UnboundedSizeDenseStore} that also maintains a binary indexed tree (Fenwick tree) over
+ * its counters, so that {@link #getTotalCount()}, {@link #getCountUpTo(int)}, {@link
+ * #getIndexAtRank(double)} and {@link #getIndexAtDescendingRank(double)} take a time that is
+ * logarithmic rather than linear in the number of bins, while adding to the store remains possible
+ * and takes logarithmic time as well. {@link com.datadoghq.sketch.ddsketch.DDSketch} finds the
+ * values at quantiles with these methods, which makes this store worth it for sketches with many
+ * bins whose quantiles are queried while values are still being added, for instance with a high
+ * relative accuracy.
+ *
+ * <p>The tree is rebuilt in linear time when the counters are moved within the array, for instance
+ * when the array grows, but not before it is next queried.
+ */
+public class FenwickTreeDenseStore extends UnboundedSizeDenseStore {
+
+  // tree[i] holds the sum of the counters at array indexes i - lowestOneBit(i + 1) + 1 to i. It is
+  // null if it needs to be rebuilt.
+  private double[] tree;
+
+  public FenwickTreeDenseStore() {
+    super();
+  }
+
+  public FenwickTreeDenseStore(int arrayLengthGrowthIncrement) {
+    super(arrayLengthGrowthIncrement);
+  }
+
+  public FenwickTreeDenseStore(int arrayLengthGrowthIncrement, int arrayLengthOverhead) {
+    super(arrayLengthGrowthIncrement, arrayLengthOverhead);
+  }
+
+  private FenwickTreeDenseStore(FenwickTreeDenseStore store) {
+    super(store);
+    this.tree = null;
+  }
+
+  @Override
+  public void add(int index) {
+    add(index, 1);
+  }
+
+  @Override
+  public void add(int index, double count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("The count cannot be negative.");
+    }
+    if (count == 0) {
+      return;
+    }
+    unshareCounts();
+    final int arrayIndex = normalize(index);
+    counts[arrayIndex] += count;
+    if (tree != null) {
+      for (int i = arrayIndex; i < tree.length; i |= i + 1) {
+        tree[i] += count;
+      }
+    }
+  }
+
+  @Override
+  public void add(Bin bin) {
+    add(bin.getIndex(), bin.getCount());
+  }
+
+  @Override
+  void adjust(int newMinIndex, int newMaxIndex) {
+    super.adjust(newMinIndex, newMaxIndex);
+    tree = null;
+  }
+
+  @Override
+  public void mergeWith(Store store) {
+    super.mergeWith(store);
+    tree = null;
+  }
+
+  @Override
+  public void downsample(int factor) {
+    super.downsample(factor);
+    tree = null;
+  }
+
+  @Override
+  public void reserve(int minIndex, int maxIndex) {
+    super.reserve(minIndex, maxIndex);
+    tree = null;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    tree = null;
+  }
+
+  private double[] tree() {
+    if (tree == null) {
+      // Built in linear time by pushing the partial sums to the parent nodes.
+      tree = counts.clone();
+      for (int i = 0; i < tree.length; i++) {
+        final int parent = i | (i + 1);
+        if (parent < tree.length) {
+          tree[parent] += tree[i];
+        }
+      }
+    }
+    return tree;
+  }
+
+  /** @return the sum of the counters at array indexes 0 to {@code arrayIndex} */
+  private double prefixSum(int arrayIndex) {
+    final double[] tree = tree();
+    double sum = 0;
+    for (int i = arrayIndex; i >= 0; i = (i & (i + 1)) - 1) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  /**
+   * @return the lowest array index whose prefix sum is greater than {@code rank} or, if {@code
+   *     inclusive}, greater than or equal to {@code rank}, or the length of the array if there is
+   *     none
+   */
+  private int searchPrefixSum(double rank, boolean inclusive) {
+    final double[] tree = tree();
+    int arrayIndex = 0;
+    double remaining = rank;
+    for (int step = Integer.highestOneBit(tree.length); step > 0; step >>= 1) {
+      final int next = arrayIndex + step;
+      if (next <= tree.length
+          && (inclusive ? tree[next - 1] < remaining : tree[next - 1] <= remaining)) {
+        arrayIndex = next;
+        remaining -= tree[next - 1];
+      }
+    }
+    return arrayIndex;
+  }
+
+  @Override
+  public double getTotalCount() {
+    if (isEmpty()) {
+      return 0;
+    }
+    return prefixSum(maxIndex - offset);
+  }
+
+  @Override
+  public double getCountUpTo(int index) {
+    if (isEmpty() || index < minIndex) {
+      return 0;
+    }
+    return prefixSum(Math.min(index, maxIndex) - offset);
+  }
+
+  @Override
+  public int getIndexAtRank(double rank) {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return Math.min(searchPrefixSum(rank, false) + offset, maxIndex);
+  }
+
+  @Override
+  public int getIndexAtDescendingRank(double rank) {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    // The highest index such that the total count minus the prefix sum up to the previous index is
+    // greater than rank is the lowest index whose prefix sum is at least the total count minus
+    // rank.
+    final double totalCount = getTotalCount();
+    if (!(rank < totalCount)) {
+      return minIndex;
+    }
+    return Math.max(searchPrefixSum(totalCount - rank, true) + offset, minIndex);
+  }
+
+  @Override
+  public Store copy() {
+    return new FenwickTreeDenseStore(this);
+  }
+
+  @Override
+  public void trimToSize() {
+    final double[] untrimmedCounts = counts;
+    super.trimToSize();
+    if (counts != untrimmedCounts) {
+      tree = null;
+    }
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return super.estimatedSizeInBytes()
+        + (null == tree ? 0 : MemoryFootprint.arraySizeInBytes(tree.length, Double.BYTES));
+  }
+
+  @Override
+  int fieldsSizeInBytes() {
+    return super.fieldsSizeInBytes() + MemoryFootprint.REFERENCE_SIZE_IN_BYTES;
+  }
+}
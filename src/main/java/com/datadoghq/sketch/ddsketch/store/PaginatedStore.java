@@ -5,12 +5,13 @@
 
 package com.datadoghq.sketch.ddsketch.store;
 
-import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.encoding.Flag;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
-import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -31,10 +32,18 @@ public final class PaginatedStore implements Store {
   private static final int PAGE_SIZE = 32;
   private static final int PAGE_MASK = PAGE_SIZE - 1;
   private static final int PAGE_SHIFT = Integer.bitCount(PAGE_MASK);
+  private static final long PAGE_SIZE_IN_BYTES =
+      MemoryFootprint.arraySizeInBytes(PAGE_SIZE, Double.BYTES);
 
   private double[][] pages = null;
   private int minPageIndex;
 
+  // Pages are shared with snapshots and copied before being updated. If pagesShared, the array of
+  // pages is shared, and so is every page. Otherwise, if ownedPages is not null, the pages that it
+  // does not flag are shared.
+  private boolean pagesShared = false;
+  private boolean[] ownedPages = null;
+
   public PaginatedStore() {
     this(Integer.MAX_VALUE);
   }
@@ -54,6 +63,26 @@ public final class PaginatedStore implements Store {
     return minPageIndex == Integer.MAX_VALUE;
   }
 
+  @Override
+  public long estimatedSizeInBytes() {
+    long sizeInBytes =
+        MemoryFootprint.objectSizeInBytes(
+            2 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES + Integer.BYTES + 1);
+    if (null != pages) {
+      sizeInBytes +=
+          MemoryFootprint.arraySizeInBytes(pages.length, MemoryFootprint.REFERENCE_SIZE_IN_BYTES);
+      for (final double[] page : pages) {
+        if (null != page) {
+          sizeInBytes += PAGE_SIZE_IN_BYTES;
+        }
+      }
+    }
+    if (null != ownedPages) {
+      sizeInBytes += MemoryFootprint.arraySizeInBytes(ownedPages.length, 1);
+    }
+    return sizeInBytes;
+  }
+
   @Override
   public int getMinIndex() {
     if (null != pages) {
@@ -128,14 +157,95 @@ public final class PaginatedStore implements Store {
     }
   }
 
+  /**
+   * @return the page of the given index, allocated or copied if necessary so that it can be updated
+   */
   private double[] getPage(int pageIndex) {
+    unsharePages();
     double[] page = pages[pageIndex];
-    if (null == page) {
-      page = pages[pageIndex] = new double[PAGE_SIZE];
+    if (null == page || (null != ownedPages && !ownedPages[pageIndex])) {
+      page = null == page ? new double[PAGE_SIZE] : page.clone();
+      setPage(pageIndex, page);
     }
     return page;
   }
 
+  private void setPage(int pageIndex, double[] page) {
+    unsharePages();
+    pages[pageIndex] = page;
+    if (null != ownedPages) {
+      ownedPages[pageIndex] = true;
+    }
+  }
+
+  /** Copies the array of pages if it is shared, so that its pages can be replaced. */
+  private void unsharePages() {
+    if (pagesShared) {
+      pages = pages.clone();
+      ownedPages = new boolean[pages.length];
+      pagesShared = false;
+    }
+  }
+
+  @Override
+  public Store snapshot() {
+    final PaginatedStore snapshot = new PaginatedStore(minPageIndex);
+    if (!isEmpty()) {
+      // Either store copies the array of pages and each page when it first updates them.
+      snapshot.pages = pages;
+      snapshot.pagesShared = true;
+      pagesShared = true;
+    }
+    return snapshot;
+  }
+
+  @Override
+  public void downsample(int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("The downsampling factor must be at least 1.");
+    }
+    if (factor == 1 || isEmpty()) {
+      return;
+    }
+    final double[][] oldPages = pages;
+    final boolean[] oldOwnedPages = pagesShared ? new boolean[pages.length] : ownedPages;
+    final int oldMinPageIndex = minPageIndex;
+    this.pages = null;
+    this.pagesShared = false;
+    this.ownedPages = null;
+    this.minPageIndex = Integer.MAX_VALUE;
+    // Pages are emptied in ascending order and reused, as the downsampled store needs fewer of
+    // them, unless they are shared.
+    final Deque<double[]> emptyPages = new ArrayDeque<>();
+    for (int i = 0; i < oldPages.length; ++i) {
+      final double[] page = oldPages[i];
+      if (null != page) {
+        final boolean isOwned = null == oldOwnedPages || oldOwnedPages[i];
+        for (int j = 0; j < page.length; ++j) {
+          final double count = page[j];
+          if (count != 0) {
+            if (isOwned) {
+              page[j] = 0;
+            }
+            final int alignedIndex =
+                alignedIndex(Math.floorDiv(((i + oldMinPageIndex) << PAGE_SHIFT) + j, factor));
+            final int pageIndex = alignedIndex >>> PAGE_SHIFT;
+            double[] target = pages[pageIndex];
+            if (null == target) {
+              target =
+                  pages[pageIndex] =
+                      emptyPages.isEmpty() ? new double[PAGE_SIZE] : emptyPages.pop();
+            }
+            target[alignedIndex & PAGE_MASK] += count;
+          }
+        }
+        if (isOwned) {
+          emptyPages.push(page);
+        }
+      }
+    }
+  }
+
   private int alignedIndex(int index) {
     // get the index of the page this value should be stored in
     int pageIndex = index < 0 ? ~(-index >>> PAGE_SHIFT) : index >>> PAGE_SHIFT;
@@ -164,6 +274,7 @@ public final class PaginatedStore implements Store {
   private void shiftPagesRight(int pageIndex) {
     int requiredExtension = minPageIndex - pageIndex;
     if (requiredExtension > 0) {
+      unsharePages();
       // check if there is space to shift into
       boolean canShiftRight = true;
       // check if there are enough null slots at the end of the array to shift into
@@ -172,9 +283,18 @@ public final class PaginatedStore implements Store {
       }
       if (canShiftRight) {
         System.arraycopy(pages, 0, pages, requiredExtension, pages.length - requiredExtension);
+        if (null != ownedPages) {
+          System.arraycopy(
+              ownedPages, 0, ownedPages, requiredExtension, ownedPages.length - requiredExtension);
+        }
       } else {
         double[][] newPages = new double[pages.length + aligned(requiredExtension)][];
         System.arraycopy(pages, 0, newPages, requiredExtension, pages.length);
+        if (null != ownedPages) {
+          final boolean[] newOwnedPages = new boolean[newPages.length];
+          System.arraycopy(ownedPages, 0, newOwnedPages, requiredExtension, ownedPages.length);
+          this.ownedPages = newOwnedPages;
+        }
         this.pages = newPages;
       }
       Arrays.fill(pages, 0, requiredExtension, null);
@@ -184,6 +304,12 @@ public final class PaginatedStore implements Store {
 
   private void extendTo(int pageIndex) {
     this.pages = Arrays.copyOf(pages, aligned(pageIndex - minPageIndex + 2));
+    if (pagesShared) {
+      this.ownedPages = new boolean[pages.length];
+      this.pagesShared = false;
+    } else if (null != ownedPages) {
+      this.ownedPages = Arrays.copyOf(ownedPages, pages.length);
+    }
   }
 
   @Override
@@ -194,13 +320,50 @@ public final class PaginatedStore implements Store {
     if (store instanceof PaginatedStore) {
       mergeWith((PaginatedStore) store);
     } else {
-      store.forEach(this::add);
+      // Make room for the range of indexes of the store once, so that counters can then be added
+      // without checking it.
+      alignedIndex(store.getMinIndex());
+      alignedIndex(store.getMaxIndex());
+      if (!CountRuns.forEach(store, this::addRun)) {
+        store.forEach(this::addInRange);
+      }
+    }
+  }
+
+  private void addRun(int fromIndex, double[] runCounts, int fromArrayIndex, int length) {
+    // Pages are only allocated for the non-zero counters.
+    final int fromAlignedIndex = fromIndex + (-minPageIndex << PAGE_SHIFT);
+    for (int i = 0; i < length; i++) {
+      final double count = runCounts[fromArrayIndex + i];
+      if (count != 0) {
+        final int alignedIndex = fromAlignedIndex + i;
+        getPage(alignedIndex >>> PAGE_SHIFT)[alignedIndex & PAGE_MASK] += count;
+      }
+    }
+  }
+
+  private void addInRange(int index, double count) {
+    final int alignedIndex = index + (-minPageIndex << PAGE_SHIFT);
+    getPage(alignedIndex >>> PAGE_SHIFT)[alignedIndex & PAGE_MASK] += count;
+  }
+
+  void forEachRun(CountRuns.Acceptor acceptor) {
+    if (isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < pages.length; ++i) {
+      final double[] page = pages[i];
+      if (null != page) {
+        acceptor.accept((i + minPageIndex) << PAGE_SHIFT, page, 0, PAGE_SIZE);
+      }
     }
   }
 
   private void mergeWith(PaginatedStore store) {
     if (isEmpty()) {
       this.pages = deepCopy(store.pages);
+      this.pagesShared = false;
+      this.ownedPages = null;
       this.minPageIndex = store.minPageIndex;
     } else {
       int min = minPageIndex;
@@ -209,75 +372,111 @@ public final class PaginatedStore implements Store {
       int storeMax = store.minPageIndex + store.pages.length;
       if (max < storeMin) {
         extendTo(storeMax);
-        for (int i = 0; i < store.pages.length; ++i) {
-          double[] page = store.pages[i];
-          if (null != page) {
-            pages[i + storeMin - min] = Arrays.copyOf(page, page.length);
-          }
-        }
       } else if (min > storeMax) {
         shiftPagesRight(storeMin);
-        for (int i = 0; i < store.pages.length; ++i) {
-          double[] page = store.pages[i];
-          if (null != page) {
-            pages[i] = Arrays.copyOf(page, page.length);
-          }
-        }
-      } else if (min < storeMin) {
-        if (storeMax > max) {
-          extendTo(storeMax);
-        }
-        for (int i = 0; i < store.pages.length; ++i) {
-          double[] page = store.pages[i];
-          if (null != page) {
-            double[] target = pages[i + storeMin - min];
-            if (null == target) {
-              pages[i + storeMin - min] = Arrays.copyOf(page, page.length);
-            } else {
-              for (int j = 0; j < page.length; ++j) {
-                target[j] += page[j];
-              }
-            }
-          }
-        }
       } else {
         if (min > storeMin) {
           shiftPagesRight(storeMin);
         }
-        if (storeMax > max) {
+        if (storeMax > minPageIndex + pages.length) {
           extendTo(storeMax);
         }
-        for (int i = 0; i < store.pages.length; ++i) {
-          double[] page = store.pages[i];
-          if (null != page) {
-            double[] target = pages[i];
-            if (null == target) {
-              pages[i] = Arrays.copyOf(page, page.length);
-            } else {
-              for (int j = 0; j < page.length; ++j) {
-                target[j] += page[j];
-              }
-            }
-          }
+      }
+      for (int i = 0; i < store.pages.length; ++i) {
+        double[] page = store.pages[i];
+        if (null != page) {
+          addPage(i + storeMin - minPageIndex, page);
         }
       }
     }
   }
 
+  private void addPage(int pageIndex, double[] page) {
+    if (null == pages[pageIndex]) {
+      setPage(pageIndex, Arrays.copyOf(page, page.length));
+    } else {
+      CountRuns.add(getPage(pageIndex), 0, page, 0, PAGE_SIZE);
+    }
+  }
+
   @Override
   public Store copy() {
     return new PaginatedStore(this);
   }
 
+  @Override
+  public void trimToSize() {
+    if (null == pages) {
+      return;
+    }
+    int first = -1;
+    int last = -1;
+    boolean hasEmptyPages = false;
+    for (int i = 0; i < pages.length; ++i) {
+      if (null != pages[i]) {
+        if (isZero(pages[i])) {
+          hasEmptyPages = true;
+        } else {
+          if (first < 0) {
+            first = i;
+          }
+          last = i;
+        }
+      }
+    }
+    if (first < 0) {
+      // The store is empty, possibly after having been cleared.
+      pages = null;
+      pagesShared = false;
+      ownedPages = null;
+      minPageIndex = Integer.MAX_VALUE;
+      return;
+    }
+    if (!hasEmptyPages && first == 0 && last == pages.length - 1) {
+      return;
+    }
+    // Shared pages remain shared, but the array of pages is not anymore.
+    final double[][] trimmedPages = Arrays.copyOfRange(pages, first, last + 1);
+    for (int i = 0; i < trimmedPages.length; ++i) {
+      if (null != trimmedPages[i] && isZero(trimmedPages[i])) {
+        trimmedPages[i] = null;
+      }
+    }
+    if (pagesShared) {
+      ownedPages = new boolean[trimmedPages.length];
+      pagesShared = false;
+    } else if (null != ownedPages) {
+      ownedPages = Arrays.copyOfRange(ownedPages, first, last + 1);
+    }
+    pages = trimmedPages;
+    minPageIndex += first;
+  }
+
+  private static boolean isZero(double[] page) {
+    for (final double count : page) {
+      if (count != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public void clear() {
-    if (null != pages) {
-      for (double[] page : pages) {
-        if (null != page) {
-          Arrays.fill(page, 0D);
+    if (pagesShared) {
+      // The pages are left to the stores that share them.
+      pages = null;
+      pagesShared = false;
+    } else if (null != pages) {
+      for (int i = 0; i < pages.length; ++i) {
+        if (null != ownedPages && !ownedPages[i]) {
+          pages[i] = null;
+        } else if (null != pages[i]) {
+          Arrays.fill(pages[i], 0D);
         }
       }
     }
+    ownedPages = null;
     minPageIndex = Integer.MAX_VALUE;
   }
 
@@ -291,6 +490,46 @@ public final class PaginatedStore implements Store {
     return new DescendingIterator();
   }
 
+  @Override
+  public BinCursor getAscendingCursor() {
+
+    return new BinCursor() {
+
+      private int pageIndex = 0;
+      private int valueIndex = -1;
+      private double count;
+
+      @Override
+      public boolean next() {
+        if (null == pages) {
+          return false;
+        }
+        for (; pageIndex < pages.length; ++pageIndex, valueIndex = -1) {
+          final double[] page = pages[pageIndex];
+          if (null != page) {
+            while (++valueIndex < page.length) {
+              if (page[valueIndex] != 0D) {
+                count = page[valueIndex];
+                return true;
+              }
+            }
+          }
+        }
+        return false;
+      }
+
+      @Override
+      public int getIndex() {
+        return ((pageIndex + minPageIndex) << PAGE_SHIFT) + valueIndex;
+      }
+
+      @Override
+      public double getCount() {
+        return count;
+      }
+    };
+  }
+
   private static int aligned(int required) {
     return (required + GROWTH - 1) & -GROWTH;
   }
@@ -426,18 +665,13 @@ public final class PaginatedStore implements Store {
     if (isEmpty()) {
       return;
     }
+    final BinRunEncoder encoder = new BinRunEncoder();
     for (int i = 0; i < pages.length; ++i) {
       final double[] page = pages[i];
-      // TODO: skip non-null empty pages
       if (null != page) {
-        BinEncodingMode.CONTIGUOUS_COUNTS.toFlag(storeFlagType).encode(output);
-        VarEncodingHelper.encodeUnsignedVarLong(output, page.length);
-        VarEncodingHelper.encodeSignedVarLong(output, (long) (i + minPageIndex) << PAGE_SHIFT);
-        VarEncodingHelper.encodeSignedVarLong(output, 1);
-        for (final double count : page) {
-          VarEncodingHelper.encodeVarDouble(output, count);
-        }
+        encoder.addSegment(page, 0, page.length - 1, (i + minPageIndex) << PAGE_SHIFT);
       }
     }
+    encoder.encode(output, storeFlagType);
   }
 }
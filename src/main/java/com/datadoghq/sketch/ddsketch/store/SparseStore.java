@@ -5,6 +5,7 @@
 
 package com.datadoghq.sketch.ddsketch.store;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
 import com.datadoghq.sketch.ddsketch.encoding.Flag;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
@@ -18,6 +19,17 @@ import java.util.TreeMap;
 
 public class SparseStore implements Store {
 
+  // A TreeMap holds 7 references and 2 ints, and each of its entries holds 5 references and a
+  // boolean, and references a boxed index and a boxed count. Small boxed indexes are actually
+  // cached by Integer.valueOf, hence shared, which is negligible for large stores.
+  private static final long TREE_MAP_SIZE_IN_BYTES =
+      MemoryFootprint.objectSizeInBytes(
+          7 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 2 * Integer.BYTES);
+  private static final long BIN_SIZE_IN_BYTES =
+      MemoryFootprint.objectSizeInBytes(5 * MemoryFootprint.REFERENCE_SIZE_IN_BYTES + 1)
+          + MemoryFootprint.objectSizeInBytes(Integer.BYTES)
+          + MemoryFootprint.objectSizeInBytes(Double.BYTES);
+
   private final NavigableMap<Integer, Double> bins;
 
   public SparseStore() {
@@ -52,6 +64,16 @@ public class SparseStore implements Store {
     bins.merge(bin.getIndex(), bin.getCount(), Double::sum);
   }
 
+  @Override
+  public void mergeWith(Store store) {
+    if (store instanceof SparseStore && bins.isEmpty()) {
+      // Copying a sorted map into an empty one takes linear time.
+      bins.putAll(((SparseStore) store).bins);
+    } else {
+      store.forEach(this::add);
+    }
+  }
+
   @Override
   public Store copy() {
     return new SparseStore(this);
@@ -62,6 +84,18 @@ public class SparseStore implements Store {
     this.bins.clear();
   }
 
+  @Override
+  public boolean isEmpty() {
+    return bins.isEmpty();
+  }
+
+  @Override
+  public long estimatedSizeInBytes() {
+    return MemoryFootprint.objectSizeInBytes(MemoryFootprint.REFERENCE_SIZE_IN_BYTES)
+        + TREE_MAP_SIZE_IN_BYTES
+        + bins.size() * BIN_SIZE_IN_BYTES;
+  }
+
   @Override
   public int getMinIndex() {
     return bins.firstKey();
@@ -87,6 +121,39 @@ public class SparseStore implements Store {
     return getBinIterator(bins.descendingMap());
   }
 
+  @Override
+  public BinCursor getAscendingCursor() {
+
+    final Iterator<Entry<Integer, Double>> iterator = bins.entrySet().iterator();
+
+    return new BinCursor() {
+
+      private int index;
+      private double count;
+
+      @Override
+      public boolean next() {
+        if (!iterator.hasNext()) {
+          return false;
+        }
+        final Entry<Integer, Double> nextEntry = iterator.next();
+        index = nextEntry.getKey();
+        count = nextEntry.getValue();
+        return true;
+      }
+
+      @Override
+      public int getIndex() {
+        return index;
+      }
+
+      @Override
+      public double getCount() {
+        return count;
+      }
+    };
+  }
+
   private static Iterator<Bin> getBinIterator(Map<Integer, Double> bins) {
 
     final Iterator<Entry<Integer, Double>> iterator = bins.entrySet().iterator();
@@ -110,13 +177,39 @@ public class SparseStore implements Store {
     if (isEmpty()) {
       return;
     }
-    BinEncodingMode.INDEX_DELTAS_AND_COUNTS.toFlag(storeFlagType).encode(output);
+    final boolean varLongCounts = isVarLongEncodingMoreCompact();
+    (varLongCounts
+            ? BinEncodingMode.INDEX_DELTAS_AND_VARINT_COUNTS
+            : BinEncodingMode.INDEX_DELTAS_AND_COUNTS)
+        .toFlag(storeFlagType)
+        .encode(output);
     VarEncodingHelper.encodeUnsignedVarLong(output, bins.size());
     long previousIndex = 0;
     for (final Entry<Integer, Double> entry : bins.entrySet()) {
       VarEncodingHelper.encodeSignedVarLong(output, entry.getKey() - previousIndex);
-      VarEncodingHelper.encodeVarDouble(output, entry.getValue());
+      if (varLongCounts) {
+        VarEncodingHelper.encodeUnsignedVarLong(output, entry.getValue().longValue());
+      } else {
+        VarEncodingHelper.encodeVarDouble(output, entry.getValue());
+      }
       previousIndex = entry.getKey();
     }
   }
+
+  /**
+   * @return {@code true} iff the counts are all non-negative integers and encoding them as varints
+   *     takes fewer bytes than encoding them as varfloats
+   */
+  private boolean isVarLongEncodingMoreCompact() {
+    long varDoubleEncodingSize = 0;
+    long varLongEncodingSize = 0;
+    for (final double count : bins.values()) {
+      if (!VarEncodingHelper.isUnsignedVarLongEncodable(count)) {
+        return false;
+      }
+      varDoubleEncodingSize += VarEncodingHelper.varDoubleEncodedLength(count);
+      varLongEncodingSize += VarEncodingHelper.unsignedVarLongEncodedLength((long) count);
+    }
+    return varLongEncodingSize < varDoubleEncodingSize;
+  }
 }
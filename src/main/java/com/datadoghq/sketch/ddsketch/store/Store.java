@@ -7,6 +7,7 @@ package com.datadoghq.sketch.ddsketch.store;
 
 import static com.datadoghq.sketch.ddsketch.Serializer.sizeOfBin;
 
+import com.datadoghq.sketch.MemoryFootprint;
 import com.datadoghq.sketch.ddsketch.Serializer;
 import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
 import com.datadoghq.sketch.ddsketch.encoding.Flag;
@@ -14,6 +15,7 @@ import com.datadoghq.sketch.ddsketch.encoding.Input;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
 import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Spliterators;
@@ -74,15 +76,64 @@ public interface Store {
     store.forEach(this::add);
   }
 
+  /**
+   * Merges every {@code factor} adjacent bins of this store into a single bin, namely, moves the
+   * count of each index {@code i} to the index {@code Math.floorDiv(i, factor)}. This is what a
+   * sketch requires for its stores to match a mapping that has been downsampled with {@link
+   * com.datadoghq.sketch.ddsketch.mapping.IndexMapping#downsample(int)}.
+   *
+   * @param factor the number of adjacent bins that are merged into a single bin
+   * @throws IllegalArgumentException if {@code factor} is less than 1
+   */
+  default void downsample(int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("The downsampling factor must be at least 1.");
+    }
+    if (factor == 1 || isEmpty()) {
+      return;
+    }
+    final Store bins = copy();
+    clear();
+    bins.forEach((index, count) -> add(Math.floorDiv(index, factor), count));
+  }
+
   /** @return a (deep) copy of this store */
   Store copy();
 
+  /**
+   * Returns a snapshot of this store, that is, a store that holds the counters of this store at the
+   * time of the call and that is not affected by subsequent updates of this store, and conversely.
+   * Unlike {@link #copy()}, some stores share their counters with their snapshots, which makes
+   * taking a snapshot take constant time, and only copy them when either store is next updated,
+   * possibly in parts (see {@link PaginatedStore}).
+   *
+   * <p>Neither this store nor the snapshot is thread-safe, but the snapshot can be read by a thread
+   * while this store keeps being updated by another one, provided that the snapshot has been safely
+   * published.
+   *
+   * @return a snapshot of this store
+   */
+  default Store snapshot() {
+    return copy();
+  }
+
   /**
    * Zeros all counts in the store. The store behaves as if empty after this call, but no underlying
    * storage is released.
    */
   void clear();
 
+  /**
+   * Releases the memory that this store holds beyond what it needs for its non-zero counters, such
+   * as the capacity that arrays have been allocated with to grow without being copied, or the
+   * storage that {@link #clear()} does not release. This is worth it for stores that are not
+   * updated anymore and kept in memory for a while. The store can still be updated afterwards, in
+   * which case it grows again.
+   *
+   * <p>The default implementation does nothing.
+   */
+  default void trimToSize() {}
+
   /** @return {@code true} iff the {@code Store} does not contain any non-zero counter */
   default boolean isEmpty() {
     return getStream().mapToDouble(Bin::getCount).allMatch(count -> count == 0);
@@ -93,6 +144,26 @@ public interface Store {
     return getStream().mapToDouble(Bin::getCount).sum();
   }
 
+  /**
+   * Returns an estimate of the memory that this store uses, that is, of the total size of this
+   * store and of the objects that it holds (see {@link MemoryFootprint}). The built-in stores
+   * compute it in constant time, or, for {@link PaginatedStore}, in time linear in the number of
+   * pages. Counters that are shared with snapshots (see {@link #snapshot()}) are accounted for by
+   * every store that shares them.
+   *
+   * <p>The default implementation assumes that the store holds an array with a counter for each
+   * index between the lowest and the highest indexes of the non-zero counters.
+   *
+   * @return the estimated size of this store, in bytes
+   */
+  default long estimatedSizeInBytes() {
+    if (isEmpty()) {
+      return MemoryFootprint.objectSizeInBytes(0);
+    }
+    return MemoryFootprint.objectSizeInBytes(MemoryFootprint.REFERENCE_SIZE_IN_BYTES)
+        + MemoryFootprint.arraySizeInBytes((long) getMaxIndex() - getMinIndex() + 1, Double.BYTES);
+  }
+
   /**
    * @return the index of the lowest non-zero counter
    * @throws java.util.NoSuchElementException if the store is empty
@@ -117,6 +188,77 @@ public interface Store {
         .getIndex();
   }
 
+  /**
+   * @param index an index
+   * @return the sum of the counters of the indexes that are less than or equal to {@code index}
+   */
+  default double getCountUpTo(int index) {
+    double count = 0;
+    final Iterator<Bin> iterator = getAscendingIterator();
+    while (iterator.hasNext()) {
+      final Bin bin = iterator.next();
+      if (bin.getIndex() > index) {
+        break;
+      }
+      count += bin.getCount();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the index of the bin of a given rank when bins are sorted in ascending order of index,
+   * that is to say, the lowest index whose counter, summed with the counters of the lower indexes,
+   * is greater than {@code rank}.
+   *
+   * @param rank a rank, starting from zero
+   * @return the lowest index such that {@code getCountUpTo(index) > rank} or, if {@code rank} is
+   *     not less than the total count, the highest index of the store
+   * @throws NoSuchElementException if the store is empty
+   */
+  default int getIndexAtRank(double rank) {
+    double n = 0;
+    Bin bin = null;
+    final Iterator<Bin> iterator = getAscendingIterator();
+    while (iterator.hasNext()) {
+      bin = iterator.next();
+      if ((n += bin.getCount()) > rank) {
+        return bin.getIndex();
+      }
+    }
+    if (bin == null) {
+      throw new NoSuchElementException();
+    }
+    // The rank is not less than the total count, possibly because of rounding errors.
+    return bin.getIndex();
+  }
+
+  /**
+   * Returns the index of the bin of a given rank when bins are sorted in descending order of index,
+   * that is to say, the highest index whose counter, summed with the counters of the higher
+   * indexes, is greater than {@code rank}.
+   *
+   * @param rank a rank, starting from zero
+   * @return the highest index such that {@code getTotalCount() - getCountUpTo(index - 1) > rank}
+   *     or, if {@code rank} is not less than the total count, the lowest index of the store
+   * @throws NoSuchElementException if the store is empty
+   */
+  default int getIndexAtDescendingRank(double rank) {
+    double n = 0;
+    Bin bin = null;
+    final Iterator<Bin> iterator = getDescendingIterator();
+    while (iterator.hasNext()) {
+      bin = iterator.next();
+      if ((n += bin.getCount()) > rank) {
+        return bin.getIndex();
+      }
+    }
+    if (bin == null) {
+      throw new NoSuchElementException();
+    }
+    // The rank is not less than the total count, possibly because of rounding errors.
+    return bin.getIndex();
+  }
+
   /**
    * Supplies each bin to the acceptor
    *
@@ -126,6 +268,37 @@ public interface Store {
     getStream().forEach(bin -> acceptor.accept(bin.getIndex(), bin.getCount()));
   }
 
+  /**
+   * Lets the store allocate upfront the memory that it needs to hold the counters of a range of
+   * indexes, so that it does not need to grow while the first values are added, for instance if the
+   * range of the values is known in advance or has been observed on a previous sketch of the same
+   * series. This does not change the content of the store, and indexes outside the range can still
+   * be added. This has no effect by default, nor on a store that is not empty.
+   *
+   * @param minIndex the lowest index that the store is expected to hold
+   * @param maxIndex the highest index that the store is expected to hold
+   */
+  default void reserve(int minIndex, int maxIndex) {}
+
+  /**
+   * Copies the counters of a contiguous range of indexes into an array, rounding them to the
+   * nearest integer. The counter of the index {@code fromIndex + i} is copied into {@code
+   * counts[i]}, and is zero if the store does not hold it.
+   *
+   * @param fromIndex the index whose counter is copied into {@code counts[0]}
+   * @param counts the array to copy the counters into
+   */
+  default void copyCountsTo(int fromIndex, long[] counts) {
+    Arrays.fill(counts, 0);
+    forEach(
+        (index, count) -> {
+          final long i = (long) index - fromIndex;
+          if (i >= 0 && i < counts.length) {
+            counts[(int) i] = Math.round(count);
+          }
+        });
+  }
+
   /** @return a stream with the non-empty bins of this store as its source */
   default Stream<Bin> getStream() {
     return getAscendingStream();
@@ -163,6 +336,13 @@ public interface Store {
   // Needed because of JDK-8194952
   Iterator<Bin> getDescendingIterator();
 
+  /**
+   * @return a cursor that moves over the non-empty bins of this store, from lowest to highest index
+   */
+  default BinCursor getAscendingCursor() {
+    return BinCursor.of(getAscendingIterator());
+  }
+
   void encode(Output output, Flag.Type storeFlagType) throws IOException;
 
   default void decodeAndMergeWith(Input input, BinEncodingMode encodingMode) throws IOException {
@@ -201,6 +381,29 @@ public interface Store {
           }
         }
         break;
+      case INDEX_DELTAS_AND_VARINT_COUNTS:
+        {
+          final long numBins = VarEncodingHelper.decodeUnsignedVarLong(input);
+          long index = 0;
+          for (long i = 0; i != numBins; i++) {
+            final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+            final long count = VarEncodingHelper.decodeUnsignedVarLong(input);
+            index += indexDelta;
+            add(Math.toIntExact(index), count);
+          }
+        }
+        break;
+      case CONTIGUOUS_VARINT_COUNTS:
+        {
+          final long numBins = VarEncodingHelper.decodeUnsignedVarLong(input);
+          long index = VarEncodingHelper.decodeSignedVarLong(input);
+          final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+          for (long i = 0; i != numBins; i++, index += indexDelta) {
+            final long count = VarEncodingHelper.decodeUnsignedVarLong(input);
+            add(Math.toIntExact(index), count);
+          }
+        }
+        break;
       default:
         throw new IllegalStateException("The bin encoding mode is not handled.");
     }
@@ -215,4 +418,16 @@ public interface Store {
   default void serialize(Serializer serializer) {
     forEach((index, count) -> serializer.writeBin(1, index, count));
   }
+
+  /**
+   * Returns an immutable store that holds no bins. It is shared, and meant to stand for a store
+   * that has not been allocated yet, so that it can be read, iterated over and encoded. Adding
+   * counts to it, or merging a non-empty store into it, throws an {@link
+   * UnsupportedOperationException}.
+   *
+   * @return the empty store
+   */
+  static Store empty() {
+    return EmptyStore.INSTANCE;
+  }
 }
@@ -0,0 +1,41 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+/**
+ * A {@link CircularDenseStore} whose array grows as needed to hold the full range of indexes, as
+ * {@link UnboundedSizeDenseStore} does.
+ */
+public class UnboundedSizeCircularDenseStore extends CircularDenseStore {
+
+  public UnboundedSizeCircularDenseStore() {
+    super();
+  }
+
+  private UnboundedSizeCircularDenseStore(UnboundedSizeCircularDenseStore store) {
+    super(store);
+  }
+
+  @Override
+  int normalize(int index) {
+    if (index < minIndex || index > maxIndex) {
+      extendRange(index, index);
+    }
+    return index;
+  }
+
+  @Override
+  void normalizeRange(int newMinIndex, int newMaxIndex) {
+    if (newMinIndex < minIndex || newMaxIndex > maxIndex) {
+      extendRange(newMinIndex, newMaxIndex);
+    }
+  }
+
+  @Override
+  public Store copy() {
+    return new UnboundedSizeCircularDenseStore(this);
+  }
+}
@@ -19,7 +19,7 @@ public class UnboundedSizeDenseStore extends DenseStore {
     super(arrayLengthGrowthIncrement, arrayLengthOverhead);
   }
 
-  private UnboundedSizeDenseStore(UnboundedSizeDenseStore store) {
+  UnboundedSizeDenseStore(UnboundedSizeDenseStore store) {
     super(store);
   }
 
@@ -38,30 +38,6 @@ public class UnboundedSizeDenseStore extends DenseStore {
     centerCounts(newMinIndex, newMaxIndex);
   }
 
-  @Override
-  public void mergeWith(Store store) {
-    if (store instanceof UnboundedSizeDenseStore) {
-      mergeWith((UnboundedSizeDenseStore) store);
-    } else {
-      super.mergeWith(store);
-    }
-  }
-
-  private void mergeWith(UnboundedSizeDenseStore store) {
-
-    if (store.isEmpty()) {
-      return;
-    }
-
-    if (store.minIndex < minIndex || store.maxIndex > maxIndex) {
-      extendRange(store.minIndex, store.maxIndex);
-    }
-
-    for (int index = store.minIndex; index <= store.maxIndex; index++) {
-      counts[index - offset] += store.counts[index - store.offset];
-    }
-  }
-
   @Override
   public Store copy() {
     return new UnboundedSizeDenseStore(this);
@@ -11,10 +11,14 @@ public class IndexMappingProtoBinding {
 
   public static IndexMapping toProto(
       com.datadoghq.sketch.ddsketch.mapping.IndexMapping indexMapping) {
-    if (indexMapping instanceof LogLikeIndexMapping) {
+    if (indexMapping instanceof CachedValueIndexMapping) {
+      return toProto(CachedValueIndexMapping.unwrap(indexMapping));
+    } else if (indexMapping instanceof LogLikeIndexMapping) {
       return toProtoLogLike((LogLikeIndexMapping) indexMapping);
     } else if (indexMapping instanceof BitwiseLinearlyInterpolatedMapping) {
       return toProtoBitwiseLinear((BitwiseLinearlyInterpolatedMapping) indexMapping);
+    } else if (indexMapping instanceof Base2ExponentialMapping) {
+      return toProtoBase2Exponential((Base2ExponentialMapping) indexMapping);
     } else {
       throw new IllegalArgumentException("Unknown indexmapping " + indexMapping.getClass());
     }
@@ -36,6 +40,13 @@ public class IndexMappingProtoBinding {
         .build();
   }
 
+  private static IndexMapping toProtoBase2Exponential(Base2ExponentialMapping indexMapping) {
+    return com.datadoghq.sketch.ddsketch.proto.IndexMapping.newBuilder()
+        .setGamma(indexMapping.gamma())
+        .setInterpolation(com.datadoghq.sketch.ddsketch.proto.IndexMapping.Interpolation.NONE)
+        .build();
+  }
+
   public static LogLikeIndexMapping fromProto(
       com.datadoghq.sketch.ddsketch.proto.IndexMapping proto) {
     final double gamma = proto.getGamma();
@@ -18,6 +18,9 @@ public class StoreProtoBinding {
     if (store instanceof DenseStore) {
       return toProtoDense((DenseStore) store);
     }
+    if (store instanceof CircularDenseStore) {
+      return toProtoDense((CircularDenseStore) store);
+    }
     return toProtoSparse(store);
   }
 
@@ -42,6 +45,18 @@ public class StoreProtoBinding {
     return builder.build();
   }
 
+  private static com.datadoghq.sketch.ddsketch.proto.Store toProtoDense(CircularDenseStore store) {
+    final com.datadoghq.sketch.ddsketch.proto.Store.Builder builder =
+        com.datadoghq.sketch.ddsketch.proto.Store.newBuilder();
+    if (!store.isEmpty()) {
+      builder.setContiguousBinIndexOffset(store.minIndex);
+      for (long index = store.minIndex; index <= store.maxIndex; index++) {
+        builder.addContiguousBinCounts(store.counts[(int) index & (store.counts.length - 1)]);
+      }
+    }
+    return builder.build();
+  }
+
   /**
    * Builds a new instance of {@code Store} based on the provided protobuf representation.
    *
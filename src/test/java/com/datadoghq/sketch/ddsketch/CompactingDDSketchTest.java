@@ -0,0 +1,214 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.offset;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.datadoghq.sketch.QuantileSketchTest;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class CompactingDDSketchTest extends QuantileSketchTest<CompactingDDSketch> {
+
+  private static final double RELATIVE_ACCURACY = 1e-2;
+
+  @Override
+  protected CompactingDDSketch newSketch() {
+    return new CompactingDDSketch(DDSketches.unboundedDense(RELATIVE_ACCURACY));
+  }
+
+  @Override
+  protected void assertQuantileAccurate(
+      boolean merged, double[] sortedValues, double quantile, double actualQuantileValue) {
+    DDSketchTest.assertQuantileAccurate(
+        sortedValues, quantile, actualQuantileValue, RELATIVE_ACCURACY);
+  }
+
+  @Override
+  protected void assertMinAccurate(double[] sortedValues, double actualMinValue) {
+    DDSketchTest.assertAccurate(
+        sortedValues[0], sortedValues[0], actualMinValue, RELATIVE_ACCURACY);
+  }
+
+  @Override
+  protected void assertMaxAccurate(double[] sortedValues, double actualMaxValue) {
+    final double maxValue = sortedValues[sortedValues.length - 1];
+    DDSketchTest.assertAccurate(maxValue, maxValue, actualMaxValue, RELATIVE_ACCURACY);
+  }
+
+  @Override
+  protected void assertSumAccurate(double[] sortedValues, double actualSumValue) {
+    // The sum is accurate if the values that have been added to the sketch have same sign.
+    if (sortedValues[0] >= 0 || sortedValues[sortedValues.length - 1] <= 0) {
+      final double sum = Arrays.stream(sortedValues).sum();
+      DDSketchTest.assertAccurate(sum, sum, actualSumValue, RELATIVE_ACCURACY);
+    }
+  }
+
+  @Override
+  protected void assertAverageAccurate(double[] sortedValues, double actualAverageValue) {
+    // The average is accurate if the values that have been added to the sketch have same sign.
+    if (sortedValues[0] >= 0 || sortedValues[sortedValues.length - 1] <= 0) {
+      final double average = Arrays.stream(sortedValues).average().getAsDouble();
+      DDSketchTest.assertAccurate(average, average, actualAverageValue, RELATIVE_ACCURACY);
+    }
+  }
+
+  @Override
+  protected void test(boolean merged, double[] values, CompactingDDSketch sketch) {
+    assertEncodes(merged, values, sketch);
+    final byte[] encoded = encode(sketch);
+
+    // Queries are answered without hydrating the sketch.
+    final CompactingDDSketch compacted = sketch.copy();
+    assertThat(compacted.compact()).isTrue();
+    assertThat(compacted.compact()).isFalse();
+    assertEncodes(merged, values, compacted);
+    assertThat(encode(compacted)).containsExactly(encoded);
+    assertThat(compacted.copy().isCompacted()).isTrue();
+    assertThat(compacted.isCompacted()).isTrue();
+    assertThat(compacted.getHydrationCount()).isZero();
+
+    // Merging a compacted sketch does not hydrate it.
+    final CompactingDDSketch mergedInto = newSketch();
+    mergedInto.mergeWith(compacted);
+    assertThat(compacted.isCompacted()).isTrue();
+    assertEncodes(merged, values, mergedInto);
+
+    // Updating a compacted sketch hydrates it.
+    compacted.accept(0, 0);
+    assertThat(compacted.isCompacted()).isFalse();
+    assertThat(compacted.getHydrationCount()).isEqualTo(1);
+    assertEncodes(merged, values, compacted);
+    assertThat(encode(compacted)).containsExactly(encoded);
+  }
+
+  private static byte[] encode(CompactingDDSketch sketch) {
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      sketch.encode(output, false);
+    } catch (IOException e) {
+      fail(e);
+    }
+    return output.trimmedCopy();
+  }
+
+  @Test
+  void testCompactIfIdle() {
+    final long[] nanoTime = {0};
+    final CompactingDDSketch sketch =
+        new CompactingDDSketch(DDSketches.unboundedDense(RELATIVE_ACCURACY), 10, () -> nanoTime[0]);
+    sketch.accept(1.5);
+
+    nanoTime[0] = 5;
+    assertThat(sketch.compactIfIdle()).isFalse();
+    nanoTime[0] = 14;
+    assertThat(sketch.compactIfIdle()).isFalse();
+    nanoTime[0] = 15;
+    assertThat(sketch.compactIfIdle()).isTrue();
+    assertThat(sketch.isCompacted()).isTrue();
+    assertThat(sketch.getCompactionCount()).isEqualTo(1);
+    assertThat(sketch.compactIfIdle()).isFalse();
+
+    sketch.accept(2.5);
+    assertThat(sketch.isCompacted()).isFalse();
+    assertThat(sketch.getHydrationCount()).isEqualTo(1);
+    assertThat(sketch.getCount()).isEqualTo(2);
+    nanoTime[0] = 16;
+    assertThat(sketch.compactIfIdle()).isFalse();
+    nanoTime[0] = 25;
+    assertThat(sketch.compactIfIdle()).isFalse();
+    nanoTime[0] = 26;
+    assertThat(sketch.compactIfIdle()).isTrue();
+    assertThat(sketch.getCompactionCount()).isEqualTo(2);
+    assertThat(sketch.getCount()).isEqualTo(2);
+
+    final CompactingDDSketch neverIdle = newSketch();
+    assertThat(neverIdle.compactIfIdle()).isFalse();
+    assertThat(neverIdle.compact()).isTrue();
+  }
+
+  @Test
+  void testCompactedSketchKeepsStoresAndMapping() {
+    final double[] values = IntStream.range(0, 10_000).mapToDouble(i -> 1 + i * 0.37).toArray();
+    final CompactingDDSketch sketch =
+        new CompactingDDSketch(
+            new DDSketch(
+                new LogarithmicMapping(RELATIVE_ACCURACY),
+                () -> new CollapsingLowestDenseStore(100)));
+    Arrays.stream(values).forEach(sketch);
+    final DDSketch expected = sketch.toDDSketch();
+    final long hydratedSizeInBytes = sketch.estimatedSizeInBytes();
+    sketch.compact();
+    assertThat(sketch.estimatedSizeInBytes()).isLessThan(hydratedSizeInBytes);
+    assertThat(sketch.toDDSketch().getValuesAtQuantiles(new double[] {0, 0.5, 1}))
+        .containsExactly(expected.getValuesAtQuantiles(new double[] {0, 0.5, 1}));
+    assertThat(sketch.getSum()).isEqualTo(expected.getSum());
+
+    // Hydrated stores are of the same type, hence collapse the same way.
+    sketch.accept(0.5);
+    expected.accept(0.5);
+    assertThat(sketch.toDDSketch().getPositiveValueStore().getClass())
+        .isEqualTo(CollapsingLowestDenseStore.class);
+    assertThat(sketch.getValuesAtQuantiles(new double[] {0, 0.5, 1}))
+        .containsExactly(expected.getValuesAtQuantiles(new double[] {0, 0.5, 1}));
+  }
+
+  @Test
+  void testMergeWithItself() {
+    final CompactingDDSketch sketch = newSketch();
+    IntStream.range(1, 100).forEach(sketch::accept);
+    final double sum = sketch.getSum();
+    sketch.compact();
+    assertThat(sketch.getSum()).isEqualTo(sum);
+    sketch.mergeWith(sketch);
+    assertThat(sketch.isCompacted()).isFalse();
+    assertThat(sketch.getCount()).isEqualTo(2 * 99);
+    assertThat(sketch.getSum()).isEqualTo(2 * sum, offset(1e-9 * sum));
+
+    sketch.compact();
+    sketch.downsample(1);
+    assertThat(sketch.getSum()).isEqualTo(2 * sum, offset(1e-9 * sum));
+    sketch.clear();
+    assertThat(sketch.getSum()).isZero();
+  }
+
+  @Test
+  void testClearCompacted() {
+    final CompactingDDSketch sketch = newSketch();
+    sketch.accept(1);
+    sketch.compact();
+    sketch.clear();
+    assertThat(sketch.isCompacted()).isTrue();
+    assertThat(sketch.isEmpty()).isTrue();
+    assertThat(sketch.getCount()).isZero();
+    sketch.accept(2);
+    assertThat(sketch.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testMergingWithDifferentIndexMappings() {
+    final CompactingDDSketch sketch = newSketch();
+    final CompactingDDSketch other =
+        new CompactingDDSketch(
+            new DDSketch(new LogarithmicMapping(0.05), UnboundedSizeDenseStore::new));
+    other.compact();
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> sketch.mergeWith(other));
+    sketch.compact();
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> other.mergeWith(sketch));
+  }
+}
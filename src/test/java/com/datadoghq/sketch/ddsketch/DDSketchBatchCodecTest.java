@@ -0,0 +1,132 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import static com.datadoghq.sketch.ddsketch.TestHelper.BIN_COMPARISON_CONFIG;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.store.SparseStore;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class DDSketchBatchCodecTest {
+
+  private static final IndexMapping MAPPING = new CubicallyInterpolatedMapping(0.01);
+
+  @Test
+  void testEncodeDecode() throws IOException {
+    final List<DDSketch> sketches = sketches(200);
+    final byte[] encoded = encode(sketches);
+
+    final List<DDSketch> decoded =
+        DDSketchBatchCodec.decode(ByteArrayInput.wrap(encoded), UnboundedSizeDenseStore::new);
+    assertThat(decoded).hasSameSizeAs(sketches);
+    for (int i = 0; i < sketches.size(); i++) {
+      assertSameContent(decoded.get(i), sketches.get(i));
+    }
+  }
+
+  @Test
+  void testDecodeSingleSketch() throws IOException {
+    final List<DDSketch> sketches = sketches(50);
+    final byte[] encoded = encode(sketches);
+
+    for (int i = 0; i < sketches.size(); i++) {
+      final Input input = ByteArrayInput.wrap(encoded);
+      assertSameContent(DDSketchBatchCodec.decode(input, SparseStore::new, i), sketches.get(i));
+    }
+    assertThatExceptionOfType(IndexOutOfBoundsException.class)
+        .isThrownBy(
+            () ->
+                DDSketchBatchCodec.decode(
+                    ByteArrayInput.wrap(encoded), SparseStore::new, sketches.size()));
+  }
+
+  @Test
+  void testEmptyBatch() throws IOException {
+    final byte[] encoded = encode(Collections.emptyList());
+    assertThat(DDSketchBatchCodec.decode(ByteArrayInput.wrap(encoded), SparseStore::new)).isEmpty();
+  }
+
+  @Test
+  void testTruncatedBatch() throws IOException {
+    // The header claims far more sketches than the input holds.
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    MAPPING.encode(output);
+    VarEncodingHelper.encodeUnsignedVarLong(output, Integer.MAX_VALUE / 2);
+    VarEncodingHelper.encodeVarDouble(output, 0);
+    final byte[] encoded = output.trimmedCopy();
+    assertThatExceptionOfType(EOFException.class)
+        .isThrownBy(
+            () -> DDSketchBatchCodec.decode(ByteArrayInput.wrap(encoded), SparseStore::new));
+  }
+
+  @Test
+  void testMismatchingIndexMappings() {
+    final List<DDSketch> sketches = sketches(2);
+    sketches.add(DDSketches.unboundedDense(0.02));
+    assertThatIllegalArgumentException().isThrownBy(() -> encode(sketches));
+  }
+
+  @Test
+  void testMoreCompactThanIndividualEncodings() throws IOException {
+    final List<DDSketch> sketches = sketches(200);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    for (final DDSketch sketch : sketches) {
+      sketch.encode(output, false);
+    }
+    assertThat(encode(sketches).length).isLessThan(output.numWrittenBytes());
+  }
+
+  private static List<DDSketch> sketches(int numSketches) {
+    final Random random = new Random(7);
+    final List<DDSketch> sketches = new ArrayList<>();
+    for (int i = 0; i < numSketches; i++) {
+      final DDSketch sketch = new DDSketch(MAPPING, UnboundedSizeDenseStore::new);
+      // Some sketches are empty, some have non-integer counts.
+      final int numValues = i % 10 == 0 ? 0 : random.nextInt(1000);
+      final double count = i % 3 == 0 ? 0.5 : 1;
+      final double shift = (i % 4 - 1) * 50;
+      IntStream.range(0, numValues)
+          .forEach(j -> sketch.accept(random.nextGaussian() * 100 + shift, count));
+      sketches.add(sketch);
+    }
+    return sketches;
+  }
+
+  private static byte[] encode(List<DDSketch> sketches) throws IOException {
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    DDSketchBatchCodec.encode(output, MAPPING, sketches);
+    return output.trimmedCopy();
+  }
+
+  private static void assertSameContent(DDSketch actual, DDSketch expected) {
+    assertThat(actual.getIndexMapping()).isEqualTo(expected.getIndexMapping());
+    assertThat(actual.getZeroCount()).isEqualTo(expected.getZeroCount());
+    assertThat(actual.getPositiveValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getPositiveValueStore().getStream().collect(Collectors.toList()));
+    assertThat(actual.getNegativeValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getNegativeValueStore().getStream().collect(Collectors.toList()));
+  }
+}
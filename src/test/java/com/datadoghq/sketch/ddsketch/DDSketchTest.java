@@ -5,27 +5,40 @@
 
 package com.datadoghq.sketch.ddsketch;
 
+import static com.datadoghq.sketch.ddsketch.TestHelper.BIN_COMPARISON_CONFIG;
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.params.provider.Arguments.arguments;
 
 import com.datadoghq.sketch.QuantileSketchTest;
+import com.datadoghq.sketch.ddsketch.encoding.BinEncodingMode;
 import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
 import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
 import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import com.datadoghq.sketch.ddsketch.mapping.Base2ExponentialMapping;
 import com.datadoghq.sketch.ddsketch.mapping.BitwiseLinearlyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.CachedValueIndexMapping;
 import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
 import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMappingConverter;
 import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.mapping.LookupTableLogarithmicMapping;
 import com.datadoghq.sketch.ddsketch.mapping.QuadraticallyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.store.FenwickTreeDenseStore;
 import com.datadoghq.sketch.ddsketch.store.Store;
 import com.datadoghq.sketch.ddsketch.store.StoreTestCase;
 import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
 import com.datadoghq.sketch.util.accuracy.AccuracyTester;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.NoSuchElementException;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -97,7 +110,7 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
     assertAccurate(minExpected, maxExpected, actual, relativeAccuracy());
   }
 
-  private static void assertAccurate(
+  static void assertAccurate(
       double minExpected, double maxExpected, double actual, double relativeAccuracy) {
     final double relaxedMinExpected =
         minExpected > 0
@@ -127,6 +140,40 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
       fail(e);
     }
     testEncodeDecode(merged, values, sketch);
+    testEncodedView(sketch);
+  }
+
+  void testEncodedView(DDSketch sketch) {
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    final EncodedDDSketchView view;
+    try {
+      sketch.encode(output, false);
+      view = EncodedDDSketchView.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertEncodedViewMatches(view, sketch);
+  }
+
+  static void assertEncodedViewMatches(EncodedDDSketchView view, DDSketch sketch) {
+    assertThat(view.getIndexMapping()).isEqualTo(sketch.getIndexMapping());
+    assertThat(view.isEmpty()).isEqualTo(sketch.isEmpty());
+    assertThat(view.getCount()).isEqualTo(sketch.getCount());
+    if (sketch.isEmpty()) {
+      assertThatExceptionOfType(NoSuchElementException.class)
+          .isThrownBy(() -> view.getValueAtQuantile(0.5));
+      return;
+    }
+    assertThat(view.getMinValue()).isEqualTo(sketch.getMinValue());
+    assertThat(view.getMaxValue()).isEqualTo(sketch.getMaxValue());
+    final double[] quantiles =
+        IntStream.rangeClosed(0, 100).mapToDouble(i -> (100 - i) / 100.0).toArray();
+    assertThat(view.getValuesAtQuantiles(quantiles))
+        .containsExactly(sketch.getValuesAtQuantiles(quantiles));
+    for (final double quantile : quantiles) {
+      assertThat(view.getValueAtQuantile(quantile)).isEqualTo(sketch.getValueAtQuantile(quantile));
+    }
   }
 
   void testProtoRoundTrip(boolean merged, double[] values, DDSketch sketch)
@@ -258,6 +305,195 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
         .isThrownBy(() -> DDSketch.decode(input4, storeSupplier()));
   }
 
+  @Test
+  void testAcceptLong() {
+    testAcceptLong(mapping());
+    testAcceptLong(new BitwiseLinearlyInterpolatedMapping(relativeAccuracy()));
+  }
+
+  private void testAcceptLong(IndexMapping mapping) {
+    final DDSketch sketch = new DDSketch(mapping, storeSupplier());
+    final DDSketch expected = new DDSketch(mapping, storeSupplier());
+    final long[] values = {0, 1, 2, 3, 1000, 123_456_789, 1L << 53, -1, -1000, Long.MIN_VALUE};
+    for (final long value : values) {
+      sketch.accept(value);
+      expected.accept((double) value);
+      sketch.accept(value, 3L);
+      expected.accept((double) value, 3.0);
+    }
+    assertThat(sketch.getZeroCount()).isEqualTo(expected.getZeroCount());
+    assertThat(sketch.getPositiveValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getPositiveValueStore().getStream().collect(Collectors.toList()));
+    assertThat(sketch.getNegativeValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getNegativeValueStore().getStream().collect(Collectors.toList()));
+    assertThatIllegalArgumentException().isThrownBy(() -> sketch.accept(1L, -1L));
+  }
+
+  @Test
+  void testReserve() {
+    final double[] values = {-1e3, -2.5, -1e-3, 0, 1e-3, 3.7, 42, 1e6, 1e12};
+    for (final double[] range :
+        new double[][] {{-1e3, 1e6}, {1, 1e3}, {-5, -1}, {0, 0}, {-1e300, 1e300}}) {
+      final DDSketch sketch = newSketch();
+      sketch.reserve(range[0], range[1]);
+      assertThat(sketch.isEmpty()).isTrue();
+      Arrays.stream(values).forEach(sketch);
+      assertEncodes(false, values, sketch);
+    }
+    assertThatIllegalArgumentException().isThrownBy(() -> newSketch().reserve(2, 1));
+    assertThatIllegalArgumentException().isThrownBy(() -> newSketch().reserve(Double.NaN, 1));
+  }
+
+  @Test
+  void testTrimToSize() {
+    final double[] values = IntStream.range(-100, 100).mapToDouble(i -> i * 1.7).toArray();
+    final DDSketch sketch = newSketch();
+    Arrays.stream(values).forEach(sketch);
+    final long untrimmedSizeInBytes = sketch.estimatedSizeInBytes();
+    sketch.trimToSize();
+    assertThat(sketch.estimatedSizeInBytes()).isLessThanOrEqualTo(untrimmedSizeInBytes);
+    test(false, values, sketch);
+
+    // Empty stores are released, and allocated again when the sketch is updated.
+    sketch.clear();
+    sketch.trimToSize();
+    assertThat(sketch.getNegativeValueStore()).isSameAs(Store.empty());
+    assertThat(sketch.getPositiveValueStore()).isSameAs(Store.empty());
+    Arrays.stream(values).forEach(sketch);
+    test(false, values, sketch);
+  }
+
+  @Test
+  void testCacheValues() {
+    final double[] values = IntStream.range(-100, 100).mapToDouble(i -> i * 1.7).toArray();
+    final DDSketch sketch = newSketch();
+    Arrays.stream(values).forEach(sketch::accept);
+    final double[] quantiles = IntStream.rangeClosed(0, 100).mapToDouble(i -> i / 100.0).toArray();
+    final double[] expectedQuantileValues = sketch.getValuesAtQuantiles(quantiles);
+    final double expectedSum = sketch.getSum();
+
+    sketch.cacheValues();
+    assertThat(sketch.getIndexMapping()).isInstanceOf(CachedValueIndexMapping.class);
+    assertThat(sketch.getValuesAtQuantiles(quantiles)).containsExactly(expectedQuantileValues);
+    assertThat(sketch.getSum()).isEqualTo(expectedSum);
+
+    // The sketch remains mergeable with sketches that use the decorated mapping.
+    final DDSketch other = newSketch();
+    other.accept(1e6);
+    other.mergeWith(sketch);
+    sketch.mergeWith(other);
+    assertThat(sketch.getMaxValue()).isEqualTo(other.getMaxValue());
+
+    // And with their encodings
+    final double count = sketch.getCount();
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      other.encode(output, false);
+      sketch.decodeAndMergeWith(ByteArrayInput.wrap(output.trimmedCopy()));
+      assertThat(
+              EncodedDDSketchView.wrap(
+                      ByteBuffer.wrap(output.trimmedCopy()), sketch.getIndexMapping())
+                  .getCount())
+          .isEqualTo(other.getCount());
+    } catch (IOException e) {
+      fail(e);
+    }
+    assertThat(sketch.getCount()).isEqualTo(count + other.getCount());
+  }
+
+  @Test
+  void testDownsample() {
+    final double[] values =
+        DoubleStream.concat(
+                IntStream.range(-100, 100).mapToDouble(i -> Math.exp(i * 0.37)),
+                IntStream.range(-100, 100).mapToDouble(i -> -Math.exp(i * 0.29)))
+            .toArray();
+    final DDSketch sketch = newSketch();
+    Arrays.stream(values).forEach(sketch::accept);
+    sketch.accept(0);
+    sketch.downsample(4);
+
+    final IndexMapping downsampledMapping = mapping().downsample(4);
+    assertThat(sketch.getIndexMapping()).isEqualTo(downsampledMapping);
+    final DDSketch expected = new DDSketch(downsampledMapping, storeSupplier());
+    Arrays.stream(values).forEach(expected::accept);
+    expected.accept(0);
+    assertThat(sketch.getZeroCount()).isEqualTo(expected.getZeroCount());
+    assertThat(sketch.getPositiveValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getPositiveValueStore().getStream().collect(Collectors.toList()));
+    assertThat(sketch.getNegativeValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getNegativeValueStore().getStream().collect(Collectors.toList()));
+
+    // Values that are added after downsampling are mapped with the downsampled mapping.
+    sketch.accept(12.3);
+    expected.accept(12.3);
+    assertThat(sketch.getPositiveValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(expected.getPositiveValueStore().getStream().collect(Collectors.toList()));
+  }
+
+  @Test
+  void testLazyStoreAllocation() throws IOException {
+    final DDSketch sketch = newSketch();
+    sketch.accept(0);
+    sketch.mergeWith(newSketch());
+    for (final DDSketch idle : new DDSketch[] {sketch, sketch.copy(), sketch.snapshot()}) {
+      assertThat(idle.getNegativeValueStore()).isSameAs(Store.empty());
+      assertThat(idle.getPositiveValueStore()).isSameAs(Store.empty());
+    }
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    sketch.encode(output, false);
+    final DDSketch decoded =
+        DDSketch.decode(
+            ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes()),
+            storeSupplier());
+    assertThat(decoded.getNegativeValueStore()).isSameAs(Store.empty());
+    assertThat(decoded.getPositiveValueStore()).isSameAs(Store.empty());
+    assertThat(decoded.getZeroCount()).isEqualTo(1);
+
+    // Stores are allocated independently when they are first updated.
+    sketch.accept(1.5);
+    assertThat(sketch.getNegativeValueStore()).isSameAs(Store.empty());
+    assertThat(sketch.getPositiveValueStore()).isNotSameAs(Store.empty());
+    final DDSketch other = newSketch();
+    other.mergeWith(sketch);
+    assertThat(other.getNegativeValueStore()).isSameAs(Store.empty());
+    other.accept(-2.5);
+    assertThat(other.getNegativeValueStore()).isNotSameAs(Store.empty());
+    test(false, new double[] {-2.5, 0, 1.5}, other);
+
+    assertThatExceptionOfType(UnsupportedOperationException.class)
+        .isThrownBy(() -> Store.empty().add(1));
+  }
+
+  @Test
+  void testSnapshot() {
+    final double[] values = IntStream.range(-100, 100).mapToDouble(i -> i * 1.7).toArray();
+    final double[] otherValues = IntStream.range(0, 300).mapToDouble(i -> i * 1e3).toArray();
+    final double[] allValues =
+        DoubleStream.concat(Arrays.stream(values), Arrays.stream(otherValues)).toArray();
+    final DDSketch sketch = newSketch();
+    Arrays.stream(values).forEach(sketch::accept);
+
+    final DDSketch snapshot = sketch.snapshot();
+    test(false, values, snapshot);
+    Arrays.stream(otherValues).forEach(sketch::accept);
+    test(false, values, snapshot);
+    test(false, allValues, sketch);
+
+    // Updating the snapshot does not affect the sketch either.
+    final DDSketch otherSnapshot = sketch.snapshot();
+    Arrays.stream(values).forEach(otherSnapshot::accept);
+    otherSnapshot.clear();
+    test(false, allValues, sketch);
+    sketch.clear();
+    test(false, values, snapshot);
+  }
+
   @Test
   void testDecodeAndMergeWith() {
     final double[] values = new double[] {0.33, -7};
@@ -288,6 +524,32 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
     assertEncodes(true, values, decoded);
   }
 
+  @Test
+  void testMergeWithDecodedCopy() throws IOException {
+    // Mappings that are decoded into instances of other classes, or that have dedicated layouts
+    assertMergeableWithDecodedCopy(new LookupTableLogarithmicMapping(relativeAccuracy()));
+    assertMergeableWithDecodedCopy(Base2ExponentialMapping.ofRelativeAccuracy(relativeAccuracy()));
+  }
+
+  private void assertMergeableWithDecodedCopy(IndexMapping indexMapping) throws IOException {
+    final double[] values = {0.5, 1, 2, 3, -4};
+    final DDSketch sketch = new DDSketch(indexMapping, storeSupplier());
+    Arrays.stream(values).forEach(sketch);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    sketch.encode(output, false);
+    final byte[] encoded = output.trimmedCopy();
+
+    final DDSketch decoded = DDSketch.decode(ByteArrayInput.wrap(encoded), storeSupplier());
+    assertThat(decoded.getIndexMapping()).isEqualTo(indexMapping);
+    assertThat(indexMapping).isEqualTo(decoded.getIndexMapping());
+    final DDSketch merged = sketch.copy();
+    merged.mergeWith(decoded);
+    merged.decodeAndMergeWith(ByteArrayInput.wrap(encoded));
+    decoded.mergeWith(sketch);
+    assertThat(merged.getCount()).isEqualTo(3 * values.length);
+    assertThat(decoded.getCount()).isEqualTo(2 * values.length);
+  }
+
   @Test
   void testMergingByConcatenatingEncoded() {
     final double[] values = new double[] {0.33, -7};
@@ -314,6 +576,77 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
     assertEncodes(true, values, decoded);
   }
 
+  @Test
+  void testEncodedViewOfConcatenatedEncoded() {
+    final DDSketch sketch0 = newSketch();
+    final DDSketch sketch1 = newSketch();
+    final DDSketch merged = newSketch();
+    IntStream.range(0, 100).forEach(i -> sketch0.accept(i % 2 == 0 ? i : -i));
+    IntStream.range(50, 150).forEach(i -> sketch1.accept(i % 3 == 0 ? i : -0.5 * i));
+    merged.mergeWith(sketch0);
+    merged.mergeWith(sketch1);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    final EncodedDDSketchView view;
+    try {
+      sketch0.encode(output, false);
+      sketch1.encode(output, false);
+      view = EncodedDDSketchView.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertEncodedViewMatches(view, merged);
+  }
+
+  @Test
+  void testEncodedViewWithoutIndexMapping() {
+    final DDSketch sketch = newSketch();
+    IntStream.range(0, 100).forEach(sketch::accept);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      sketch.encode(output, true);
+    } catch (IOException e) {
+      fail(e);
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    assertThatIllegalArgumentException().isThrownBy(() -> EncodedDDSketchView.wrap(buffer));
+    final EncodedDDSketchView view;
+    try {
+      view = EncodedDDSketchView.wrap(buffer, sketch.getIndexMapping());
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertThat(buffer.position()).isZero();
+    assertEncodedViewMatches(view, sketch);
+  }
+
+  @Test
+  void testEncodedViewOfMalformedBins() throws IOException {
+    final DDSketch sketch = newSketch();
+    final GrowingByteArrayOutput outOfRangeIndex =
+        GrowingByteArrayOutput.withDefaultInitialCapacity();
+    sketch.encode(outOfRangeIndex, false);
+    BinEncodingMode.INDEX_DELTAS_AND_COUNTS
+        .toFlag(Flag.Type.POSITIVE_STORE)
+        .encode(outOfRangeIndex);
+    VarEncodingHelper.encodeUnsignedVarLong(outOfRangeIndex, 1);
+    VarEncodingHelper.encodeSignedVarLong(outOfRangeIndex, 1L << 40);
+    VarEncodingHelper.encodeVarDouble(outOfRangeIndex, 1);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> EncodedDDSketchView.wrap(outOfRangeIndex.trimmedCopy()));
+
+    final GrowingByteArrayOutput negativeCount =
+        GrowingByteArrayOutput.withDefaultInitialCapacity();
+    sketch.encode(negativeCount, false);
+    BinEncodingMode.INDEX_DELTAS_AND_COUNTS.toFlag(Flag.Type.NEGATIVE_STORE).encode(negativeCount);
+    VarEncodingHelper.encodeUnsignedVarLong(negativeCount, 1);
+    VarEncodingHelper.encodeSignedVarLong(negativeCount, 3);
+    VarEncodingHelper.encodeVarDouble(negativeCount, -1);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> EncodedDDSketchView.wrap(negativeCount.trimmedCopy()));
+  }
+
   @ParameterizedTest
   @MethodSource("values")
   void testConversion(double[] values) {
@@ -335,6 +668,42 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
     assertEncodes(false, values, convertedSketch);
   }
 
+  @ParameterizedTest
+  @MethodSource("values")
+  void testMergeWithConverter(double[] values) {
+    final double gamma = (1 + relativeAccuracy()) / (1 - relativeAccuracy());
+
+    final double initialGamma = Math.pow(gamma, 0.3);
+    final double initialRelativeAccuracy = (initialGamma - 1) / (initialGamma + 1);
+    final DDSketch initialSketch =
+        new DDSketch(
+            new BitwiseLinearlyInterpolatedMapping(initialRelativeAccuracy),
+            UnboundedSizeDenseStore::new);
+    Arrays.stream(values).forEach(initialSketch);
+
+    final double newGamma = Math.pow(gamma, 0.4); // initialGamma^2 * newGamma <= gamma
+    final double newRelativeAccuracy = (newGamma - 1) / (newGamma + 1);
+    final IndexMapping newIndexMapping = new LogarithmicMapping(newRelativeAccuracy);
+    final DDSketch mergedSketch = new DDSketch(newIndexMapping, UnboundedSizeDenseStore::new);
+    mergedSketch.mergeWith(
+        initialSketch,
+        IndexMappingConverter.distributingUniformly(
+            initialSketch.getIndexMapping(), newIndexMapping));
+
+    assertEncodes(true, values, mergedSketch);
+    final DDSketch convertedSketch =
+        initialSketch.convert(newIndexMapping, UnboundedSizeDenseStore::new);
+    assertThat(mergedSketch.getZeroCount()).isEqualTo(convertedSketch.getZeroCount());
+    assertThat(mergedSketch.getPositiveValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(
+            convertedSketch.getPositiveValueStore().getStream().collect(Collectors.toList()));
+    assertThat(mergedSketch.getNegativeValueStore().getStream().collect(Collectors.toList()))
+        .usingRecursiveComparison(BIN_COMPARISON_CONFIG)
+        .isEqualTo(
+            convertedSketch.getNegativeValueStore().getStream().collect(Collectors.toList()));
+  }
+
   static Stream<Arguments> values() {
     return Stream.of(
         arguments(new Object[] {new double[] {0}}),
@@ -417,4 +786,17 @@ abstract class DDSketchTest extends QuantileSketchTest<DDSketch> {
       return 1e-3;
     }
   }
+
+  static class DDSketchTestWithFenwickTreeStore extends DDSketchTest {
+
+    @Override
+    double relativeAccuracy() {
+      return 1e-2;
+    }
+
+    @Override
+    Supplier<Store> storeSupplier() {
+      return FenwickTreeDenseStore::new;
+    }
+  }
 }
@@ -0,0 +1,205 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class SketchMemoryGovernorTest {
+
+  private static final double RELATIVE_ACCURACY = 1e-2;
+  private static final double[] QUANTILES = {0, 0.1, 0.5, 0.9, 0.99, 1};
+
+  private final long[] nanoTime = {0};
+
+  private CompactingDDSketch newSketch() {
+    return new CompactingDDSketch(
+        new DDSketch(new LogarithmicMapping(RELATIVE_ACCURACY), UnboundedSizeDenseStore::new),
+        Long.MAX_VALUE,
+        () -> nanoTime[0]);
+  }
+
+  private static void addValues(CompactingDDSketch sketch, double maxValue) {
+    IntStream.range(0, 1000).mapToDouble(i -> 1 + i * (maxValue - 1) / 999).forEach(sketch);
+  }
+
+  @Test
+  void testInvalidArguments() {
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new SketchMemoryGovernor(-1));
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> new SketchMemoryGovernor(0, 0));
+  }
+
+  @Test
+  void testRegistration() {
+    final SketchMemoryGovernor governor = new SketchMemoryGovernor(Long.MAX_VALUE);
+    final CompactingDDSketch sketch = newSketch();
+    addValues(sketch, 1000);
+    assertThat(governor.register(sketch)).isTrue();
+    assertThat(governor.register(sketch)).isFalse();
+    assertThat(governor.getNumSketches()).isEqualTo(1);
+    assertThat(governor.estimatedSizeInBytes()).isEqualTo(sketch.estimatedSizeInBytes());
+    assertThat(governor.enforce()).isEqualTo(sketch.estimatedSizeInBytes());
+    assertThat(sketch.isCompacted()).isFalse();
+    assertThat(governor.unregister(sketch)).isTrue();
+    assertThat(governor.unregister(sketch)).isFalse();
+    assertThat(governor.getNumSketches()).isZero();
+    assertThat(governor.estimatedSizeInBytes()).isZero();
+  }
+
+  @Test
+  void testCompactsColdestFirst() {
+    final CompactingDDSketch cold = newSketch();
+    final CompactingDDSketch warm = newSketch();
+    final CompactingDDSketch hot = newSketch();
+    final CompactingDDSketch[] sketches = {cold, warm, hot};
+    for (final CompactingDDSketch sketch : sketches) {
+      addValues(sketch, 1000);
+      sketch.getIdleNanos();
+    }
+    nanoTime[0] = 10;
+    warm.accept(1);
+    hot.accept(1);
+    for (final CompactingDDSketch sketch : sketches) {
+      sketch.getIdleNanos();
+    }
+    nanoTime[0] = 20;
+    hot.accept(1);
+    for (final CompactingDDSketch sketch : sketches) {
+      sketch.getIdleNanos();
+    }
+    nanoTime[0] = 30;
+
+    final long sizeInBytes = hot.estimatedSizeInBytes();
+    final SketchMemoryGovernor governor =
+        new SketchMemoryGovernor(2 * sizeInBytes + sizeInBytes / 2);
+    for (final CompactingDDSketch sketch : sketches) {
+      governor.register(sketch);
+    }
+    final double[] expectedQuantiles = cold.getValuesAtQuantiles(QUANTILES);
+
+    final long enforcedSizeInBytes = governor.enforce();
+    assertThat(enforcedSizeInBytes)
+        .isLessThanOrEqualTo(governor.getMaxSizeInBytes())
+        .isEqualTo(governor.estimatedSizeInBytes());
+    assertThat(cold.isCompacted()).isTrue();
+    assertThat(warm.isCompacted()).isFalse();
+    assertThat(hot.isCompacted()).isFalse();
+    assertThat(governor.getCompactionCount()).isEqualTo(1);
+    assertThat(governor.getDownsamplingCount()).isZero();
+    assertThat(cold.getValuesAtQuantiles(QUANTILES)).containsExactly(expectedQuantiles);
+
+    // Within the budget
+    assertThat(governor.enforce()).isEqualTo(enforcedSizeInBytes);
+    assertThat(governor.getCompactionCount()).isEqualTo(1);
+  }
+
+  @Test
+  void testCompactsWithoutDownsampling() {
+    final SketchMemoryGovernor governor = new SketchMemoryGovernor(0);
+    final CompactingDDSketch sketch = newSketch();
+    addValues(sketch, 1000);
+    final IndexMappingAndQuantiles expected = new IndexMappingAndQuantiles(sketch);
+    governor.register(sketch);
+    assertThat(governor.enforce()).isPositive().isEqualTo(sketch.estimatedSizeInBytes());
+    assertThat(sketch.isCompacted()).isTrue();
+    assertThat(governor.getDownsamplingCount()).isZero();
+    expected.assertEquals(sketch);
+  }
+
+  @Test
+  void testDownsamplesUpToMaxFactor() {
+    final SketchMemoryGovernor governor = new SketchMemoryGovernor(0, 4);
+    final CompactingDDSketch sketch = newSketch();
+    addValues(sketch, 1000);
+    final DDSketch expected = sketch.toDDSketch();
+    expected.downsample(2);
+    expected.downsample(2);
+    governor.register(sketch);
+    governor.enforce();
+    assertThat(sketch.isCompacted()).isTrue();
+    assertThat(governor.getCompactionCount()).isEqualTo(1);
+    assertThat(governor.getDownsamplingCount()).isEqualTo(2);
+    new IndexMappingAndQuantiles(expected).assertEquals(sketch);
+
+    governor.enforce();
+    assertThat(governor.getDownsamplingCount()).isEqualTo(2);
+  }
+
+  @Test
+  void testDownsamplesLargestFirst() {
+    final CompactingDDSketch large = newSketch();
+    addValues(large, 1e9);
+    final CompactingDDSketch small = newSketch();
+    addValues(small, 2);
+    large.compact();
+    small.compact();
+    final IndexMappingAndQuantiles expectedSmall = new IndexMappingAndQuantiles(small);
+    final CompactingDDSketch downsampledLarge = large.copy();
+    downsampledLarge.downsample(2);
+    final IndexMappingAndQuantiles expectedLarge = new IndexMappingAndQuantiles(downsampledLarge);
+
+    final SketchMemoryGovernor governor =
+        new SketchMemoryGovernor(
+            downsampledLarge.estimatedSizeInBytes() + small.estimatedSizeInBytes(), 8);
+    governor.register(large);
+    governor.register(small);
+    assertThat(governor.enforce()).isLessThanOrEqualTo(governor.getMaxSizeInBytes());
+    assertThat(governor.getCompactionCount()).isZero();
+    assertThat(governor.getDownsamplingCount()).isEqualTo(1);
+    expectedLarge.assertEquals(large);
+    expectedSmall.assertEquals(small);
+  }
+
+  @Test
+  void testHydratesDownsampledSketch() {
+    final SketchMemoryGovernor governor = new SketchMemoryGovernor(0, 2);
+    final CompactingDDSketch sketch = newSketch();
+    final CompactingDDSketch other = newSketch();
+    addValues(sketch, 1000);
+    addValues(other, 1000);
+    governor.register(sketch);
+    governor.enforce();
+    assertThat(governor.getDownsamplingCount()).isEqualTo(1);
+
+    // The downsampled sketch keeps accepting values, but cannot be merged with sketches that have
+    // not been downsampled.
+    sketch.accept(2000);
+    assertThat(sketch.isCompacted()).isFalse();
+    assertThat(sketch.getCount()).isEqualTo(1001);
+    assertThatExceptionOfType(IllegalArgumentException.class)
+        .isThrownBy(() -> sketch.mergeWith(other));
+    other.downsample(2);
+    sketch.mergeWith(other);
+    assertThat(sketch.getCount()).isEqualTo(2001);
+  }
+
+  private static final class IndexMappingAndQuantiles {
+
+    private final Object indexMapping;
+    private final double[] quantiles;
+
+    private IndexMappingAndQuantiles(CompactingDDSketch sketch) {
+      this(sketch.toDDSketch());
+    }
+
+    private IndexMappingAndQuantiles(DDSketch sketch) {
+      this.indexMapping = sketch.getIndexMapping();
+      this.quantiles = sketch.getValuesAtQuantiles(QUANTILES);
+    }
+
+    private void assertEquals(CompactingDDSketch sketch) {
+      assertThat(sketch.getIndexMapping()).isEqualTo(indexMapping);
+      assertThat(sketch.getValuesAtQuantiles(QUANTILES)).containsExactly(quantiles);
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.DDSketches;
+import com.datadoghq.sketch.ddsketch.EncodedDDSketchView;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SketchArchiveTest {
+
+  private static final double[] QUANTILES = {0, 0.25, 0.5, 0.75, 0.99, 1};
+
+  @TempDir Path directory;
+
+  @Test
+  void testWriteRead() throws IOException {
+    final Path path = directory.resolve("archive");
+    final List<String> keys =
+        IntStream.range(0, 1000)
+            .mapToObj(i -> "series-" + i + "-\u00e9")
+            .collect(Collectors.toList());
+    Collections.shuffle(keys, new Random(4));
+
+    try (final SketchArchiveWriter writer = SketchArchiveWriter.create(path)) {
+      for (final String key : keys) {
+        writer.add(key, sketch(key));
+      }
+    }
+
+    final SketchArchiveReader reader = SketchArchiveReader.open(path);
+    assertThat(reader.size()).isEqualTo(keys.size());
+    assertThat(reader.keys()).isSorted().containsExactlyInAnyOrderElementsOf(keys);
+    for (final String key : keys) {
+      final DDSketch expected = sketch(key);
+      assertThat(reader.contains(key)).isTrue();
+      final DDSketch decoded = reader.get(key, UnboundedSizeDenseStore::new);
+      assertThat(decoded.getCount()).isEqualTo(expected.getCount());
+      assertThat(decoded.getValuesAtQuantiles(QUANTILES))
+          .containsExactly(expected.getValuesAtQuantiles(QUANTILES));
+      final EncodedDDSketchView view = reader.getView(key);
+      assertThat(view.getValuesAtQuantiles(QUANTILES))
+          .containsExactly(expected.getValuesAtQuantiles(QUANTILES));
+    }
+    assertThat(reader.contains("series-")).isFalse();
+    assertThat(reader.getEncoded("")).isNull();
+    assertThat(reader.get("series-1000-\u00e9", UnboundedSizeDenseStore::new)).isNull();
+    assertThat(reader.getView("series-1-e")).isNull();
+  }
+
+  @Test
+  void testEmpty() throws IOException {
+    final Path path = directory.resolve("archive");
+    SketchArchiveWriter.create(path).close();
+    final SketchArchiveReader reader = SketchArchiveReader.open(path);
+    assertThat(reader.size()).isZero();
+    assertThat(reader.keys()).isEmpty();
+    assertThat(reader.contains("")).isFalse();
+  }
+
+  @Test
+  void testDuplicateKey() throws IOException {
+    try (final SketchArchiveWriter writer =
+        SketchArchiveWriter.create(directory.resolve("archive"))) {
+      writer.add("key", sketch("key"));
+      assertThatIllegalArgumentException().isThrownBy(() -> writer.add("key", sketch("key")));
+    }
+  }
+
+  @Test
+  void testMalformed() throws IOException {
+    final Path path = directory.resolve("archive");
+    try (final SketchArchiveWriter writer = SketchArchiveWriter.create(path)) {
+      writer.add("key", sketch("key"));
+    }
+    final byte[] bytes = Files.readAllBytes(path);
+
+    Files.write(path, new byte[] {'D', 'D', 'S', 'A'});
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> SketchArchiveReader.open(path));
+
+    final byte[] invalidMagic = bytes.clone();
+    invalidMagic[0] = 'X';
+    Files.write(path, invalidMagic);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> SketchArchiveReader.open(path));
+
+    Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> SketchArchiveReader.open(path));
+
+    final int entryPosition = bytes.length - SketchArchiveFormat.INDEX_ENTRY_SIZE;
+    final byte[] invalidSketchOffset = bytes.clone();
+    ByteBuffer.wrap(invalidSketchOffset)
+        .putLong(
+            entryPosition + SketchArchiveFormat.SKETCH_OFFSET_POSITION, Integer.MAX_VALUE + 1L);
+    Files.write(path, invalidSketchOffset);
+    final SketchArchiveReader invalidSketchOffsetReader = SketchArchiveReader.open(path);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> invalidSketchOffsetReader.getEncoded("key"));
+
+    final byte[] invalidSketchLength = bytes.clone();
+    ByteBuffer.wrap(invalidSketchLength)
+        .putInt(entryPosition + SketchArchiveFormat.SKETCH_LENGTH_POSITION, -1);
+    Files.write(path, invalidSketchLength);
+    final SketchArchiveReader invalidSketchLengthReader = SketchArchiveReader.open(path);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> invalidSketchLengthReader.getView("key"));
+
+    for (final int keyLength : new int[] {1 << 30, -1}) {
+      final byte[] invalidKeyLength = bytes.clone();
+      ByteBuffer.wrap(invalidKeyLength)
+          .putInt(entryPosition + SketchArchiveFormat.KEY_LENGTH_POSITION, keyLength);
+      assertMalformedKey(path, invalidKeyLength);
+    }
+
+    for (final long keyOffset : new long[] {bytes.length, Integer.MAX_VALUE + 1L, 0}) {
+      final byte[] invalidKeyOffset = bytes.clone();
+      ByteBuffer.wrap(invalidKeyOffset).putLong(entryPosition, keyOffset);
+      assertMalformedKey(path, invalidKeyOffset);
+    }
+  }
+
+  private static void assertMalformedKey(Path path, byte[] bytes) throws IOException {
+    Files.write(path, bytes);
+    final SketchArchiveReader reader = SketchArchiveReader.open(path);
+    assertThatExceptionOfType(UncheckedIOException.class)
+        .isThrownBy(() -> reader.keys().get(0))
+        .withCauseInstanceOf(MalformedInputException.class);
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> reader.contains("key"));
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> reader.getEncoded("key"));
+  }
+
+  private static DDSketch sketch(String key) {
+    final DDSketch sketch = DDSketches.unboundedDense(0.01);
+    final Random random = new Random(key.hashCode());
+    IntStream.range(0, 1 + random.nextInt(100)).forEach(i -> sketch.accept(random.nextGaussian()));
+    return sketch;
+  }
+}
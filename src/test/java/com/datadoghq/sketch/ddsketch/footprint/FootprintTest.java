@@ -7,16 +7,37 @@ package com.datadoghq.sketch.ddsketch.footprint;
 
 import static com.datadoghq.sketch.ddsketch.footprint.Distributions.*;
 import static java.util.concurrent.TimeUnit.*;
+import static org.assertj.core.api.Assertions.assertThat;
 
 import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.DDSketchWithExactSummaryStatistics;
+import com.datadoghq.sketch.ddsketch.DDSketches;
+import com.datadoghq.sketch.ddsketch.mapping.Base2ExponentialMapping;
 import com.datadoghq.sketch.ddsketch.mapping.BitwiseLinearlyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.CubicallyInterpolatedMapping;
+import com.datadoghq.sketch.ddsketch.mapping.HybridLinearLogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.mapping.LookupTableLogarithmicMapping;
+import com.datadoghq.sketch.ddsketch.store.CollapsingHighestCircularDenseStore;
+import com.datadoghq.sketch.ddsketch.store.CollapsingHighestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.CollapsingLowestCircularDenseStore;
+import com.datadoghq.sketch.ddsketch.store.CollapsingLowestDenseStore;
+import com.datadoghq.sketch.ddsketch.store.FenwickTreeDenseStore;
 import com.datadoghq.sketch.ddsketch.store.PaginatedStore;
+import com.datadoghq.sketch.ddsketch.store.SparseStore;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeCircularDenseStore;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
 import java.util.concurrent.TimeUnit;
 import java.util.function.DoubleFunction;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import org.assertj.core.data.Offset;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.openjdk.jol.info.ClassLayout;
 import org.openjdk.jol.info.GraphLayout;
 
 public class FootprintTest {
@@ -71,6 +92,181 @@ public class FootprintTest {
     }
   }
 
+  public static Stream<Arguments> presets() {
+    return Stream.of(
+        Arguments.of("unboundedDense", (DoubleFunction<DDSketch>) DDSketches::unboundedDense),
+        Arguments.of(
+            "collapsingLowestDense",
+            (DoubleFunction<DDSketch>) re -> DDSketches.collapsingLowestDense(re, 2048)),
+        Arguments.of(
+            "collapsingHighestDense",
+            (DoubleFunction<DDSketch>) re -> DDSketches.collapsingHighestDense(re, 2048)),
+        Arguments.of("sparse", (DoubleFunction<DDSketch>) DDSketches::sparse),
+        Arguments.of(
+            "logarithmicUnboundedDense",
+            (DoubleFunction<DDSketch>) DDSketches::logarithmicUnboundedDense),
+        Arguments.of(
+            "logarithmicCollapsingLowestDense",
+            (DoubleFunction<DDSketch>) re -> DDSketches.logarithmicCollapsingLowestDense(re, 2048)),
+        Arguments.of(
+            "logarithmicCollapsingHighestDense",
+            (DoubleFunction<DDSketch>)
+                re -> DDSketches.logarithmicCollapsingHighestDense(re, 2048)));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("presets")
+  public void testIdleFootprint(String preset, DoubleFunction<DDSketch> sketchConstructor) {
+    // Stores are only allocated once updated, so that idle sketches, and the negative value store
+    // of sketches of durations, do not hold any.
+    final DDSketch idle = sketchConstructor.apply(1e-2);
+    assertThat(idle.getNegativeValueStore()).isSameAs(Store.empty());
+    assertThat(idle.getPositiveValueStore()).isSameAs(Store.empty());
+
+    final Distribution distribution = NORMAL.of(100, 50);
+    final DDSketch durations = sketchConstructor.apply(1e-2);
+    for (int i = 0; i < 100_000; ++i) {
+      durations.accept(MILLISECONDS.toNanos(Math.abs(Math.round(distribution.nextValue()))));
+    }
+    assertThat(durations.getNegativeValueStore()).isSameAs(Store.empty());
+
+    // The same sketch, with the stores that it used to allocate eagerly.
+    final DDSketch allocated = sketchConstructor.apply(1e-2);
+    allocated.accept(-1);
+    allocated.accept(1);
+    allocated.clear();
+
+    // The stores are measured rather than the sketches, as the latter may hold store suppliers that
+    // are lambdas, which cannot be introspected.
+    final long idleSize = storesFootprint(idle).totalSize();
+    final long allocatedSize = storesFootprint(allocated).totalSize();
+    System.out.println(
+        preset
+            + ": stores of an idle sketch "
+            + idleSize
+            + " bytes, once updated and cleared "
+            + allocatedSize
+            + " bytes");
+    System.out.println(distribution);
+    System.out.println(storesFootprint(durations).toFootprint());
+    assertThat(idleSize).isLessThan(allocatedSize);
+  }
+
+  public static Stream<Arguments> stores() {
+    return Stream.of(
+        Arguments.of("unboundedDense", (Supplier<Store>) UnboundedSizeDenseStore::new),
+        Arguments.of(
+            "collapsingLowestDense", (Supplier<Store>) () -> new CollapsingLowestDenseStore(2048)),
+        Arguments.of(
+            "collapsingHighestDense",
+            (Supplier<Store>) () -> new CollapsingHighestDenseStore(2048)),
+        Arguments.of("fenwickTreeDense", (Supplier<Store>) FenwickTreeDenseStore::new),
+        Arguments.of(
+            "unboundedCircularDense", (Supplier<Store>) UnboundedSizeCircularDenseStore::new),
+        Arguments.of(
+            "collapsingLowestCircularDense",
+            (Supplier<Store>) () -> new CollapsingLowestCircularDenseStore(2048)),
+        Arguments.of(
+            "collapsingHighestCircularDense",
+            (Supplier<Store>) () -> new CollapsingHighestCircularDenseStore(2048)),
+        Arguments.of("paginated", (Supplier<Store>) PaginatedStore::new),
+        Arguments.of("sparse", (Supplier<Store>) SparseStore::new));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("stores")
+  public void testStoreEstimatedSize(String name, Supplier<Store> storeSupplier) {
+    final Store store = storeSupplier.get();
+    assertEstimatedSize(store.estimatedSizeInBytes(), GraphLayout.parseInstance(store));
+
+    final Distribution distribution = NORMAL.of(0, 1000);
+    for (int i = 0; i < 100_000; ++i) {
+      store.add((int) Math.round(distribution.nextValue()));
+    }
+    // Lets the Fenwick tree store build its tree.
+    store.getIndexAtRank(store.getTotalCount() / 2);
+    assertEstimatedSize(store.estimatedSizeInBytes(), GraphLayout.parseInstance(store));
+
+    // Shared counters are accounted for by both stores.
+    final Store snapshot = store.snapshot();
+    snapshot.add(0);
+    assertEstimatedSize(snapshot.estimatedSizeInBytes(), GraphLayout.parseInstance(snapshot));
+    assertEstimatedSize(store.estimatedSizeInBytes(), GraphLayout.parseInstance(store));
+
+    store.clear();
+    assertEstimatedSize(store.estimatedSizeInBytes(), GraphLayout.parseInstance(store));
+  }
+
+  public static Stream<Arguments> indexMappings() {
+    final DDSketch cached = DDSketches.logarithmicUnboundedDense(1e-2);
+    cached.accept(1);
+    cached.accept(1e6);
+    cached.cacheValues();
+    return Stream.of(
+            new LogarithmicMapping(1e-2),
+            new LookupTableLogarithmicMapping(1e-2),
+            new CubicallyInterpolatedMapping(1e-2),
+            new BitwiseLinearlyInterpolatedMapping(1e-2),
+            new Base2ExponentialMapping(6),
+            new HybridLinearLogarithmicMapping(1e-2, 100),
+            cached.getIndexMapping())
+        .map(indexMapping -> Arguments.of(indexMapping.getClass().getSimpleName(), indexMapping));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("indexMappings")
+  public void testIndexMappingEstimatedSize(String name, IndexMapping indexMapping) {
+    assertEstimatedSize(
+        indexMapping.estimatedSizeInBytes(), GraphLayout.parseInstance(indexMapping));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("presets")
+  public void testSketchEstimatedSize(String preset, DoubleFunction<DDSketch> sketchConstructor) {
+    final DDSketch sketch = sketchConstructor.apply(1e-2);
+    final Distribution distribution = NORMAL.of(0, 1000);
+    for (int i = 0; i < 100_000; ++i) {
+      sketch.accept(distribution.nextValue());
+    }
+    // The store suppliers of the sketch, which are not accounted for, may be lambdas, which cannot
+    // be introspected. The stores are measured separately, as they may share cached boxed indexes.
+    final GraphLayout layout =
+        GraphLayout.parseInstance(
+            sketch.getIndexMapping(),
+            sketch.getNegativeValueStore(),
+            sketch.getPositiveValueStore());
+    final long sketchSize =
+        ClassLayout.parseClass(DDSketch.class).instanceSize()
+            + GraphLayout.parseInstance(sketch.getIndexMapping()).totalSize()
+            + GraphLayout.parseInstance(sketch.getNegativeValueStore()).totalSize()
+            + GraphLayout.parseInstance(sketch.getPositiveValueStore()).totalSize();
+    assertEstimatedSize(sketch.estimatedSizeInBytes(), sketchSize, layout);
+
+    final DDSketchWithExactSummaryStatistics withExactSummaryStatistics =
+        new DDSketchWithExactSummaryStatistics(() -> sketch);
+    assertEstimatedSize(
+        withExactSummaryStatistics.estimatedSizeInBytes(),
+        ClassLayout.parseClass(DDSketchWithExactSummaryStatistics.class).instanceSize()
+            + sketchSize,
+        layout);
+  }
+
+  private static void assertEstimatedSize(long estimatedSize, GraphLayout layout) {
+    assertEstimatedSize(estimatedSize, layout.totalSize(), layout);
+  }
+
+  private static void assertEstimatedSize(long estimatedSize, long size, GraphLayout layout) {
+    // Small objects may be padded differently, which is a few percent of larger ones at most.
+    assertThat(estimatedSize)
+        .as(layout.toFootprint())
+        .isCloseTo(size, Offset.offset(Math.max(16, size / 50)));
+  }
+
+  private static GraphLayout storesFootprint(DDSketch sketch) {
+    return GraphLayout.parseInstance(
+        sketch.getNegativeValueStore(), sketch.getPositiveValueStore());
+  }
+
   private static void printFootprint(Distribution distribution, Object instance) {
     GraphLayout layout = GraphLayout.parseInstance(instance);
     System.out.println(distribution);
@@ -0,0 +1,184 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.encoding.MalformedInputException;
+import com.datadoghq.sketch.ddsketch.store.ExponentialHistogramBuckets;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import com.datadoghq.sketch.util.accuracy.AccuracyTester;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class Base2ExponentialMappingTest extends IndexMappingTest {
+
+  @Override
+  Base2ExponentialMapping getMapping(double relativeAccuracy) {
+    return Base2ExponentialMapping.ofRelativeAccuracy(relativeAccuracy);
+  }
+
+  @Test
+  @Override
+  void testAccuracy() {
+    // The highest scale cannot guarantee relative accuracies that are much lower than 1e-6.
+    for (double relativeAccuracy = maxTestedRelativeAccuracy;
+        relativeAccuracy >= 1e-6;
+        relativeAccuracy *= maxTestedRelativeAccuracy) {
+      testAccuracy(getMapping(relativeAccuracy), relativeAccuracy);
+    }
+    for (int scale = Base2ExponentialMapping.MIN_SCALE;
+        scale <= Base2ExponentialMapping.MAX_SCALE;
+        scale++) {
+      final IndexMapping mapping = new Base2ExponentialMapping(scale);
+      testAccuracy(mapping, mapping.relativeAccuracy());
+    }
+  }
+
+  @Test
+  void testScale() {
+    assertThat(getMapping(1e-2).scale()).isEqualTo(6);
+    for (int scale = Base2ExponentialMapping.MIN_SCALE;
+        scale <= Base2ExponentialMapping.MAX_SCALE;
+        scale++) {
+      final Base2ExponentialMapping mapping = new Base2ExponentialMapping(scale);
+      assertThat(getMapping(mapping.relativeAccuracy()).scale()).isEqualTo(scale);
+    }
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> new Base2ExponentialMapping(Base2ExponentialMapping.MIN_SCALE - 1));
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> new Base2ExponentialMapping(Base2ExponentialMapping.MAX_SCALE + 1));
+    assertThatIllegalArgumentException().isThrownBy(() -> getMapping(1e-8));
+  }
+
+  @Test
+  void testOpenTelemetryBuckets() {
+    // Buckets include their upper bound.
+    assertThat(new Base2ExponentialMapping(0).index(1.0)).isEqualTo(-1);
+    assertThat(new Base2ExponentialMapping(0).index(2.0)).isEqualTo(0);
+    assertThat(new Base2ExponentialMapping(0).index(3.0)).isEqualTo(1);
+    assertThat(new Base2ExponentialMapping(0).index(4.0)).isEqualTo(1);
+    assertThat(new Base2ExponentialMapping(1).index(1.4)).isEqualTo(0);
+    assertThat(new Base2ExponentialMapping(1).index(1.5)).isEqualTo(1);
+    assertThat(new Base2ExponentialMapping(1).index(2.0)).isEqualTo(1);
+    assertThat(new Base2ExponentialMapping(-1).index(4.0)).isEqualTo(0);
+    assertThat(new Base2ExponentialMapping(-1).index(5.0)).isEqualTo(1);
+    assertThat(new Base2ExponentialMapping(-1).index(0.25)).isEqualTo(-2);
+    assertThat(new Base2ExponentialMapping(-1).index(0.3)).isEqualTo(-1);
+
+    final Random random = new Random(4);
+    for (final int scale : new int[] {-3, 0, 3, 8, 20}) {
+      final Base2ExponentialMapping mapping = new Base2ExponentialMapping(scale);
+      for (int i = 0; i < 1000; i++) {
+        final double value = Math.exp((random.nextDouble() - 0.5) * 100);
+        final int index = mapping.index(value);
+        // The bucket of index i is ]2^(i / 2^scale), 2^((i + 1) / 2^scale)].
+        final double lowerBound = Math.pow(2, Math.scalb((double) index, -scale));
+        final double upperBound = Math.pow(2, Math.scalb((double) index + 1, -scale));
+        final double relativeError = AccuracyTester.FLOATING_POINT_ACCEPTABLE_ERROR;
+        assertThat(value).isGreaterThan(lowerBound * (1 - relativeError));
+        assertThat(value).isLessThanOrEqualTo(upperBound * (1 + relativeError));
+      }
+    }
+  }
+
+  @Test
+  void testExportBuckets() {
+    final Base2ExponentialMapping mapping = new Base2ExponentialMapping(3);
+    final DDSketch sketch = new DDSketch(mapping, UnboundedSizeDenseStore::new);
+    final double[] values = {0.7, 1, 1.5, 2, 2, 9.3, 1000};
+    for (final double value : values) {
+      sketch.accept(value);
+      sketch.accept(-value);
+    }
+    final ExponentialHistogramBuckets buckets =
+        ExponentialHistogramBuckets.of(sketch.getPositiveValueStore());
+    assertThat(buckets.offset()).isEqualTo(mapping.index(0.7));
+    assertThat(buckets.bucketCounts()).hasSize(mapping.index(1000) - mapping.index(0.7) + 1);
+    final long[] expectedCounts = new long[buckets.bucketCounts().length];
+    for (final double value : values) {
+      expectedCounts[mapping.index(value) - buckets.offset()]++;
+    }
+    assertThat(buckets.bucketCounts()).containsExactly(expectedCounts);
+    assertThat(ExponentialHistogramBuckets.of(sketch.getNegativeValueStore().copy()).bucketCounts())
+        .containsExactly(expectedCounts);
+
+    final ExponentialHistogramBuckets empty =
+        ExponentialHistogramBuckets.of(
+            new DDSketch(mapping, UnboundedSizeDenseStore::new).getPositiveValueStore());
+    assertThat(empty.offset()).isZero();
+    assertThat(empty.bucketCounts()).isEmpty();
+  }
+
+  @Test
+  void testDownsampleLowersScale() {
+    final Base2ExponentialMapping mapping = new Base2ExponentialMapping(6);
+    assertThat(mapping.downsample(8)).isEqualTo(new Base2ExponentialMapping(3));
+    assertThat(mapping.downsample(1 << 11)).isEqualTo(new Base2ExponentialMapping(-5));
+    assertThatIllegalArgumentException().isThrownBy(() -> mapping.downsample(3));
+    assertThatIllegalArgumentException().isThrownBy(() -> mapping.downsample(1 << 12));
+  }
+
+  @Test
+  @Override
+  void testProtoRoundTrip() {
+    final Base2ExponentialMapping mapping = getMapping(1e-2);
+    final IndexMapping roundTripMapping =
+        IndexMappingProtoBinding.fromProto(IndexMappingProtoBinding.toProto(mapping));
+    assertThat(roundTripMapping).isEqualTo(new LogarithmicMapping(mapping.gamma(), 0));
+  }
+
+  @Test
+  @Override
+  void testEncodeDecode() {
+    final Base2ExponentialMapping mapping = getMapping(1e-2);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      mapping.encode(output);
+    } catch (IOException e) {
+      fail(e);
+    }
+
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    final IndexMapping decoded;
+    try {
+      final Flag flag = Flag.decode(input);
+      decoded = IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag));
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertThat(decoded).isEqualTo(mapping);
+    // Powers of the base remain the upper bounds of their buckets.
+    assertThat(decoded.index(mapping.upperBound(5)))
+        .isEqualTo(mapping.index(mapping.upperBound(5)));
+    assertThat(decoded.index(2.0)).isEqualTo(mapping.index(2.0));
+  }
+
+  @Test
+  void testDecodeInvalid() throws MalformedInputException {
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> Base2ExponentialMapping.ofGammaAndScale(Math.sqrt(2), 1.5));
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(
+            () ->
+                Base2ExponentialMapping.ofGammaAndScale(2, Base2ExponentialMapping.MAX_SCALE + 1));
+    assertThatExceptionOfType(MalformedInputException.class)
+        .isThrownBy(() -> Base2ExponentialMapping.ofGammaAndScale(2, 1));
+    final Base2ExponentialMapping mapping = new Base2ExponentialMapping(1);
+    assertThat(Base2ExponentialMapping.ofGammaAndScale(mapping.gamma(), 1)).isEqualTo(mapping);
+  }
+}
@@ -6,6 +6,7 @@
 package com.datadoghq.sketch.ddsketch.mapping;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
@@ -24,6 +25,15 @@ class BitwiseLinearlyInterpolatedMappingTest extends IndexMappingTest {
     return new BitwiseLinearlyInterpolatedMapping(relativeAccuracy);
   }
 
+  @Test
+  void testDownsampleDropsSignificantBinaryDigits() {
+    final BitwiseLinearlyInterpolatedMapping mapping = new BitwiseLinearlyInterpolatedMapping(6);
+    assertEquals(new BitwiseLinearlyInterpolatedMapping(4), mapping.downsample(4));
+    assertEquals(new BitwiseLinearlyInterpolatedMapping(0), mapping.downsample(64));
+    assertThrows(IllegalArgumentException.class, () -> mapping.downsample(3));
+    assertThrows(IllegalArgumentException.class, () -> mapping.downsample(128));
+  }
+
   @Test
   @Override
   void testProtoRoundTrip() {
@@ -0,0 +1,88 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class CachedValueIndexMappingTest extends IndexMappingTest {
+
+  private static final int MIN_CACHED_INDEX = -1000;
+  private static final int MAX_CACHED_INDEX = 1000;
+
+  @Override
+  CachedValueIndexMapping getMapping(double relativeAccuracy) {
+    return new CachedValueIndexMapping(
+        new CubicallyInterpolatedMapping(relativeAccuracy), MIN_CACHED_INDEX, MAX_CACHED_INDEX);
+  }
+
+  @Test
+  void testSameAsDecoratedMapping() {
+    final CachedValueIndexMapping mapping = getMapping(1e-2);
+    final IndexMapping decorated = CachedValueIndexMapping.unwrap(mapping);
+    assertThat(decorated).isExactlyInstanceOf(CubicallyInterpolatedMapping.class);
+    for (int index = MIN_CACHED_INDEX - 10; index <= MAX_CACHED_INDEX + 10; index++) {
+      assertThat(mapping.value(index)).isEqualTo(decorated.value(index));
+      assertThat(mapping.lowerBound(index)).isEqualTo(decorated.lowerBound(index));
+      assertThat(mapping.upperBound(index)).isEqualTo(decorated.upperBound(index));
+    }
+    // Not equal, as the relation would not be symmetric otherwise
+    assertThat(mapping).isNotEqualTo(decorated);
+    assertThat(decorated).isNotEqualTo(mapping);
+    assertThat(CachedValueIndexMapping.unwrap(new CachedValueIndexMapping(mapping, 0, 1)))
+        .isSameAs(decorated);
+  }
+
+  @Test
+  void testInvalidRange() {
+    final IndexMapping mapping = new LogarithmicMapping(1e-2);
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> new CachedValueIndexMapping(mapping, 1, 0));
+    assertThatIllegalArgumentException()
+        .isThrownBy(
+            () -> new CachedValueIndexMapping(mapping, Integer.MIN_VALUE, Integer.MAX_VALUE));
+  }
+
+  @Test
+  @Override
+  void testProtoRoundTrip() {
+    final CachedValueIndexMapping mapping = getMapping(1e-2);
+    assertThat(IndexMappingProtoBinding.fromProto(IndexMappingProtoBinding.toProto(mapping)))
+        .isExactlyInstanceOf(CubicallyInterpolatedMapping.class)
+        .isEqualTo(CachedValueIndexMapping.unwrap(mapping));
+  }
+
+  @Test
+  @Override
+  void testEncodeDecode() {
+    final CachedValueIndexMapping mapping = getMapping(1e-2);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      mapping.encode(output);
+    } catch (IOException e) {
+      fail(e);
+    }
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    final IndexMapping decoded;
+    try {
+      final Flag flag = Flag.decode(input);
+      decoded = IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag));
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertThat(decoded).isEqualTo(CachedValueIndexMapping.unwrap(mapping));
+  }
+}
@@ -0,0 +1,146 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
+import com.datadoghq.sketch.util.accuracy.AccuracyTester;
+import com.datadoghq.sketch.util.accuracy.RelativeAccuracyTester;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class HybridLinearLogarithmicMappingTest extends IndexMappingTest {
+
+  private static final int THRESHOLD = 100;
+  private static final double EPSILON = AccuracyTester.FLOATING_POINT_ACCEPTABLE_ERROR;
+
+  @Override
+  HybridLinearLogarithmicMapping getMapping(double relativeAccuracy) {
+    return new HybridLinearLogarithmicMapping(relativeAccuracy, THRESHOLD);
+  }
+
+  @Test
+  @Override
+  void testAccuracy() {
+    for (double relativeAccuracy = maxTestedRelativeAccuracy;
+        relativeAccuracy >= minTestedRelativeAccuracy;
+        relativeAccuracy *= maxTestedRelativeAccuracy) {
+      final IndexMapping mapping = getMapping(relativeAccuracy);
+      RelativeAccuracyTester.assertAccurate(relativeAccuracy, mapping.relativeAccuracy());
+      for (int value = 1; value < THRESHOLD; value++) {
+        assertThat(mapping.value(mapping.index(value))).isEqualTo(value);
+      }
+      // Relative accuracy is only guaranteed above the linear buckets.
+      for (double value = THRESHOLD - 0.5;
+          value < mapping.maxIndexableValue();
+          value *= multiplier) {
+        RelativeAccuracyTester.assertAccurate(
+            mapping.relativeAccuracy(),
+            RelativeAccuracyTester.compute(value, mapping.value(mapping.index(value))));
+      }
+    }
+  }
+
+  @Test
+  @Override
+  void testValidity() {
+    final IndexMapping mapping = getMapping(1e-2);
+    for (int index = 1; index <= THRESHOLD + 50; index++) {
+      assertThat(mapping.lowerBound(index)).isEqualTo(mapping.upperBound(index - 1));
+      assertThat(mapping.value(index))
+          .isBetween(mapping.lowerBound(index), mapping.upperBound(index));
+      assertThat(mapping.index(mapping.lowerBound(index) - EPSILON)).isLessThan(index);
+      assertThat(mapping.index(mapping.lowerBound(index) + EPSILON)).isEqualTo(index);
+      assertThat(mapping.index(mapping.upperBound(index) - EPSILON)).isEqualTo(index);
+    }
+  }
+
+  @Test
+  @Override
+  void testDownsample() {
+    assertThatExceptionOfType(UnsupportedOperationException.class)
+        .isThrownBy(() -> getMapping(1e-2).downsample(2));
+  }
+
+  @Test
+  void testFewerBucketsThanLogarithmicMapping() {
+    final IndexMapping mapping = getMapping(1e-2);
+    final IndexMapping logarithmicMapping = new LogarithmicMapping(1e-2);
+    assertThat(mapping.index(1e6) - mapping.index(1))
+        .isLessThan(logarithmicMapping.index(1e6) - logarithmicMapping.index(1));
+  }
+
+  @Test
+  void testExactQuantilesOfSmallIntegers() {
+    final DDSketch sketch = new DDSketch(getMapping(1e-2), UnboundedSizeDenseStore::new);
+    for (int value = 0; value < THRESHOLD; value++) {
+      sketch.accept(value);
+    }
+    for (int value = 0; value < THRESHOLD - 1; value++) {
+      // The rank of the quantile is value + 0.25, which is not subject to rounding errors.
+      final double quantile = (value + 0.25) / (THRESHOLD - 1);
+      assertThat(sketch.getValueAtQuantile(quantile)).isEqualTo(value);
+    }
+    assertThat(sketch.getMaxValue()).isEqualTo(THRESHOLD - 1);
+  }
+
+  @Test
+  void testInvalidThreshold() {
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> new HybridLinearLogarithmicMapping(1e-2, 0));
+  }
+
+  @Test
+  @Override
+  void testProtoRoundTrip() {
+    final IndexMapping mapping = getMapping(1e-2);
+    assertThatExceptionOfType(UnsupportedOperationException.class)
+        .isThrownBy(mapping::serializedSize);
+  }
+
+  @Test
+  void testSketchCannotBeSerialized() {
+    final DDSketch sketch = new DDSketch(getMapping(1e-2), UnboundedSizeDenseStore::new);
+    sketch.accept(3);
+    sketch.accept(1e6);
+    assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(sketch::serialize);
+    assertThatExceptionOfType(UnsupportedOperationException.class)
+        .isThrownBy(sketch::serializedSize);
+  }
+
+  @Test
+  @Override
+  void testEncodeDecode() {
+    final IndexMapping mapping = getMapping(1e-2);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      mapping.encode(output);
+    } catch (IOException e) {
+      fail(e);
+    }
+
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    final IndexMapping decoded;
+    try {
+      final Flag flag = Flag.decode(input);
+      decoded = IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag));
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertThat(decoded).isEqualTo(mapping);
+  }
+}
@@ -8,10 +8,14 @@ package com.datadoghq.sketch.ddsketch.mapping;
 import static com.datadoghq.sketch.ddsketch.TestHelper.BIN_COMPARISON_CONFIG;
 import static com.datadoghq.sketch.ddsketch.TestHelper.product;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 import static org.assertj.core.api.Assertions.offset;
 
 import com.datadoghq.sketch.ddsketch.store.Bin;
 import com.datadoghq.sketch.ddsketch.store.BinAcceptor;
+import com.datadoghq.sketch.ddsketch.store.BinCursor;
+import com.datadoghq.sketch.ddsketch.store.Store;
+import com.datadoghq.sketch.ddsketch.store.UnboundedSizeDenseStore;
 import com.datadoghq.sketch.util.accuracy.AccuracyTester;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,6 +25,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -107,6 +112,45 @@ public class IndexMappingConverterTest {
     assertThat(outBins).usingRecursiveComparison(BIN_COMPARISON_CONFIG).isEqualTo(shiftedBins);
   }
 
+  @ParameterizedTest
+  @MethodSource("twoMappingsAndBins")
+  void testCursor(IndexMapping inMapping, IndexMapping outMapping, List<Bin> bins) {
+    final List<Bin> outBins = new ArrayList<>();
+    IndexMappingConverter.distributingUniformly(inMapping, outMapping)
+        .convertAscendingIterator(bins.iterator(), listAdder(outBins));
+    final Store store = new UnboundedSizeDenseStore();
+    bins.forEach(store::add);
+    final List<Bin> cursorOutBins = new ArrayList<>();
+    IndexMappingConverter.distributingUniformly(inMapping, outMapping)
+        .convertAscendingCursor(store.getAscendingCursor(), listAdder(cursorOutBins));
+
+    assertThat(cursorOutBins).usingRecursiveComparison(BIN_COMPARISON_CONFIG).isEqualTo(outBins);
+  }
+
+  @Test
+  void testNonAscendingBins() {
+    final IndexMappingConverter converter =
+        IndexMappingConverter.distributingUniformly(
+            new LogarithmicMapping(1e-2), new CubicallyInterpolatedMapping(1e-2));
+    final List<Bin> bins = Arrays.asList(new Bin(3, 1), new Bin(3, 2));
+    assertThatIllegalArgumentException()
+        .isThrownBy(
+            () -> converter.convertAscendingCursor(BinCursor.of(bins.iterator()), (i, c) -> {}));
+  }
+
+  @Test
+  void testConvertersAreCached() {
+    final IndexMapping inMapping = new LogarithmicMapping(1e-2);
+    final IndexMapping outMapping = new CubicallyInterpolatedMapping(1e-2);
+    assertThat(IndexMappingConverter.distributingUniformly(inMapping, outMapping))
+        .isSameAs(
+            IndexMappingConverter.distributingUniformly(
+                new LogarithmicMapping(1e-2),
+                new CachedValueIndexMapping(new CubicallyInterpolatedMapping(1e-2), -10, 10)));
+    assertThat(IndexMappingConverter.distributingUniformly(inMapping, outMapping))
+        .isNotSameAs(IndexMappingConverter.distributingUniformly(outMapping, inMapping));
+  }
+
   static Stream<Arguments> mappingAndBins() {
     return product(mappings(), bins());
   }
@@ -0,0 +1,52 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.datadoghq.sketch.ddsketch.DDSketch;
+import com.datadoghq.sketch.ddsketch.DDSketches;
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.store.SparseStore;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+class IndexMappingRegistryTest {
+
+  @Test
+  void testIntern() {
+    final IndexMapping mapping =
+        IndexMappingRegistry.intern(new QuadraticallyInterpolatedMapping(0.013));
+    assertThat(IndexMappingRegistry.intern(new QuadraticallyInterpolatedMapping(0.013)))
+        .isSameAs(mapping);
+    assertThat(IndexMappingRegistry.intern(new QuadraticallyInterpolatedMapping(0.014)))
+        .isNotSameAs(mapping);
+    // Equal parameters but different classes
+    assertThat(IndexMappingRegistry.intern(new LinearlyInterpolatedMapping(0.013)))
+        .isNotSameAs(mapping);
+    // Equal mappings of different classes
+    final IndexMapping logarithmicMapping =
+        IndexMappingRegistry.intern(new LogarithmicMapping(0.013));
+    assertThat(IndexMappingRegistry.intern(new LookupTableLogarithmicMapping(0.013)))
+        .isEqualTo(logarithmicMapping)
+        .isInstanceOf(LookupTableLogarithmicMapping.class);
+  }
+
+  @Test
+  void testDecodedMappingsAreShared() throws IOException {
+    final DDSketch sketch = DDSketches.unboundedDense(0.01);
+    sketch.accept(1);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    sketch.encode(output, false);
+    final byte[] encoded = output.trimmedCopy();
+
+    final DDSketch decoded1 = DDSketch.decode(ByteArrayInput.wrap(encoded), SparseStore::new);
+    final DDSketch decoded2 = DDSketch.decode(ByteArrayInput.wrap(encoded), SparseStore::new);
+    assertThat(decoded1.getIndexMapping()).isSameAs(sketch.getIndexMapping());
+    assertThat(decoded2.getIndexMapping()).isSameAs(sketch.getIndexMapping());
+  }
+}
@@ -6,6 +6,7 @@
 package com.datadoghq.sketch.ddsketch.mapping;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 import static org.assertj.core.api.Assertions.offset;
 
 import com.datadoghq.sketch.util.accuracy.AccuracyTester;
@@ -57,6 +58,41 @@ abstract class IndexMappingTest {
     }
   }
 
+  @Test
+  void testLongIndex() {
+    final IndexMapping mapping = getMapping(1e-2);
+    for (long value = 1; value > 0; value = value * 3 / 2 + 1) {
+      for (final long v :
+          new long[] {value, Long.highestOneBit(value), Long.highestOneBit(value) - 1}) {
+        if (v <= 0 || v > mapping.maxIndexableValue()) {
+          continue;
+        }
+        if (v <= 1L << 53) {
+          // The value is exactly representable as a double.
+          assertThat(mapping.index(v)).isEqualTo(mapping.index((double) v));
+        } else {
+          assertThat(mapping.index(v))
+              .isBetween(
+                  mapping.index(Math.nextDown((double) v)), mapping.index(Math.nextUp((double) v)));
+        }
+      }
+    }
+  }
+
+  @Test
+  void testDownsample() {
+    final IndexMapping mapping = getMapping(1e-2);
+    assertThat(mapping.downsample(1)).isEqualTo(mapping);
+    assertThatIllegalArgumentException().isThrownBy(() -> mapping.downsample(0));
+    for (final int factor : new int[] {2, 4, 8}) {
+      final IndexMapping downsampled = mapping.downsample(factor);
+      testAccuracy(downsampled, downsampled.relativeAccuracy());
+      for (double value = 1e-6; value < 1e6; value *= multiplier) {
+        assertThat(downsampled.index(value)).isEqualTo(Math.floorDiv(mapping.index(value), factor));
+      }
+    }
+  }
+
   @Test
   abstract void testProtoRoundTrip();
 
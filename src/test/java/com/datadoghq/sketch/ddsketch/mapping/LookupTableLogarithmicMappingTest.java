@@ -0,0 +1,91 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.mapping;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.datadoghq.sketch.ddsketch.encoding.ByteArrayInput;
+import com.datadoghq.sketch.ddsketch.encoding.Flag;
+import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
+import com.datadoghq.sketch.ddsketch.encoding.IndexMappingLayout;
+import com.datadoghq.sketch.ddsketch.encoding.Input;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LookupTableLogarithmicMappingTest extends LogLikeIndexMappingTest {
+
+  @Override
+  LookupTableLogarithmicMapping getMapping(double relativeAccuracy) {
+    return new LookupTableLogarithmicMapping(relativeAccuracy);
+  }
+
+  @Override
+  LookupTableLogarithmicMapping getMapping(double gamma, double indexOffset) {
+    return new LookupTableLogarithmicMapping(gamma, indexOffset);
+  }
+
+  @Test
+  void testSameIndexesAsLogarithmicMapping() {
+    final Random random = new Random(5);
+    for (final double relativeAccuracy : new double[] {1e-1, 1e-2, 1e-4, 1e-7}) {
+      final LookupTableLogarithmicMapping mapping = getMapping(relativeAccuracy);
+      final LogarithmicMapping logarithmicMapping = new LogarithmicMapping(relativeAccuracy);
+      final double logMinValue = Math.log(mapping.minIndexableValue());
+      final double logMaxValue = Math.log(mapping.maxIndexableValue());
+      for (int i = 0; i < 100_000; i++) {
+        final double value =
+            Math.exp(logMinValue + random.nextDouble() * (logMaxValue - logMinValue));
+        assertThat(mapping.index(value)).isEqualTo(logarithmicMapping.index(value));
+      }
+      for (long value = 1; value > 0; value = value * 3 + 1) {
+        assertThat(mapping.index(value)).isEqualTo(logarithmicMapping.index(value));
+      }
+    }
+  }
+
+  @Test
+  void testEqualToLogarithmicMapping() {
+    final LookupTableLogarithmicMapping mapping = getMapping(1.02, 3);
+    final LogarithmicMapping logarithmicMapping = new LogarithmicMapping(1.02, 3);
+    assertThat(mapping).isEqualTo(logarithmicMapping).hasSameHashCodeAs(logarithmicMapping);
+    assertThat(logarithmicMapping).isEqualTo(mapping);
+    assertThat(mapping).isNotEqualTo(new LogarithmicMapping(1.02, 2));
+    assertThat(mapping).isNotEqualTo(new CubicallyInterpolatedMapping(1.02, 3));
+  }
+
+  @Test
+  @Override
+  void testProtoRoundTrip() {
+    final LookupTableLogarithmicMapping mapping = getMapping(1e-2);
+    assertThat(IndexMappingProtoBinding.fromProto(IndexMappingProtoBinding.toProto(mapping)))
+        .isEqualTo(new LogarithmicMapping(mapping.gamma(), mapping.indexOffset()));
+  }
+
+  @Test
+  @Override
+  void testEncodeDecode() {
+    final LookupTableLogarithmicMapping mapping = getMapping(1.02, 3);
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    try {
+      mapping.encode(output);
+    } catch (IOException e) {
+      fail(e);
+    }
+
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    final IndexMapping decoded;
+    try {
+      final Flag flag = Flag.decode(input);
+      decoded = IndexMapping.decode(input, IndexMappingLayout.ofFlag(flag));
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    assertThat(decoded).isEqualTo(new LogarithmicMapping(1.02, 3));
+  }
+}
@@ -0,0 +1,50 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+abstract class CollapsingHighestCircularDenseStoreTest extends CollapsingHighestDenseStoreTest {
+
+  @Override
+  Store newStore() {
+    return new CollapsingHighestCircularDenseStore(maxNumBins());
+  }
+
+  static class CollapsingHighestCircularDenseStoreTest1
+      extends CollapsingHighestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 1;
+    }
+  }
+
+  static class CollapsingHighestCircularDenseStoreTest20
+      extends CollapsingHighestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 20;
+    }
+  }
+
+  static class CollapsingHighestCircularDenseStoreTest64
+      extends CollapsingHighestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 64;
+    }
+  }
+
+  static class CollapsingHighestCircularDenseStoreTest1000
+      extends CollapsingHighestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 1000;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+abstract class CollapsingLowestCircularDenseStoreTest extends CollapsingLowestDenseStoreTest {
+
+  @Override
+  Store newStore() {
+    return new CollapsingLowestCircularDenseStore(maxNumBins());
+  }
+
+  static class CollapsingLowestCircularDenseStoreTest1
+      extends CollapsingLowestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 1;
+    }
+  }
+
+  static class CollapsingLowestCircularDenseStoreTest20
+      extends CollapsingLowestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 20;
+    }
+  }
+
+  static class CollapsingLowestCircularDenseStoreTest64
+      extends CollapsingLowestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 64;
+    }
+  }
+
+  static class CollapsingLowestCircularDenseStoreTest1000
+      extends CollapsingLowestCircularDenseStoreTest {
+
+    @Override
+    int maxNumBins() {
+      return 1000;
+    }
+  }
+}
@@ -16,11 +16,21 @@ import com.datadoghq.sketch.ddsketch.encoding.Flag;
 import com.datadoghq.sketch.ddsketch.encoding.GrowingByteArrayOutput;
 import com.datadoghq.sketch.ddsketch.encoding.Input;
 import com.datadoghq.sketch.ddsketch.encoding.Output;
+import com.datadoghq.sketch.ddsketch.encoding.VarEncodingHelper;
+import com.datadoghq.sketch.ddsketch.footprint.Distribution;
+import com.datadoghq.sketch.ddsketch.footprint.Distributions;
+import com.datadoghq.sketch.ddsketch.mapping.IndexMapping;
+import com.datadoghq.sketch.ddsketch.mapping.LogarithmicMapping;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -30,6 +40,10 @@ class EncodingTest {
 
   private static final Flag.Type STORE_FLAG_TYPE = Flag.Type.POSITIVE_STORE;
 
+  private static final Set<BinEncodingMode> VARINT_COUNT_MODES =
+      EnumSet.of(
+          BinEncodingMode.INDEX_DELTAS_AND_VARINT_COUNTS, BinEncodingMode.CONTIGUOUS_VARINT_COUNTS);
+
   @ParameterizedTest
   @MethodSource("binsAndStoreTestCases")
   void testEncodeDecode(
@@ -66,6 +80,217 @@ class EncodingTest {
             });
   }
 
+  @ParameterizedTest
+  @MethodSource("storeTestCases")
+  void testIntegerCountsEncodedAsVarInts(StoreTestCase storeTestCase) {
+    final Store store = storeTestCase.storeSupplier().get();
+    IntStream.range(0, 50).forEach(index -> store.add(index, 1000L + 17 * index));
+    assertThat(encodingModes(store)).isNotEmpty().allMatch(VARINT_COUNT_MODES::contains);
+  }
+
+  @ParameterizedTest
+  @MethodSource("storeTestCases")
+  void testNonIntegerCountsEncodedAsVarFloats(StoreTestCase storeTestCase) {
+    final Store store = storeTestCase.storeSupplier().get();
+    IntStream.range(0, 50).forEach(index -> store.add(index, 1000.5 + 17 * index));
+    assertThat(encodingModes(store)).isNotEmpty().noneMatch(VARINT_COUNT_MODES::contains);
+  }
+
+  @ParameterizedTest
+  @MethodSource("distributionsAndStoreTestCases")
+  void testVarIntCountsReduceEncodedSize(Distribution distribution, StoreTestCase storeTestCase) {
+    final IndexMapping mapping = new LogarithmicMapping(0.01);
+    final Store store = storeTestCase.storeSupplier().get();
+    for (int i = 0; i < 100_000; i++) {
+      final long value = Math.abs(Math.round(distribution.nextValue()));
+      if (value > 0) {
+        store.add(mapping.index(value));
+      }
+    }
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    encode(output, store);
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    assertThat((long) output.numWrittenBytes()).isLessThan(varFloatCountsEncodedLength(input));
+  }
+
+  @ParameterizedTest
+  @MethodSource("runEncodedStoreTestCases")
+  void testSeparatedClustersEncodedAsSeparateRuns(StoreTestCase storeTestCase) {
+    final Store store = storeTestCase.storeSupplier().get();
+    IntStream.range(0, 20).forEach(index -> store.add(index, 1000L + 17 * index));
+    IntStream.range(80, 100).forEach(index -> store.add(index, 1000L + 17 * index));
+    assertThat(encodingModes(store))
+        .containsExactly(
+            BinEncodingMode.CONTIGUOUS_VARINT_COUNTS, BinEncodingMode.CONTIGUOUS_VARINT_COUNTS);
+  }
+
+  @ParameterizedTest
+  @MethodSource("runEncodedStoreTestCases")
+  void testScatteredUnitCountsEncodedAsIndexDeltas(StoreTestCase storeTestCase) {
+    final Store store = storeTestCase.storeSupplier().get();
+    IntStream.range(0, 4).forEach(i -> store.add(33 * i));
+    assertThat(encodingModes(store)).containsExactly(BinEncodingMode.INDEX_DELTAS);
+  }
+
+  @ParameterizedTest
+  @MethodSource("distributionsAndRunEncodedStoreTestCases")
+  void testRunsDoNotIncreaseEncodedSize(Distribution distribution, StoreTestCase storeTestCase) {
+    final IndexMapping mapping = new LogarithmicMapping(0.01);
+    final Store store = storeTestCase.storeSupplier().get();
+    for (int i = 0; i < 100_000; i++) {
+      store.add(mapping.index(Math.max(1, Math.abs(distribution.nextValue()))));
+    }
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    encode(output, store);
+    assertThat((long) output.numWrittenBytes()).isLessThanOrEqualTo(singleRunEncodedLength(store));
+  }
+
+  static Stream<Arguments> storeTestCases() {
+    return StoreTestCase.argStream();
+  }
+
+  static Stream<Arguments> distributionsAndStoreTestCases() {
+    // Same distributions as the ones of DataGenerator, which is used in benchmarks.
+    return product(
+        Stream.of(
+                Distributions.POISSON.of(0.1),
+                Distributions.POISSON.of(0.001).composeWith(Distributions.POISSON.of(0.999)),
+                Distributions.NORMAL
+                    .of(100, 10)
+                    .composeWith(
+                        Distributions.NORMAL
+                            .of(1000, 100)
+                            .composeWith(Distributions.NORMAL.of(10000, 1000))))
+            .map(Arguments::of),
+        StoreTestCase.argStream());
+  }
+
+  static Stream<Arguments> runEncodedStoreTestCases() {
+    // SparseStore encodes all its bins as a single run.
+    return StoreTestCase.argStream()
+        .filter(arguments -> arguments.get()[0] != StoreTestCase.SPARSE);
+  }
+
+  static Stream<Arguments> distributionsAndRunEncodedStoreTestCases() {
+    return distributionsAndStoreTestCases()
+        .filter(arguments -> arguments.get()[1] != StoreTestCase.SPARSE);
+  }
+
+  private static List<BinEncodingMode> encodingModes(Store store) {
+    final GrowingByteArrayOutput output = GrowingByteArrayOutput.withDefaultInitialCapacity();
+    encode(output, store);
+    final Input input = ByteArrayInput.wrap(output.backingArray(), 0, output.numWrittenBytes());
+    final List<BinEncodingMode> encodingModes = new ArrayList<>();
+    final Store decoded = new SparseStore();
+    try {
+      while (input.hasRemaining()) {
+        final BinEncodingMode encodingMode = BinEncodingMode.ofFlag(Flag.decode(input));
+        encodingModes.add(encodingMode);
+        decoded.decodeAndMergeWith(input, encodingMode);
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+    return encodingModes;
+  }
+
+  /**
+   * @return the number of bytes that the encoded store would take if counts were encoded as
+   *     varfloats instead of varints, everything else being equal
+   */
+  private static long varFloatCountsEncodedLength(Input input) {
+    long length = 0;
+    try {
+      while (input.hasRemaining()) {
+        final BinEncodingMode encodingMode = BinEncodingMode.ofFlag(Flag.decode(input));
+        length++;
+        final long numBins = VarEncodingHelper.decodeUnsignedVarLong(input);
+        length += VarEncodingHelper.unsignedVarLongEncodedLength(numBins);
+        switch (encodingMode) {
+          case INDEX_DELTAS:
+            for (long i = 0; i < numBins; i++) {
+              final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+              length += VarEncodingHelper.signedVarLongEncodedLength(indexDelta);
+            }
+            break;
+          case INDEX_DELTAS_AND_COUNTS:
+          case INDEX_DELTAS_AND_VARINT_COUNTS:
+            for (long i = 0; i < numBins; i++) {
+              final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+              length += VarEncodingHelper.signedVarLongEncodedLength(indexDelta);
+              length += varFloatCountEncodedLength(input, encodingMode);
+            }
+            break;
+          case CONTIGUOUS_COUNTS:
+          case CONTIGUOUS_VARINT_COUNTS:
+            final long index = VarEncodingHelper.decodeSignedVarLong(input);
+            final long indexDelta = VarEncodingHelper.decodeSignedVarLong(input);
+            length += VarEncodingHelper.signedVarLongEncodedLength(index);
+            length += VarEncodingHelper.signedVarLongEncodedLength(indexDelta);
+            for (long i = 0; i < numBins; i++) {
+              length += varFloatCountEncodedLength(input, encodingMode);
+            }
+            break;
+          default:
+            fail("Unexpected encoding mode: " + encodingMode);
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+    }
+    return length;
+  }
+
+  /**
+   * @return the number of bytes that the store would take if all its bins were encoded as a single
+   *     run, with the most compact encoding mode
+   */
+  private static long singleRunEncodedLength(Store store) {
+    final long numBins = (long) store.getMaxIndex() - store.getMinIndex() + 1;
+    final long contiguousHeaderLength =
+        1
+            + VarEncodingHelper.unsignedVarLongEncodedLength(numBins)
+            + VarEncodingHelper.signedVarLongEncodedLength(store.getMinIndex())
+            + VarEncodingHelper.signedVarLongEncodedLength(1);
+    final long[] lengths = {contiguousHeaderLength, contiguousHeaderLength, 1, 1};
+    final boolean[] integralCounts = {true};
+    final long[] numNonEmptyBins = {0};
+    final long[] previousIndex = {0};
+    store.forEach(
+        (index, count) -> {
+          final long indexDeltaLength =
+              VarEncodingHelper.signedVarLongEncodedLength(index - previousIndex[0]);
+          lengths[0] += VarEncodingHelper.varDoubleEncodedLength(count);
+          lengths[2] += indexDeltaLength + VarEncodingHelper.varDoubleEncodedLength(count);
+          if (VarEncodingHelper.isUnsignedVarLongEncodable(count)) {
+            lengths[1] += VarEncodingHelper.unsignedVarLongEncodedLength((long) count);
+            lengths[3] +=
+                indexDeltaLength + VarEncodingHelper.unsignedVarLongEncodedLength((long) count);
+          } else {
+            integralCounts[0] = false;
+          }
+          numNonEmptyBins[0]++;
+          previousIndex[0] = index;
+        });
+    final long numEmptyBins = numBins - numNonEmptyBins[0];
+    lengths[0] += numEmptyBins * VarEncodingHelper.varDoubleEncodedLength(0);
+    lengths[1] += numEmptyBins * VarEncodingHelper.unsignedVarLongEncodedLength(0);
+    lengths[2] += VarEncodingHelper.unsignedVarLongEncodedLength(numNonEmptyBins[0]);
+    lengths[3] += VarEncodingHelper.unsignedVarLongEncodedLength(numNonEmptyBins[0]);
+    return integralCounts[0]
+        ? Arrays.stream(lengths).min().getAsLong()
+        : Math.min(lengths[0], lengths[2]);
+  }
+
+  private static long varFloatCountEncodedLength(Input input, BinEncodingMode encodingMode)
+      throws IOException {
+    final double count =
+        VARINT_COUNT_MODES.contains(encodingMode)
+            ? VarEncodingHelper.decodeUnsignedVarLong(input)
+            : VarEncodingHelper.decodeVarDouble(input);
+    return VarEncodingHelper.varDoubleEncodedLength(count);
+  }
+
   private static List<Bin> normalize(Collection<Bin> bins) {
     final Map<Integer, Double> groupedByIndex =
         bins.stream()
@@ -0,0 +1,65 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class FenwickTreeDenseStoreTest extends ExhaustiveStoreTest {
+
+  @Override
+  Store newStore() {
+    return new FenwickTreeDenseStore();
+  }
+
+  @Test
+  void testRankQueriesWhileAdding() {
+    final Store store = newStore();
+    // Ascending and descending indexes, so that the array grows on both sides.
+    for (int i = 0; i < 500; i++) {
+      store.add(i % 2 == 0 ? i : -i, 1 + i % 3);
+      assertRankQueries(store);
+    }
+  }
+
+  @Test
+  void testRankQueriesAfterMutations() {
+    final Store store = newStore();
+    IntStream.range(0, 1000).forEach(store::add);
+    assertRankQueries(store);
+
+    final Store other = new UnboundedSizeDenseStore();
+    IntStream.range(-300, 200).forEach(index -> other.add(index, 2));
+    store.mergeWith(other);
+    assertRankQueries(store);
+
+    store.mergeWith(store.copy());
+    assertRankQueries(store);
+
+    store.downsample(7);
+    assertRankQueries(store);
+    store.add(5000);
+    assertRankQueries(store);
+
+    store.clear();
+    assertRankQueries(store);
+    store.reserve(-10, 10);
+    IntStream.range(-10, 10).forEach(store::add);
+    assertRankQueries(store);
+  }
+
+  @Override
+  void testExtremeValues() {
+    // FenwickTreeDenseStore is not meant to be used with values that are extremely far from one
+    // another as it would allocate an excessively large array.
+  }
+
+  @Override
+  void testMergingExtremeValues() {
+    // FenwickTreeDenseStore is not meant to be used with values that are extremely far from one
+    // another as it would allocate an excessively large array.
+  }
+}
@@ -7,10 +7,12 @@ package com.datadoghq.sketch.ddsketch.store;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Iterator;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -34,6 +36,26 @@ public class PaginatedStoreTest extends ExhaustiveStoreTest {
     // it would allocate an excessively large array.
   }
 
+  @Test
+  void testTrimToSizeDropsEmptyPages() {
+    final Store store = newStore();
+    IntStream.range(-1000, 1000).forEach(store::add);
+    // Clearing the store keeps its pages, which are reused if they match the new indexes.
+    store.clear();
+    IntStream.range(0, 10).forEach(store::add);
+    final Store expected = newStore();
+    IntStream.range(0, 10).forEach(expected::add);
+    expected.trimToSize();
+
+    final long untrimmedSizeInBytes = store.estimatedSizeInBytes();
+    store.trimToSize();
+    assertTrue(store.estimatedSizeInBytes() < untrimmedSizeInBytes);
+    assertEquals(expected.estimatedSizeInBytes(), store.estimatedSizeInBytes());
+    assertEquals(0, store.getMinIndex());
+    assertEquals(9, store.getMaxIndex());
+    assertEquals(10, store.getTotalCount());
+  }
+
   public static Stream<Arguments> affineTransformations() {
     return Stream.of(
         Arguments.of(1, 0),
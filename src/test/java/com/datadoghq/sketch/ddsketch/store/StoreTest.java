@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -43,6 +45,18 @@ abstract class StoreTest {
     return getCounts(StreamSupport.stream(Spliterators.spliteratorUnknownSize(bins, 0), false));
   }
 
+  private static Map<Integer, Double> getCounts(BinCursor cursor) {
+    final List<Bin> bins = new ArrayList<>();
+    while (cursor.next()) {
+      bins.add(new Bin(cursor.getIndex(), cursor.getCount()));
+    }
+    assertFalse(cursor.next());
+    for (int i = 1; i < bins.size(); i++) {
+      assertTrue(bins.get(i - 1).getIndex() < bins.get(i).getIndex());
+    }
+    return getCounts(bins.stream());
+  }
+
   private static Map<Integer, Double> getCounts(Store store) {
     Map<Integer, Double> counts = new TreeMap<>();
     store.forEach(counts::put);
@@ -135,6 +149,7 @@ abstract class StoreTest {
     assertSameCounts(expectedCounts, getCounts(store.getDescendingStream()));
     assertSameCounts(expectedCounts, getCounts(store.getAscendingIterator()));
     assertSameCounts(expectedCounts, getCounts(store.getDescendingIterator()));
+    assertSameCounts(expectedCounts, getCounts(store.getAscendingCursor()));
     assertSameCounts(expectedCounts, getCounts(store));
   }
 
@@ -212,6 +227,32 @@ abstract class StoreTest {
               });
       test(Arrays.stream(bins).flatMap(Arrays::stream).toArray(Bin[]::new), store);
     }
+    for (final Supplier<Store> otherStoreSupplier : OTHER_STORE_SUPPLIERS) {
+      final Store store = newStore();
+      Arrays.stream(bins)
+          .forEach(storeBins -> store.mergeWith(newOtherStore(otherStoreSupplier, storeBins)));
+      test(Arrays.stream(bins).flatMap(Arrays::stream).toArray(Bin[]::new), store);
+    }
+  }
+
+  /** Stores of other types that are merged into the tested one. */
+  private static final List<Supplier<Store>> OTHER_STORE_SUPPLIERS =
+      Arrays.asList(
+          UnboundedSizeDenseStore::new,
+          UnboundedSizeCircularDenseStore::new,
+          PaginatedStore::new,
+          SparseStore::new);
+
+  private static Store newOtherStore(Supplier<Store> storeSupplier, Bin[] bins) {
+    final IntSummaryStatistics indexes =
+        Arrays.stream(bins).mapToInt(Bin::getIndex).summaryStatistics();
+    // Only sparse stores can hold indexes that are extremely far from one another.
+    final Store store =
+        bins.length > 0 && (long) indexes.getMax() - indexes.getMin() > 1 << 20
+            ? new SparseStore()
+            : storeSupplier.get();
+    Arrays.stream(bins).forEach(store::add);
+    return store;
   }
 
   @Test
@@ -358,6 +399,211 @@ abstract class StoreTest {
         AccuracyTester.FLOATING_POINT_ACCEPTABLE_ERROR);
   }
 
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testDownsample(int[] data) {
+    for (final int factor : new int[] {1, 2, 3, 64}) {
+      for (final int shift : new int[] {0, -5000}) {
+        final Store store = newStore();
+        Arrays.stream(data).forEach(index -> store.add(index + shift));
+        store.downsample(factor);
+        // Stores that collapse bins do so before downsampling.
+        final Map<Integer, Double> counts =
+            getCounts(
+                Arrays.stream(data)
+                    .mapToObj(index -> new Bin(index + shift, 1))
+                    .toArray(Bin[]::new));
+        test(
+            counts.entrySet().stream()
+                .map(entry -> new Bin(Math.floorDiv(entry.getKey(), factor), entry.getValue()))
+                .toArray(Bin[]::new),
+            store);
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testCopyCountsTo(int[] data) {
+    final Store store = newStore();
+    Arrays.stream(data).forEach(store::add);
+    final Map<Integer, Double> counts = getCounts(store);
+    for (final int fromIndex : new int[] {-100, 0, 5, 9990, Integer.MIN_VALUE}) {
+      for (final int length : new int[] {0, 1, 20, 200}) {
+        final long[] copied = new long[length];
+        Arrays.fill(copied, -1);
+        store.copyCountsTo(fromIndex, copied);
+        for (int i = 0; i < length; i++) {
+          assertEquals(
+              Math.round(counts.getOrDefault(fromIndex + i, 0.0)),
+              copied[i],
+              "index " + (fromIndex + i));
+        }
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testReserve(int[] data) {
+    final Bin[] bins = Arrays.stream(data).mapToObj(index -> new Bin(index, 1)).toArray(Bin[]::new);
+    final int minIndex = Arrays.stream(data).min().orElse(0);
+    final int maxIndex = Arrays.stream(data).max().orElse(0);
+    for (final int[] range :
+        new int[][] {
+          {minIndex, maxIndex}, {minIndex - 3, maxIndex + 5}, {maxIndex, maxIndex}, {1000, 2000}
+        }) {
+      final Store store = newStore();
+      store.reserve(range[0], range[1]);
+      assertTrue(store.isEmpty());
+      Arrays.stream(bins).forEach(store::add);
+      test(bins, store);
+    }
+  }
+
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testTrimToSize(int[] data) {
+    final Store store = newStore();
+    final Store untrimmed = newStore();
+    Arrays.stream(data).forEach(store::add);
+    Arrays.stream(data).forEach(untrimmed::add);
+    final long untrimmedSizeInBytes = store.estimatedSizeInBytes();
+    store.trimToSize();
+    assertTrue(store.estimatedSizeInBytes() <= untrimmedSizeInBytes);
+    assertTrue(store.estimatedSizeInBytes() <= store.copy().estimatedSizeInBytes());
+    assertSameCounts(getCounts(untrimmed), getCounts(store));
+    store.trimToSize();
+    assertSameCounts(getCounts(untrimmed), getCounts(store));
+
+    // The store grows again when updated.
+    Arrays.stream(data).forEach(index -> store.add(index - 5000));
+    Arrays.stream(data).forEach(index -> untrimmed.add(index - 5000));
+    assertSameCounts(getCounts(untrimmed), getCounts(store));
+
+    // Cleared stores release their storage.
+    store.clear();
+    store.trimToSize();
+    assertTrue(store.isEmpty());
+    assertEquals(newStore().estimatedSizeInBytes(), store.estimatedSizeInBytes());
+    Arrays.stream(data).forEach(store::add);
+    untrimmed.clear();
+    Arrays.stream(data).forEach(untrimmed::add);
+    assertSameCounts(getCounts(untrimmed), getCounts(store));
+  }
+
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testRankQueries(int[] data) {
+    final Store store = newStore();
+    Arrays.stream(data).forEach(store::add);
+    assertRankQueries(store);
+  }
+
+  static void assertRankQueries(Store store) {
+    final Map<Integer, Double> counts = getCounts(store);
+    if (counts.isEmpty()) {
+      assertEquals(0, store.getCountUpTo(0));
+      assertThrows(NoSuchElementException.class, () -> store.getIndexAtRank(0));
+      assertThrows(NoSuchElementException.class, () -> store.getIndexAtDescendingRank(0));
+      return;
+    }
+    final double totalCount = counts.values().stream().mapToDouble(count -> count).sum();
+    // Checking a sample of the bins is enough, and keeps the test fast with the default linear
+    // implementations.
+    final int step = Math.max(counts.size() / 100, 1);
+    int binNumber = 0;
+    double lowerRank = 0;
+    for (final Entry<Integer, Double> entry : counts.entrySet()) {
+      final int index = entry.getKey();
+      final double upperRank = lowerRank + entry.getValue();
+      if (binNumber++ % step == 0) {
+        assertEquals(lowerRank, store.getCountUpTo(index - 1));
+        assertEquals(upperRank, store.getCountUpTo(index));
+        assertEquals(index, store.getIndexAtRank(lowerRank));
+        assertEquals(index, store.getIndexAtRank((lowerRank + upperRank) / 2));
+        assertEquals(index, store.getIndexAtDescendingRank(totalCount - upperRank));
+        assertEquals(
+            index, store.getIndexAtDescendingRank(totalCount - (lowerRank + upperRank) / 2));
+      }
+      lowerRank = upperRank;
+    }
+    assertEquals(totalCount, store.getCountUpTo(Integer.MAX_VALUE));
+    assertEquals(0, store.getCountUpTo(Integer.MIN_VALUE));
+    // Ranks that are not less than the total count are clamped.
+    assertEquals(store.getMaxIndex(), store.getIndexAtRank(totalCount));
+    assertEquals(store.getMinIndex(), store.getIndexAtDescendingRank(totalCount));
+  }
+
+  private static Stream<Consumer<Store>> mutations() {
+    return Stream.of(
+        store -> store.add(3),
+        store -> store.add(-20000, 2),
+        store -> store.add(new Bin(50000, 0.5)),
+        store -> IntStream.range(-100, 100).forEach(store::add),
+        store -> store.mergeWith(store.copy()),
+        store -> {
+          final Store other = new UnboundedSizeDenseStore();
+          IntStream.range(0, 300).forEach(index -> other.add(3 * index, 2));
+          store.mergeWith(other);
+        },
+        store -> store.downsample(3),
+        store -> store.reserve(-10, 10),
+        Store::trimToSize,
+        store -> {
+          store.clear();
+          store.trimToSize();
+          store.add(7);
+        },
+        Store::clear);
+  }
+
+  @ParameterizedTest
+  @MethodSource("intStreams")
+  void testSnapshot(int[] data) {
+    mutations()
+        .forEach(
+            mutation -> {
+              final Store store = newStore();
+              Arrays.stream(data).forEach(store::add);
+              final Map<Integer, Double> counts = getCounts(store);
+
+              // Updating the store does not affect its snapshots, nor the snapshots of these.
+              final Store snapshot = store.snapshot();
+              final Store snapshotOfSnapshot = snapshot.snapshot();
+              final Store copyOfSnapshot = snapshot.copy();
+              assertSameCounts(counts, getCounts(snapshot));
+              mutation.accept(store);
+              final Map<Integer, Double> mutatedCounts = getCounts(store);
+              assertSameCounts(counts, getCounts(snapshot));
+              assertSameCounts(counts, getCounts(snapshotOfSnapshot));
+              assertSameCounts(counts, getCounts(copyOfSnapshot));
+
+              // Conversely, updating a snapshot does not affect the store, nor the other snapshots.
+              mutation.accept(snapshot);
+              assertSameCounts(mutatedCounts, getCounts(store));
+              assertSameCounts(counts, getCounts(snapshotOfSnapshot));
+              assertSameCounts(counts, getCounts(copyOfSnapshot));
+              mutation.accept(snapshotOfSnapshot);
+              mutation.accept(copyOfSnapshot);
+              assertSameCounts(mutatedCounts, getCounts(snapshot));
+              assertSameCounts(mutatedCounts, getCounts(snapshotOfSnapshot));
+              assertSameCounts(mutatedCounts, getCounts(copyOfSnapshot));
+
+              // The store can be snapshotted again once it has been updated.
+              final Store otherSnapshot = store.snapshot();
+              mutation.accept(store);
+              assertSameCounts(mutatedCounts, getCounts(otherSnapshot));
+            });
+  }
+
+  @Test
+  void testDownsampleInvalidFactor() {
+    final Store store = newStore();
+    store.add(1);
+    assertThrows(IllegalArgumentException.class, () -> store.downsample(0));
+  }
+
   public static Stream<Arguments> intStreams() {
     return Stream.of(
             new int[0],
@@ -0,0 +1,71 @@
+/* Unless explicitly stated otherwise all files in this repository are licensed under the Apache License 2.0.
+ * This product includes software developed at Datadog (https://www.datadoghq.com/).
+ * Copyright 2021 Datadog, Inc.
+ */
+
+package com.datadoghq.sketch.ddsketch.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class UnboundedSizeCircularDenseStoreTest extends ExhaustiveStoreTest {
+
+  @Override
+  Store newStore() {
+    return new UnboundedSizeCircularDenseStore();
+  }
+
+  @Test
+  void testExtendingRangeDoesNotMoveCounts() {
+    final UnboundedSizeCircularDenseStore store = new UnboundedSizeCircularDenseStore();
+    store.add(0);
+    final double[] counts = store.counts;
+    store.add(-30);
+    store.add(33, 2);
+    assertSame(counts, store.counts);
+    assertEquals(1, counts[0]);
+    assertEquals(1, counts[-30 & (counts.length - 1)]);
+    assertEquals(2, counts[33]);
+
+    // The range drifts as far as it can, wrapping around the array many times.
+    for (int index = 64; index < 10000; index++) {
+      store.clear();
+      store.add(index - 63);
+      store.add(index, 2);
+      assertSame(counts, store.counts);
+      assertEquals(index - 63, store.getMinIndex());
+      assertEquals(index, store.getMaxIndex());
+      assertEquals(3, store.getTotalCount());
+    }
+  }
+
+  @Test
+  void testGrowingUnrollsTheArray() {
+    final UnboundedSizeCircularDenseStore store = new UnboundedSizeCircularDenseStore();
+    for (int index = -10; index < 50; index++) {
+      store.add(index, index + 11);
+    }
+    store.add(-100);
+    store.add(300, 0.5);
+    assertEquals(512, store.counts.length);
+    for (int index = -10; index < 50; index++) {
+      assertEquals(index + 11, store.counts[index & (store.counts.length - 1)]);
+    }
+    assertEquals(1, store.counts[-100 & (store.counts.length - 1)]);
+    assertEquals(0.5, store.counts[300 & (store.counts.length - 1)]);
+  }
+
+  @Override
+  void testExtremeValues() {
+    // UnboundedSizeCircularDenseStore is not meant to be used with values that are extremely far
+    // from one another as it would allocate an excessively large array.
+  }
+
+  @Override
+  void testMergingExtremeValues() {
+    // UnboundedSizeCircularDenseStore is not meant to be used with values that are extremely far
+    // from one another as it would allocate an excessively large array.
+  }
+}
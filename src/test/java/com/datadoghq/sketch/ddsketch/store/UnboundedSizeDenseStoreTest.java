@@ -5,6 +5,12 @@
 
 package com.datadoghq.sketch.ddsketch.store;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
 class UnboundedSizeDenseStoreTest extends ExhaustiveStoreTest {
 
   @Override
@@ -12,6 +18,18 @@ class UnboundedSizeDenseStoreTest extends ExhaustiveStoreTest {
     return new UnboundedSizeDenseStore();
   }
 
+  @Test
+  void testReserveAvoidsGrowing() {
+    final UnboundedSizeDenseStore store = new UnboundedSizeDenseStore();
+    store.reserve(-100, 1000);
+    final double[] counts = store.counts;
+    final int offset = store.offset;
+    store.add(500);
+    IntStream.rangeClosed(-100, 1000).forEach(store::add);
+    assertSame(counts, store.counts);
+    assertEquals(offset, store.offset);
+  }
+
   @Override
   void testExtremeValues() {
     // UnboundedSizeDenseStore is not meant to be used with values that are extremely far from one